@@ -0,0 +1,91 @@
+package com.ok.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compare a JMH JSON result file with the checked-in baseline.
+ * Fails (exit 1) when a score or the normalised allocation rate regresses by more than the
+ * threshold. Benchmarks missing from either file are only reported.
+ *
+ * Usage: BaselineCheck baseline.json result.json [threshold, default 0.20]
+ */
+public final class BaselineCheck {
+  private static final String ALLOC = "gc.alloc.rate.norm";
+  // Allocation differences below this many bytes/op are noise (e.g. a boxed return value)
+  private static final double ALLOC_SLACK_BYTES = 64;
+
+  private BaselineCheck() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: BaselineCheck <baseline.json> <result.json> [threshold]");
+      System.exit(2);
+    }
+    File baselineFile = new File(args[0]);
+    File resultFile = new File(args[1]);
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.20;
+    if (!baselineFile.exists()) {
+      System.out.println("No baseline at " + baselineFile + "; copy " + resultFile + " there to create one.");
+      return;
+    }
+
+    Map<String, JsonNode> baseline = index(baselineFile);
+    Map<String, JsonNode> current = index(resultFile);
+
+    int regressions = 0;
+    for (Map.Entry<String, JsonNode> e : current.entrySet()) {
+      JsonNode base = baseline.get(e.getKey());
+      if (base == null) {
+        System.out.println("NEW      " + e.getKey());
+        continue;
+      }
+      JsonNode cur = e.getValue();
+      boolean higherIsBetter = "thrpt".equals(cur.path("mode").asText());
+      double b = base.path("primaryMetric").path("score").asDouble();
+      double c = cur.path("primaryMetric").path("score").asDouble();
+      double change = b == 0 ? 0 : (c - b) / b;
+      boolean worse = higherIsBetter ? change < -threshold : change > threshold;
+
+      double bAlloc = base.path("secondaryMetrics").path(ALLOC).path("score").asDouble(Double.NaN);
+      double cAlloc = cur.path("secondaryMetrics").path(ALLOC).path("score").asDouble(Double.NaN);
+      boolean allocWorse = !Double.isNaN(bAlloc) && !Double.isNaN(cAlloc)
+          && cAlloc > bAlloc * (1 + threshold) + ALLOC_SLACK_BYTES;
+
+      String status = worse || allocWorse ? "REGRESS" : "ok";
+      if (worse || allocWorse) regressions++;
+      System.out.printf(Locale.ROOT, "%-8s %s  score %.3f -> %.3f %s (%+.1f%%)%s%n",
+          status, e.getKey(), b, c, cur.path("primaryMetric").path("scoreUnit").asText(), change * 100,
+          Double.isNaN(cAlloc) ? "" : String.format(Locale.ROOT, "  alloc %.0f -> %.0f B/op", bAlloc, cAlloc));
+    }
+    for (String key : baseline.keySet()) {
+      if (!current.containsKey(key)) System.out.println("MISSING  " + key);
+    }
+
+    if (regressions > 0) {
+      System.err.println(regressions + " benchmark(s) regressed by more than " + (int) (threshold * 100) + "%");
+      System.exit(1);
+    }
+  }
+
+  // Key each run by benchmark name plus its parameters
+  private static Map<String, JsonNode> index(File file) throws IOException {
+    Map<String, JsonNode> out = new TreeMap<>();
+    for (JsonNode run : new ObjectMapper().readTree(file)) {
+      StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+      JsonNode params = run.path("params");
+      if (params.isObject()) {
+        List<String> names = new ArrayList<>();
+        params.fieldNames().forEachRemaining(names::add);
+        Collections.sort(names);
+        for (String n : names) key.append(' ').append(n).append('=').append(params.get(n).asText());
+      }
+      out.put(key.toString(), run);
+    }
+    return out;
+  }
+}
@@ -0,0 +1,43 @@
+package com.ok.bench;
+
+import com.ok.pipeline.DocumentChunker;
+import com.ok.util.TextUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sentence-greedy chunking of a synthetic document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ChunkingBenchmark {
+
+  @Param({"10000", "100000"})
+  int words;
+
+  String text;
+  DocumentChunker chunker;
+
+  @Setup
+  public void setup() {
+    text = Fixtures.text(new Random(11), words);
+    chunker = new DocumentChunker(250);
+  }
+
+  @Benchmark
+  public List<String> textUtilsChunkByTokens() {
+    return TextUtils.chunkByTokens(text, 250);
+  }
+
+  @Benchmark
+  public List<String> documentChunker() {
+    return chunker.chunk(text);
+  }
+}
@@ -0,0 +1,71 @@
+package com.ok.bench;
+
+import com.ok.embeddings.EmbeddingModel;
+import com.ok.store.TinkerGraphStore;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.util.*;
+
+/**
+ * Deterministic synthetic inputs shared by the benchmarks.
+ */
+final class Fixtures {
+  private Fixtures() {}
+
+  private static final String[] WORDS = {
+      "graph", "retrieval", "embedding", "vector", "entity", "relation", "chunk", "document",
+      "influenza", "pandemic", "city", "population", "hospital", "century", "treatment", "virus",
+      "model", "query", "answer", "evidence", "index", "search", "token", "sentence", "page",
+      "knowledge", "wikidata", "person", "organization", "location", "event", "year", "quantity"
+  };
+
+  static float[] randomVector(Random rnd, int dims) {
+    float[] v = new float[dims];
+    for (int i = 0; i < dims; i++) v[i] = (float) rnd.nextGaussian();
+    return v;
+  }
+
+  // Prose-like text: sentences of 8-24 words, occasional blank lines between paragraphs
+  static String text(Random rnd, int words) {
+    StringBuilder sb = new StringBuilder(words * 8);
+    int inSentence = 0;
+    int sentenceLen = 8 + rnd.nextInt(17);
+    for (int i = 0; i < words; i++) {
+      String w = WORDS[rnd.nextInt(WORDS.length)];
+      if (inSentence == 0) w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+      sb.append(w);
+      if (++inSentence == sentenceLen) {
+        sb.append(rnd.nextInt(10) == 0 ? ".\n\n" : ". ");
+        inSentence = 0;
+        sentenceLen = 8 + rnd.nextInt(17);
+      } else {
+        sb.append(' ');
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * In-memory store with {@code chunks} random embeddings and one entity per 20 chunks; every
+   * chunk MENTIONS two random entities, so retrieval has a realistic expansion fan-out.
+   */
+  static TinkerGraphStore store(Random rnd, int chunks, int dims) {
+    TinkerGraphStore store = new TinkerGraphStore();
+    List<Vertex> entities = new ArrayList<>();
+    for (int e = 0; e < Math.max(1, chunks / 20); e++) {
+      entities.add(store.addEntity("entity-" + e, "Thing"));
+    }
+    for (int c = 0; c < chunks; c++) {
+      Vertex chunk = store.addChunk("chunk-" + c, text(rnd, 40), randomVector(rnd, dims));
+      for (int m = 0; m < 2; m++) {
+        store.addEdge(chunk, entities.get(rnd.nextInt(entities.size())), "MENTIONS", Map.of());
+      }
+    }
+    return store;
+  }
+
+  // Embedding model that always returns the same query vector, so only retrieval is measured
+  static EmbeddingModel fixedModel(float[] vector) {
+    return text -> vector;
+  }
+}
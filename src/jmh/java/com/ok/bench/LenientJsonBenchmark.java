@@ -0,0 +1,56 @@
+package com.ok.bench;
+
+import com.ok.pipeline.LenientJsonReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lenient parsing of a messy extraction answer: think-block, code fence, comments, smart quotes,
+ * unquoted keys, trailing commas and stray prose.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class LenientJsonBenchmark {
+
+  @Param({"20", "500"})
+  int records;
+
+  String raw;
+
+  @Setup
+  public void setup() {
+    StringBuilder sb = new StringBuilder("<think>Let me list the entities first.</think>\n```json\n{\n  entities: [\n");
+    for (int i = 0; i < records; i++) {
+      sb.append("    {“name”: “Entity ").append(i).append("”, type: Organization, chunk_ids: [0]}, // seen\n");
+      if (i % 50 == 49) sb.append("    Wait, I should double-check these,\n");
+    }
+    sb.append("  ],\n  'relations': [\n");
+    for (int i = 1; i < records; i++) {
+      sb.append("    {source: 'Entity ").append(i - 1).append("', target: 'Entity ").append(i)
+          .append("', relationType: 'partner_of',},\n");
+    }
+    sb.append("  ]\n}\n```\nLet me know if you need anything else.");
+    raw = sb.toString();
+  }
+
+  @Benchmark
+  public boolean read(Blackhole bh) {
+    return LenientJsonReader.read(raw, new LenientJsonReader.Sink() {
+      @Override
+      public void entity(String name, String type) {
+        bh.consume(name);
+      }
+
+      @Override
+      public void relation(String source, String target, String relationType) {
+        bh.consume(target);
+      }
+    });
+  }
+}
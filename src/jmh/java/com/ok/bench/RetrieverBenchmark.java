@@ -0,0 +1,45 @@
+package com.ok.bench;
+
+import com.ok.pipeline.Retriever;
+import com.ok.store.TinkerGraphStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end graph retrieval (vector stage, entity expansion, rerank) against an in-memory
+ * TinkerGraphStore, in ANN, exact and hybrid (BM25 + ANN) mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class RetrieverBenchmark {
+
+  @Param({"1000", "10000"})
+  int chunks;
+
+  @Param({"384"})
+  int dims;
+
+  @Param({"ANN", "EXACT", "HYBRID"})
+  Retriever.SearchMode mode;
+
+  Retriever retriever;
+
+  @Setup
+  public void setup() {
+    Random rnd = new Random(17);
+    TinkerGraphStore store = Fixtures.store(rnd, chunks, dims);
+    retriever = new Retriever(store, Fixtures.fixedModel(Fixtures.randomVector(rnd, dims)), mode);
+  }
+
+  @Benchmark
+  public List<Retriever.Hit> retrieve() {
+    return retriever.retrieve("query", 8, 3);
+  }
+}
@@ -0,0 +1,48 @@
+package com.ok.bench;
+
+import com.ok.embeddings.VectorMath;
+import com.ok.util.SimilarityUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairwise similarity kernels used by reranking and brute-force search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class SimilarityBenchmark {
+
+  @Param({"384", "1024", "2560"})
+  int dims;
+
+  float[] a;
+  float[] b;
+
+  @Setup
+  public void setup() {
+    Random rnd = new Random(7);
+    a = Fixtures.randomVector(rnd, dims);
+    b = Fixtures.randomVector(rnd, dims);
+  }
+
+  @Benchmark
+  public float vectorMathCosine() {
+    return VectorMath.cosine(a, b);
+  }
+
+  @Benchmark
+  public double similarityUtilsCosine() {
+    return SimilarityUtils.cosine(a, b);
+  }
+
+  @Benchmark
+  public float vectorMathDot() {
+    return VectorMath.dot(a, b);
+  }
+}
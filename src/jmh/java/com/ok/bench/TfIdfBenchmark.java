@@ -0,0 +1,61 @@
+package com.ok.bench;
+
+import com.ok.embeddings.SparseVector;
+import com.ok.embeddings.TfIdfEmbeddingModel;
+import com.ok.store.Bm25Index;
+import com.ok.store.VectorIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TF-IDF query embedding (dense and sparse) and BM25 top-k search over a synthetic corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class TfIdfBenchmark {
+
+  @Param({"100", "1000"})
+  int documents;
+
+  TfIdfEmbeddingModel model;
+  Bm25Index index;
+  String query;
+
+  @Setup
+  public void setup() {
+    Random rnd = new Random(13);
+    List<String> corpus = new ArrayList<>(documents);
+    for (int i = 0; i < documents; i++) {
+      // A few unique tokens per document so the vocabulary grows with the corpus
+      corpus.add(Fixtures.text(rnd, 200) + " doc" + i + "a doc" + i + "b");
+    }
+    model = new TfIdfEmbeddingModel();
+    model.fit(corpus);
+    index = new Bm25Index();
+    for (int i = 0; i < documents; i++) index.add("c" + i, corpus.get(i));
+    query = Fixtures.text(rnd, 20);
+  }
+
+  @Benchmark
+  public float[] embedQuery() {
+    return model.embed(query);
+  }
+
+  @Benchmark
+  public SparseVector embedQuerySparse() {
+    return model.embedSparse(query);
+  }
+
+  @Benchmark
+  public List<VectorIndex.Result> bm25Search() {
+    return index.search(query, 10);
+  }
+}
@@ -3,12 +3,18 @@ package com.ok;
 import com.ok.embeddings.*;
 import com.ok.pipeline.*;
 import com.ok.store.*;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
 import com.ok.util.SupabaseHelper;
+import com.ok.util.TokenCounter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.logging.Logger;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -38,52 +44,110 @@ public class Workflow1 {
     try {
       SupabaseHelper.Config cfg = SupabaseHelper.loadConfig();
 
-      // Extract text from PDF document
+      // Extract pages in parallel and chunk each one as it arrives, keeping its page number
       PdfExtractor pdfExtractor = new PdfExtractor();
-      String docText = pdfExtractor.extract(pdfFile);
-
-      // Split document into manageable chunks
-      DocumentChunker chunker = new DocumentChunker(250);
-      List<String> chunks = chunker.chunk(docText);
+      // Chunk size is measured with the tokenizer in data/tokenizer when present (words otherwise)
+      int chunkTokens = Integer.parseInt(props.getProperty("CHUNK_TOKENS", "250"));
+      DocumentChunker chunker = new DocumentChunker(TokenCounter.defaultCounter(), chunkTokens, 0, Integer.MAX_VALUE);
+      List<String> chunks = new ArrayList<>();
+      List<Integer> chunkPages = new ArrayList<>();
+      pdfExtractor.extractPages(pdfFile, page -> {
+        for (String chunk : chunker.chunk(page.text)) {
+          chunks.add(chunk);
+          chunkPages.add(page.number);
+        }
+      });
       LOGGER.fine(() -> "Total chunks: " + chunks.size());
 
-      // Initialize embedding model for vector representations
-      EmbeddingModel model = new Qwen3EmbeddingModel();
+      // Initialize embedding model for vector representations, cached by content hash
+      CachingEmbeddingModel model = new CachingEmbeddingModel(
+          new Qwen3EmbeddingModel(), Path.of("data", "embedding-cache.bin"), 10_000);
+      // Extraction and answer generation reuse responses to identical requests
+      LlmResponseCache llmCache = new LlmResponseCache(Path.of("data", "llm-cache.bin"), 1_000);
+
+      // Compare chunk keys (hash + occurrence) with the previous run and drop rows for chunks that disappeared
+      IngestionManifest manifest = IngestionManifest.load(pdfFile);
+      List<String> chunkKeys = IngestionManifest.chunkKeys(chunks);
+      // Chunks that moved (text inserted or removed before them) are rewritten with their new index and page
+      List<String> stale = manifest.reconcile(chunks, chunkPages);
+      HttpTransport client = HttpTransport.of(HttpTransport.Endpoint.SUPABASE);
+      if (manifest.isFresh()) {
+        // Rows written before manifests existed carry no chunk hash; replace them wholesale
+        deleteRows(client, SUPABASE_URL, SUPABASE_API_KEY, SUPABASE_TABLE, pdfFile, null);
+      }
+      for (String key : stale) {
+        deleteRows(client, SUPABASE_URL, SUPABASE_API_KEY, SUPABASE_TABLE, pdfFile, key);
+        manifest.forgetChunk(key);
+      }
+      // Upserts replace a moved chunk's row in place; plain inserts need the old row gone first
+      boolean upsert = Boolean.parseBoolean(props.getProperty("SUPABASE_UPSERT", "false"));
+      if (!upsert) {
+        for (String key : manifest.moved()) {
+          deleteRows(client, SUPABASE_URL, SUPABASE_API_KEY, SUPABASE_TABLE, pdfFile, key);
+        }
+      }
+      manifest.save();
 
-      // Store chunks and embeddings in Supabase vector database
-      HttpClient client = HttpClient.newHttpClient();
+      // Only new or changed chunks (or ones a crashed run never stored) are embedded and inserted
+      List<Integer> pending = new ArrayList<>();
       for (int i = 0; i < chunks.size(); i++) {
-      final int idx = i;
+        if (!manifest.isStored(chunkKeys.get(i))) pending.add(i);
+      }
+      LOGGER.info("Chunks: " + chunks.size() + " total, " + pending.size() + " to store (" + manifest.moved().size()
+          + " moved), " + stale.size() + " stale removed");
+
+      // Embed pending chunks up front; the model batches requests to the server
+      List<String> pendingTexts = new ArrayList<>(pending.size());
+      for (int idx : pending) pendingTexts.add(chunks.get(idx));
+      List<float[]> embeddings = model.embedBatch(pendingTexts);
+
+      // Store chunks and embeddings in Supabase with bulk inserts; each stored batch is checkpointed,
+      // so a crash resumes after the last batch that landed. With SUPABASE_UPSERT=true (the table
+      // needs doc and chunk_hash columns with a unique index) rows are upserted on that key, so a
+      // batch retried after a timeout can't duplicate rows.
+      SupabaseBatchWriter writer = new SupabaseBatchWriter(SUPABASE_URL, SUPABASE_API_KEY, SUPABASE_TABLE)
+          .onStored(keys -> {
+            keys.forEach(manifest::markStored);
+            try {
+              manifest.save();
+            } catch (IOException e) {
+              LOGGER.warning("Failed to checkpoint ingestion manifest: " + e.getMessage());
+            }
+          });
+      if (upsert) writer.upsertOn("doc,chunk_hash");
+      for (int p = 0; p < pending.size(); p++) {
+      final int idx = pending.get(p);
       String text = chunks.get(idx);
-      float[] embedding = model.embed(text);
+      String key = chunkKeys.get(idx);
+      float[] embedding = embeddings.get(p);
 
       // Build metadata for each chunk
       Map<String, Object> metadata = new HashMap<>();
       metadata.put("doc", pdfFile);
+      metadata.put("chunk_hash", key);
       metadata.put("length", text.length());
       metadata.put("author", "Unknown");
-      metadata.put("page_number", -1);
+      metadata.put("page_number", chunkPages.get(idx));
       metadata.put("created_at", new Date().toString());
 
       // Create database row with embedding vector
       Map<String, Object> row = new LinkedHashMap<>();
+      if (upsert) {
+        row.put("doc", pdfFile);
+        row.put("chunk_hash", key);
+      }
       row.put("chunk_index", idx);
       row.put("chunk_text", text);
       row.put("metadata", metadata);
       row.put("embedding", embeddingToList(embedding));
 
-      String jsonBody = MAPPER.writeValueAsString(row);
-
-      // Insert into Supabase via REST API
-      HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI.create(SUPABASE_URL + "/rest/v1/" + SUPABASE_TABLE))
-        .header("apikey", SUPABASE_API_KEY)
-        .header("Authorization", "Bearer " + SUPABASE_API_KEY)
-        .header("Content-Type", "application/json")
-        .POST(HttpRequest.BodyPublishers.ofString("[" + jsonBody + "]"))
-        .build();
-
-      client.send(request, HttpResponse.BodyHandlers.ofString());
+      writer.add(key, row);
+      }
+      SupabaseBatchWriter.Report report = writer.flush();
+      writer.close();
+      if (!report.failed.isEmpty()) {
+        LOGGER.warning(report.failed.size() + " chunk(s) failed to store and will be retried on the next run: "
+            + report.failed);
       }
 
       // Retrieve semantically similar chunks for the query
@@ -91,10 +155,21 @@ public class Workflow1 {
 
       // Build knowledge graph with entity extraction and Wikidata matching
       GraphStore graphStore = new TinkerGraphStore();
-      WikidataMatcher wikidata = new WikidataMatcher();
-      GraphBuilder builder = new GraphBuilder(graphStore, model, wikidata);
-
-      builder.ingest(pdfFile, chunks, new EntityExtractor());
+      WikidataMatcher wikidata = wikidataMatcher(props);
+      int maxInFlight = Integer.parseInt(props.getProperty("OLLAMA_MAX_IN_FLIGHT",
+          String.valueOf(GraphBuilder.DEFAULT_MAX_IN_FLIGHT)));
+      // Entity name variants merge by normalised key, trigram similarity, then name embeddings;
+      // ENTITY_ALIASES optionally names a TSV of alias -> canonical name
+      EntityCanonicalizer canonicalizer = new EntityCanonicalizer()
+          .withEmbeddings(model, EntityCanonicalizer.DEFAULT_EMBEDDING_THRESHOLD);
+      String aliasFile = props.getProperty("ENTITY_ALIASES");
+      if (aliasFile != null) canonicalizer.withAliases(EntityCanonicalizer.loadAliases(Path.of(aliasFile)));
+      GraphBuilder builder = new GraphBuilder(graphStore, model, wikidata, maxInFlight)
+          .withCanonicalizer(canonicalizer);
+
+      // Unchanged batches reuse the extraction recorded in the manifest; the graph is rebuilt from
+      // the current chunks only, so entities from stale chunks drop out
+      builder.ingest(pdfFile, chunks, new EntityExtractor().withCache(llmCache), manifest);
 
       // Persist graph to disk for future use
       try {
@@ -108,13 +183,19 @@ public class Workflow1 {
 
       // Generate final answer using retrieved context
       AnswerComposer composer = new AnswerComposer(
-        HttpClient.newHttpClient(),
+        ResilientHttp.of(HttpTransport.Endpoint.OLLAMA),
         props.getProperty("OLLAMA_URL"),
         props.getProperty("DEEPSEEK_MODEL")
-      );
+      ).withCache(llmCache);
 
-      String answer = composer.compose(query, SupabaseHelper.toRetrieverHits(hits), 1200);
-      LOGGER.info(answer);
+      // Print tokens as they arrive so the answer starts appearing at time-to-first-token
+      composer.composeStreaming(query, SupabaseHelper.toRetrieverHits(hits), 1200, System.out::print);
+      System.out.println();
+      LOGGER.info(model.toString());
+      LOGGER.info(llmCache.toString());
+      LOGGER.info(canonicalizer.toString());
+      LOGGER.info(HttpTransport.report());
+      LOGGER.info(ResilientHttp.report());
 
     } catch (Exception e) {
       LOGGER.severe("Error during workflow execution: " + e.getMessage());
@@ -122,6 +203,39 @@ public class Workflow1 {
     }
   }
 
+  /**
+   * Entity linker backed by a persistent cache; WIKIDATA_LABEL_INDEX adds an offline label index
+   * (built with WikidataLabelIndex), and WIKIDATA_OFFLINE=true stops it from querying Wikidata.
+   */
+  private static WikidataMatcher wikidataMatcher(Properties props) throws IOException {
+    String indexPath = props.getProperty("WIKIDATA_LABEL_INDEX");
+    WikidataLabelIndex index = indexPath != null ? WikidataLabelIndex.load(Path.of(indexPath)) : null;
+    WikidataMatcher matcher = Boolean.parseBoolean(props.getProperty("WIKIDATA_OFFLINE", "false"))
+        ? WikidataMatcher.offline(index)
+        : new WikidataMatcher().withLabelIndex(index);
+    return matcher.withCache(new WikidataCache(Path.of("data", "wikidata-cache.tsv")));
+  }
+
+  /**
+     * Delete a document's rows from Supabase: one chunk by key, or every row when key is null.
+     */
+  private static void deleteRows(HttpTransport client, String url, String apiKey, String table,
+                                 String doc, String key) throws IOException, InterruptedException {
+  String filter = "metadata-%3E%3Edoc=eq." + URLEncoder.encode(doc, StandardCharsets.UTF_8);
+  if (key != null) filter += "&metadata-%3E%3Echunk_hash=eq." + URLEncoder.encode(key, StandardCharsets.UTF_8);
+
+  HttpRequest request = client.request(URI.create(url + "/rest/v1/" + table + "?" + filter))
+    .header("apikey", apiKey)
+    .header("Authorization", "Bearer " + apiKey)
+    .DELETE()
+    .build();
+
+  HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+  if (response.statusCode() / 100 != 2) {
+    throw new IOException("Delete failed (" + response.statusCode() + "): " + response.body());
+  }
+  }
+
   /**
      * Convert float array to List<Double> for JSON serialization.
      */
@@ -6,7 +6,7 @@ import com.ok.store.*;
 import com.ok.util.*;
 
 import java.io.IOException;
-import java.net.http.HttpClient;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -21,7 +21,8 @@ public class Workflow2 {
     try {
       // Dependency injection: External configuration
       SupabaseHelper.Config cfg = SupabaseHelper.loadConfig();
-      EmbeddingModel model = new Qwen3EmbeddingModel();
+      CachingEmbeddingModel model = new CachingEmbeddingModel(
+          new Qwen3EmbeddingModel(), Path.of("data", "embedding-cache.bin"), 10_000);
 
       // Template method: Load existing data instead of processing
       TinkerGraphStore graphStore = new TinkerGraphStore();
@@ -44,13 +45,18 @@ public class Workflow2 {
       String ollamaModel = Config.get("OLLAMA_MODEL");
 
       AnswerComposer composer = new AnswerComposer(
-          HttpClient.newHttpClient(),
+          ResilientHttp.of(HttpTransport.Endpoint.OLLAMA),
           ollamaUrl,
           ollamaModel
-      );
+      ).withCache(new LlmResponseCache(Path.of("data", "llm-cache.bin"), 1_000));
 
-      String answer = composer.compose(query, SupabaseHelper.toRetrieverHits(hits), 1200);
-      LOGGER.info("Answer:\n" + answer);
+      // Print tokens as they arrive so the answer starts appearing at time-to-first-token
+      System.out.println("Answer:");
+      composer.composeStreaming(query, SupabaseHelper.toRetrieverHits(hits), 1200, System.out::print);
+      System.out.println();
+      LOGGER.info(model.toString());
+      LOGGER.info(HttpTransport.report());
+      LOGGER.info(ResilientHttp.report());
 
     } catch (Exception e) {
       LOGGER.severe("Workflow2 failed: " + e.getMessage());
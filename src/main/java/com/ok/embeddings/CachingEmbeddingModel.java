@@ -0,0 +1,246 @@
+package com.ok.embeddings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Decorator that caches embeddings by content hash, so unchanged chunks and repeated queries
+ * never reach the underlying model.
+ *
+ * Keys are SHA-256 of (model name, whitespace-normalised text). Lookups go through an in-memory
+ * LRU tier first, then an append-only log on disk whose record offsets are indexed at startup:
+ * <pre>[32-byte key][int32 dims][dims x float32]</pre> (little-endian). A torn record at the end of
+ * the log (e.g. after a crash) is truncated when the cache is reopened.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, Closeable {
+  private static final Logger LOGGER = Logger.getLogger(CachingEmbeddingModel.class.getName());
+  private static final int KEY_BYTES = 32;
+
+  private final EmbeddingModel delegate;
+  private final String modelName;
+  private final Map<Key, float[]> memory;
+  private final Map<Key, Long> diskIndex = new ConcurrentHashMap<>();
+  private final FileChannel log;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param delegate   model used on cache misses
+   * @param logFile    on-disk tier, created if missing
+   * @param maxEntries capacity of the in-memory LRU tier
+   */
+  public CachingEmbeddingModel(EmbeddingModel delegate, Path logFile, int maxEntries) throws IOException {
+    this.delegate = delegate;
+    this.modelName = delegate.name();
+    this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, float[]> eldest) {
+        return size() > maxEntries;
+      }
+    };
+
+    if (logFile.getParent() != null) Files.createDirectories(logFile.getParent());
+    this.log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    loadIndex();
+  }
+
+  @Override
+  public String name() {
+    return modelName;
+  }
+
+  @Override
+  public float[] embed(String text) {
+    return embedBatch(List.of(text)).get(0);
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    float[][] out = new float[texts.size()][];
+    Key[] keys = new Key[texts.size()];
+    List<String> missTexts = new ArrayList<>();
+    List<Integer> missSlots = new ArrayList<>();
+
+    for (int i = 0; i < texts.size(); i++) {
+      keys[i] = keyFor(texts.get(i));
+      float[] cached = lookup(keys[i]);
+      if (cached != null) {
+        out[i] = cached;
+      } else {
+        missTexts.add(texts.get(i));
+        missSlots.add(i);
+      }
+    }
+
+    if (!missTexts.isEmpty()) {
+      misses.addAndGet(missTexts.size());
+      List<float[]> fresh = delegate.embedBatch(missTexts);
+      for (int j = 0; j < fresh.size(); j++) {
+        int slot = missSlots.get(j);
+        float[] emb = fresh.get(j);
+        out[slot] = emb;
+        if (emb != null && emb.length > 0) store(keys[slot], emb); // never cache failures
+      }
+    }
+    return Arrays.asList(out);
+  }
+
+  public long getMemoryHits() { return memoryHits.get(); }
+  public long getDiskHits() { return diskHits.get(); }
+  public long getMisses() { return misses.get(); }
+
+  public double getHitRate() {
+    long hits = memoryHits.get() + diskHits.get();
+    long total = hits + misses.get();
+    return total == 0 ? 0.0 : hits / (double) total;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("CachingEmbeddingModel[%s] memoryHits=%d diskHits=%d misses=%d hitRate=%.2f",
+        modelName, getMemoryHits(), getDiskHits(), getMisses(), getHitRate());
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+
+  // --- tiers ---
+
+  private float[] lookup(Key key) {
+    synchronized (memory) {
+      float[] v = memory.get(key);
+      if (v != null) {
+        memoryHits.incrementAndGet();
+        return v;
+      }
+    }
+    Long offset = diskIndex.get(key);
+    if (offset == null) return null;
+    try {
+      float[] v = readRecord(offset);
+      synchronized (memory) {
+        memory.put(key, v);
+      }
+      diskHits.incrementAndGet();
+      return v;
+    } catch (IOException e) {
+      LOGGER.warning("Embedding cache read failed, treating as miss: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void store(Key key, float[] emb) {
+    synchronized (memory) {
+      memory.put(key, emb);
+    }
+    if (diskIndex.containsKey(key)) return;
+
+    ByteBuffer rec = ByteBuffer.allocate(KEY_BYTES + Integer.BYTES + emb.length * Float.BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    key.writeTo(rec);
+    rec.putInt(emb.length);
+    rec.asFloatBuffer().put(emb);
+    rec.rewind();
+    try {
+      synchronized (log) {
+        long offset = log.size();
+        while (rec.hasRemaining()) log.write(rec, offset + rec.position());
+        diskIndex.put(key, offset);
+      }
+    } catch (IOException e) {
+      LOGGER.warning("Embedding cache write failed: " + e.getMessage());
+    }
+  }
+
+  private float[] readRecord(long offset) throws IOException {
+    ByteBuffer dimsBuf = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    log.read(dimsBuf, offset + KEY_BYTES);
+    int dims = dimsBuf.getInt(0);
+    ByteBuffer data = ByteBuffer.allocate(dims * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    long pos = offset + KEY_BYTES + Integer.BYTES;
+    while (data.hasRemaining()) {
+      if (log.read(data, pos + data.position()) < 0) throw new IOException("Truncated cache record");
+    }
+    data.flip();
+    float[] v = new float[dims];
+    data.asFloatBuffer().get(v);
+    return v;
+  }
+
+  // Scan record headers once to rebuild key -> offset; drop a torn tail record
+  private void loadIndex() throws IOException {
+    long size = log.size();
+    long pos = 0;
+    ByteBuffer header = ByteBuffer.allocate(KEY_BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (pos + header.capacity() <= size) {
+      header.clear();
+      while (header.hasRemaining() && log.read(header, pos + header.position()) > 0) { }
+      header.flip();
+      Key key = Key.readFrom(header);
+      int dims = header.getInt();
+      long end = pos + header.capacity() + (long) dims * Float.BYTES;
+      if (dims <= 0 || end > size) break;
+      diskIndex.put(key, pos);
+      pos = end;
+    }
+    if (pos < size) {
+      LOGGER.warning("Truncating torn embedding cache tail at offset " + pos);
+      log.truncate(pos);
+    }
+  }
+
+  private Key keyFor(String text) {
+    try {
+      MessageDigest sha = MessageDigest.getInstance("SHA-256");
+      sha.update(modelName.getBytes(StandardCharsets.UTF_8));
+      sha.update((byte) 0);
+      sha.update(normalize(text).getBytes(StandardCharsets.UTF_8));
+      return Key.readFrom(ByteBuffer.wrap(sha.digest()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Collapse whitespace runs and trim, so layout-only differences share an entry
+  static String normalize(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    boolean pendingSpace = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        pendingSpace = sb.length() > 0;
+      } else {
+        if (pendingSpace) sb.append(' ');
+        pendingSpace = false;
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  // 256-bit content hash as four longs
+  private record Key(long a, long b, long c, long d) {
+    static Key readFrom(ByteBuffer buf) {
+      return new Key(buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong());
+    }
+
+    void writeTo(ByteBuffer buf) {
+      buf.putLong(a).putLong(b).putLong(c).putLong(d);
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package com.ok.embeddings;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Strategy interface for different embedding implementations.
  * Allows pluggable text vectorization approaches.
@@ -7,4 +10,16 @@ package com.ok.embeddings;
 public interface EmbeddingModel {
   // Convert text to vector representation
   float[] embed(String text);
-}
\ No newline at end of file
+
+  // Identifies the model for cache keys; override when the class serves several models
+  default String name() {
+    return getClass().getName();
+  }
+
+  // Convert several texts at once; remote models override this to batch requests
+  default List<float[]> embedBatch(List<String> texts) {
+    List<float[]> out = new ArrayList<>(texts.size());
+    for (String text : texts) out.add(embed(text));
+    return out;
+  }
+}
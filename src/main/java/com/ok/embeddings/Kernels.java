@@ -0,0 +1,16 @@
+package com.ok.embeddings;
+
+/**
+ * Inner loops behind {@link VectorMath}. All ranges are assumed valid; callers check lengths.
+ */
+interface Kernels {
+  float dot(float[] a, int aOff, float[] b, int bOff, int len);
+
+  // Sum of squares of a range
+  float sumSquares(float[] a, int off, int len);
+
+  // {dot(a,b), |a|^2, |b|^2} in one pass
+  void dotAndNorms(float[] a, float[] b, float[] out3);
+
+  float l2Squared(float[] a, float[] b);
+}
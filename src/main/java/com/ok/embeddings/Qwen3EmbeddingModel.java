@@ -3,13 +3,19 @@ package com.ok.embeddings;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.http.*;
-import java.nio.charset.StandardCharsets;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
 
 /**
  * EmbeddingModel implementation using Qwen-3 embeddings via Ollama local API
@@ -17,73 +23,117 @@ import com.fasterxml.jackson.core.type.TypeReference;
 public class Qwen3EmbeddingModel implements EmbeddingModel {
 
   private static final ObjectMapper MAPPER = new ObjectMapper();
-  private static final HttpClient CLIENT = HttpClient.newHttpClient();
+  private static final ResilientHttp HTTP = ResilientHttp.of(HttpTransport.Endpoint.OLLAMA);
   private static final String OLLAMA_URL;
   private static final String MODEL;
+  private static final int BATCH_SIZE;
 
   // Static initialization block for configuration loading
   static {
         Properties props = new Properties();
         String url = "http://localhost:11434/api/generate"; // fallback default
         String model = "qwen3:4b";                          // fallback default
+        int batchSize = 16;                                 // inputs per /api/embed request
         try (InputStream in = new FileInputStream("config.properties")) {
             props.load(in);
             url = props.getProperty("OLLAMA_URL", url);
             model = props.getProperty("QWEN3_MODEL", model);
+            batchSize = Integer.parseInt(props.getProperty("QWEN3_EMBED_BATCH", String.valueOf(batchSize)));
         } catch (IOException e) {
             System.err.println("Failed to load config.properties, using defaults: " + e.getMessage());
         }
         OLLAMA_URL = url;
         MODEL = model;
+        BATCH_SIZE = Math.max(1, batchSize);
+  }
+
+  @Override
+  public String name() {
+    return "ollama:" + MODEL;
   }
 
   @Override
   public float[] embed(String text) {
+    return embedBatch(List.of(text)).get(0);
+  }
+
+  /**
+   * Embed texts with one /api/embed request per BATCH_SIZE inputs. Transient errors are retried;
+   * a request that still fails throws rather than yielding vectors that can't be compared.
+   *
+   * @throws UncheckedIOException if Ollama can't be reached, rejects a request or returns too few vectors
+   */
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    List<float[]> out = new ArrayList<>(texts.size());
+    for (int start = 0; start < texts.size(); start += BATCH_SIZE) {
+      List<String> batch = texts.subList(start, Math.min(start + BATCH_SIZE, texts.size()));
+      out.addAll(embedRequest(batch));
+    }
+    return out;
+  }
+
+  private List<float[]> embedRequest(List<String> batch) {
     try {
-      // Build JSON request for Ollama embedding API
+      // Build JSON request for Ollama embedding API; "input" accepts an array
       ObjectNode requestJson = MAPPER.createObjectNode();
       requestJson.put("model", MODEL);
-      requestJson.put("input", text);
+      ArrayNode input = requestJson.putArray("input");
+      for (String text : batch) input.add(text);
 
-      HttpRequest request = HttpRequest.newBuilder()
-              .uri(URI.create(OLLAMA_URL + "/api/embed"))
+      HttpRequest request = HTTP.transport().post(URI.create(OLLAMA_URL + "/api/embed"), MAPPER.writeValueAsBytes(requestJson))
               .header("Content-Type", "application/json")
-              .POST(HttpRequest.BodyPublishers.ofString(requestJson.toString(), StandardCharsets.UTF_8))
               .build();
 
-      HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
-      Map<String,Object> respMap = MAPPER.readValue(
-        response.body(),
-        new TypeReference<Map<String,Object>>() {}
-      );
-
-      // Extract embedding vector from nested response structure
-      Object embeddingsObj = respMap.get("embeddings");
-      if (!(embeddingsObj instanceof List<?> embsList) || embsList.isEmpty()) {
-        System.out.println("Embedding not found in response: " + response.body());
-        return new float[0];
-      }
-
-      Object firstEmbObj = ((List<?>) embsList.get(0));
-      if (!(firstEmbObj instanceof List<?> firstList)) {
-        System.out.println("Invalid embedding format: " + response.body());
-        return new float[0];
+      HttpResponse<InputStream> response = HTTP.send(request, HttpResponse.BodyHandlers.ofInputStream());
+      List<float[]> vectors;
+      try (InputStream body = response.body()) {
+        if (response.statusCode() != 200) {
+          throw new IOException("Ollama /api/embed returned " + response.statusCode() + ": "
+              + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        vectors = parseEmbeddings(body);
       }
 
-      // Convert Number list to float array
-      float[] vec = new float[firstList.size()];
-      for (int i = 0; i < firstList.size(); i++) {
-        Number n = (Number) firstList.get(i);
-        vec[i] = n.floatValue();
+      if (vectors.size() != batch.size()) {
+        throw new IOException("Expected " + batch.size() + " embeddings, got " + vectors.size());
       }
-      return vec;
+      return vectors;
 
     } catch (IOException e) {
-      e.printStackTrace();
-      return new float[0];
+      throw new UncheckedIOException(e);
     } catch (InterruptedException e) {
-      e.printStackTrace();
-      return new float[0];
+      Thread.currentThread().interrupt();
+      throw new UncheckedIOException(new InterruptedIOException("Interrupted while embedding"));
+    }
+  }
+
+  /**
+   * Stream the "embeddings" array straight into float[]s, without building a Map/List tree.
+   */
+  static List<float[]> parseEmbeddings(InputStream body) throws IOException {
+    List<float[]> vectors = new ArrayList<>();
+    try (JsonParser p = MAPPER.getFactory().createParser(body)) {
+      if (p.nextToken() != JsonToken.START_OBJECT) return vectors;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.getCurrentName();
+        JsonToken value = p.nextToken();
+        if (!"embeddings".equals(field) || value != JsonToken.START_ARRAY) {
+          p.skipChildren();
+          continue;
+        }
+
+        float[] buf = new float[1024];
+        while (p.nextToken() == JsonToken.START_ARRAY) {
+          int n = 0;
+          while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+            buf[n++] = p.getFloatValue();
+          }
+          vectors.add(Arrays.copyOf(buf, n));
+        }
+      }
     }
+    return vectors;
   }
 }
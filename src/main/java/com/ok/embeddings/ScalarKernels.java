@@ -0,0 +1,58 @@
+package com.ok.embeddings;
+
+/**
+ * Portable fallback: float accumulation split over four independent sums so the JIT can keep
+ * several multiply-adds in flight.
+ */
+final class ScalarKernels implements Kernels {
+
+  @Override
+  public float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+    float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+    int i = 0;
+    for (; i + 3 < len; i += 4) {
+      s0 += a[aOff + i] * b[bOff + i];
+      s1 += a[aOff + i + 1] * b[bOff + i + 1];
+      s2 += a[aOff + i + 2] * b[bOff + i + 2];
+      s3 += a[aOff + i + 3] * b[bOff + i + 3];
+    }
+    for (; i < len; i++) s0 += a[aOff + i] * b[bOff + i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  @Override
+  public float sumSquares(float[] a, int off, int len) {
+    return dot(a, off, a, off, len);
+  }
+
+  @Override
+  public void dotAndNorms(float[] a, float[] b, float[] out3) {
+    float dot = 0f, na = 0f, nb = 0f;
+    for (int i = 0; i < a.length; i++) {
+      float x = a[i], y = b[i];
+      dot += x * y;
+      na += x * x;
+      nb += y * y;
+    }
+    out3[0] = dot;
+    out3[1] = na;
+    out3[2] = nb;
+  }
+
+  @Override
+  public float l2Squared(float[] a, float[] b) {
+    float s0 = 0f, s1 = 0f;
+    int i = 0;
+    for (; i + 1 < a.length; i += 2) {
+      float d0 = a[i] - b[i];
+      float d1 = a[i + 1] - b[i + 1];
+      s0 += d0 * d0;
+      s1 += d1 * d1;
+    }
+    for (; i < a.length; i++) {
+      float d = a[i] - b[i];
+      s0 += d * d;
+    }
+    return s0 + s1;
+  }
+}
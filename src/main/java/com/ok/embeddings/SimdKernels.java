@@ -0,0 +1,84 @@
+package com.ok.embeddings;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@code jdk.incubator.vector} kernels using the widest species the CPU supports, with two
+ * fused multiply-add accumulators per sum. Only loaded when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}; see {@link VectorMath}.
+ */
+final class SimdKernels implements Kernels {
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+
+  @Override
+  public float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+    FloatVector acc0 = FloatVector.zero(SPECIES);
+    FloatVector acc1 = FloatVector.zero(SPECIES);
+    int i = 0;
+    for (; i + 2 * LANES <= len; i += 2 * LANES) {
+      acc0 = FloatVector.fromArray(SPECIES, a, aOff + i)
+          .fma(FloatVector.fromArray(SPECIES, b, bOff + i), acc0);
+      acc1 = FloatVector.fromArray(SPECIES, a, aOff + i + LANES)
+          .fma(FloatVector.fromArray(SPECIES, b, bOff + i + LANES), acc1);
+    }
+    for (; i + LANES <= len; i += LANES) {
+      acc0 = FloatVector.fromArray(SPECIES, a, aOff + i)
+          .fma(FloatVector.fromArray(SPECIES, b, bOff + i), acc0);
+    }
+    float s = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+    for (; i < len; i++) s += a[aOff + i] * b[bOff + i];
+    return s;
+  }
+
+  @Override
+  public float sumSquares(float[] a, int off, int len) {
+    return dot(a, off, a, off, len);
+  }
+
+  @Override
+  public void dotAndNorms(float[] a, float[] b, float[] out3) {
+    FloatVector dot = FloatVector.zero(SPECIES);
+    FloatVector na = FloatVector.zero(SPECIES);
+    FloatVector nb = FloatVector.zero(SPECIES);
+    int len = a.length;
+    int i = 0;
+    for (; i + LANES <= len; i += LANES) {
+      FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+      FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+      dot = va.fma(vb, dot);
+      na = va.fma(va, na);
+      nb = vb.fma(vb, nb);
+    }
+    float d = dot.reduceLanes(VectorOperators.ADD);
+    float sa = na.reduceLanes(VectorOperators.ADD);
+    float sb = nb.reduceLanes(VectorOperators.ADD);
+    for (; i < len; i++) {
+      d += a[i] * b[i];
+      sa += a[i] * a[i];
+      sb += b[i] * b[i];
+    }
+    out3[0] = d;
+    out3[1] = sa;
+    out3[2] = sb;
+  }
+
+  @Override
+  public float l2Squared(float[] a, float[] b) {
+    FloatVector acc = FloatVector.zero(SPECIES);
+    int len = a.length;
+    int i = 0;
+    for (; i + LANES <= len; i += LANES) {
+      FloatVector diff = FloatVector.fromArray(SPECIES, a, i).sub(FloatVector.fromArray(SPECIES, b, i));
+      acc = diff.fma(diff, acc);
+    }
+    float s = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < len; i++) {
+      float d = a[i] - b[i];
+      s += d * d;
+    }
+    return s;
+  }
+}
@@ -0,0 +1,44 @@
+package com.ok.embeddings;
+
+/**
+ * Sparse vector: strictly increasing term indices with one weight each.
+ */
+public final class SparseVector {
+  public final int[] indices;
+  public final float[] values;
+
+  public SparseVector(int[] indices, float[] values) {
+    if (indices.length != values.length) throw new IllegalArgumentException("Vector sizes differ");
+    this.indices = indices;
+    this.values = values;
+  }
+
+  public int nnz() {
+    return indices.length;
+  }
+
+  // Merge-join over the two index lists
+  public float dot(SparseVector other) {
+    int[] ai = indices, bi = other.indices;
+    int i = 0, j = 0;
+    float s = 0f;
+    while (i < ai.length && j < bi.length) {
+      if (ai[i] == bi[j]) s += values[i++] * other.values[j++];
+      else if (ai[i] < bi[j]) i++;
+      else j++;
+    }
+    return s;
+  }
+
+  public float norm() {
+    float s = 0f;
+    for (float v : values) s += v * v;
+    return (float) Math.sqrt(s);
+  }
+
+  public float[] toDense(int dims) {
+    float[] out = new float[dims];
+    for (int i = 0; i < indices.length; i++) out[indices[i]] = values[i];
+    return out;
+  }
+}
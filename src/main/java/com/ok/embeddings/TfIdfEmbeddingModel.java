@@ -1,68 +1,90 @@
 package com.ok.embeddings;
 
+import com.ok.util.TermDictionary;
+import com.ok.util.TextUtils;
+
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 
 /**
 * Tiny TF‑IDF model built over a fixed corpus you load during ingestion.
 * Use as a local, dependency‑free vectorizer; swap with real embeddings later.
+* Vectors are computed sparse ({@link #embedSparse}); {@link #embed} expands them to the dense
+* vocabulary-sized form the EmbeddingModel contract requires.
 */
 public class TfIdfEmbeddingModel implements EmbeddingModel {
-  private final Map<String,Integer> vocabIndex = new HashMap<>();
-  private final Map<String,Integer> df = new HashMap<>();
+  private final TermDictionary vocab = new TermDictionary();
+  private int[] df = new int[64];
   private int docCount = 0;
-  private static final Pattern TOKEN = Pattern.compile("[A-Za-z][A-Za-z0-9_]+");
 
 
   public void fit(List<String> documents) {
     docCount = documents.size();
-    Set<String> seen;
-    for (String doc : documents) {
-      seen = new HashSet<>();
-      Matcher m = TOKEN.matcher(doc.toLowerCase());
-      while (m.find()) {
-        String t = m.group();
-        if (!vocabIndex.containsKey(t)) {
-          vocabIndex.put(t, vocabIndex.size());
+    // lastSeen[id] = 1 + index of the last document that counted the term, instead of a per-doc set
+    int[] lastSeen = new int[Math.max(64, vocab.size())];
+    for (int d = 0; d < documents.size(); d++) {
+      for (String t : TextUtils.terms(documents.get(d))) {
+        int id = vocab.getOrAdd(t);
+        if (id >= df.length) df = Arrays.copyOf(df, Math.max(id + 1, df.length * 2));
+        if (id >= lastSeen.length) lastSeen = Arrays.copyOf(lastSeen, Math.max(id + 1, lastSeen.length * 2));
+        if (lastSeen[id] != d + 1) {
+          lastSeen[id] = d + 1;
+          df[id]++;
         }
-        if (seen.add(t)) df.merge(t, 1, Integer::sum);
       }
     }
   }
 
+  public int vocabularySize() {
+    return vocab.size();
+  }
 
   @Override
   public float[] embed(String text) {
-    float[] vec = new float[vocabIndex.size()];
-    Map<String,Integer> tf = new HashMap<>();
-    Matcher m = TOKEN.matcher(text.toLowerCase());
-    int max = 0;
-    while (m.find()) {
-      String tok = m.group();
-      tf.merge(tok, 1, Integer::sum);
-      max = Math.max(max, tf.get(tok));
+    return embedSparse(text).toDense(vocab.size());
+  }
+
+  /**
+   * L2-normalised TF-IDF weights of the in-vocabulary terms of the text, as a sparse vector.
+   */
+  public SparseVector embedSparse(String text) {
+    List<String> terms = TextUtils.terms(text);
+    int[] ids = new int[terms.size()];
+    int n = 0;
+    for (String t : terms) {
+      int id = vocab.id(t);
+      if (id >= 0) ids[n++] = id;
     }
-    for (Map.Entry<String,Integer> e : tf.entrySet()) {
-      Integer idx = vocabIndex.get(e.getKey());
-      if (idx == null) continue;
-      int f = e.getValue();
-      int dfi = df.getOrDefault(e.getKey(), 1);
-      double idf = Math.log((1.0 + docCount) / (1.0 + dfi)) + 1.0;
-      double wt = (0.5 + 0.5 * (f / (double) Math.max(1, max))) * idf; // normalized tf * idf
-      vec[idx] = (float) wt;
+    // Sorting the ids turns term counting into run-length counting
+    Arrays.sort(ids, 0, n);
+
+    int unique = 0;
+    int max = 0;
+    int[] counts = new int[n];
+    for (int i = 0; i < n; i++) {
+      if (unique > 0 && ids[unique - 1] == ids[i]) {
+        counts[unique - 1]++;
+      } else {
+        ids[unique] = ids[i];
+        counts[unique++] = 1;
+      }
+      max = Math.max(max, counts[unique - 1]);
     }
-    return normalize(vec);
-  }
 
-  private float[] normalize(float[] vec) {
+    int[] idx = Arrays.copyOf(ids, unique);
+    float[] val = new float[unique];
     double sum = 0;
-    for (float v : vec) sum += v*v;
+    for (int i = 0; i < unique; i++) {
+      int f = counts[i];
+      double idf = Math.log((1.0 + docCount) / (1.0 + Math.max(1, df[idx[i]]))) + 1.0;
+      double wt = (0.5 + 0.5 * (f / (double) Math.max(1, max))) * idf; // normalized tf * idf
+      val[i] = (float) wt;
+      sum += val[i] * val[i];
+    }
     double norm = Math.sqrt(sum);
-    if (norm == 0) return vec;
-    float[] out = new float[vec.length];
-    for (int i = 0; i < vec.length; i++) out[i] = (float)(vec[i]/norm);
-    return out;
+    if (norm > 0) {
+      for (int i = 0; i < unique; i++) val[i] = (float) (val[i] / norm);
+    }
+    return new SparseVector(idx, val);
   }
 }
@@ -0,0 +1,87 @@
+package com.ok.embeddings;
+
+/**
+ * Bounded min-heap of (index, score) pairs that keeps the k highest scores seen, without
+ * boxing. Offer every candidate, then call {@link #sortDescending()} once and read the results.
+ */
+public final class TopK {
+  private final int[] ids;
+  private final float[] scores;
+  private int size;
+
+  public TopK(int k) {
+    this.ids = new int[Math.max(0, k)];
+    this.scores = new float[ids.length];
+  }
+
+  public void offer(int id, float score) {
+    if (size < ids.length) {
+      ids[size] = id;
+      scores[size] = score;
+      siftUp(size++);
+    } else if (size > 0 && score > scores[0]) {
+      ids[0] = id;
+      scores[0] = score;
+      siftDown();
+    }
+  }
+
+  // Lowest score still kept once full; anything at or below it would be rejected
+  public float threshold() {
+    return size < ids.length ? Float.NEGATIVE_INFINITY : scores[0];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Heap-sort the kept entries in place by descending score. The heap is consumed, so only
+   * {@link #id}/{@link #score} may be used afterwards.
+   */
+  public void sortDescending() {
+    for (int end = size - 1; end > 0; end--) {
+      swap(0, end);
+      int n = end;
+      int i = 0;
+      while (true) {
+        int l = 2 * i + 1, r = l + 1, min = i;
+        if (l < n && scores[l] < scores[min]) min = l;
+        if (r < n && scores[r] < scores[min]) min = r;
+        if (min == i) break;
+        swap(i, min);
+        i = min;
+      }
+    }
+  }
+
+  public int id(int i) { return ids[i]; }
+
+  public float score(int i) { return scores[i]; }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (scores[parent] <= scores[i]) break;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown() {
+    int i = 0;
+    while (true) {
+      int l = 2 * i + 1, r = l + 1, min = i;
+      if (l < size && scores[l] < scores[min]) min = l;
+      if (r < size && scores[r] < scores[min]) min = r;
+      if (min == i) return;
+      swap(i, min);
+      i = min;
+    }
+  }
+
+  private void swap(int a, int b) {
+    int ti = ids[a]; ids[a] = ids[b]; ids[b] = ti;
+    float ts = scores[a]; scores[a] = scores[b]; scores[b] = ts;
+  }
+}
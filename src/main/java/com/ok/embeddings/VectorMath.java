@@ -1,25 +1,90 @@
 package com.ok.embeddings;
 
+import java.util.logging.Logger;
+
+/**
+ * Similarity kernels for embeddings. Uses SIMD ({@code jdk.incubator.vector}) when the JVM was
+ * started with {@code --add-modules jdk.incubator.vector}, otherwise an unrolled scalar loop.
+ * Accumulation is in float. Every pairwise method throws on a length mismatch.
+ */
 public final class VectorMath {
+  private static final Logger LOGGER = Logger.getLogger(VectorMath.class.getName());
+  private static final Kernels KERNELS = loadKernels();
+
   private VectorMath() {}
-  
+
+  private static Kernels loadKernels() {
+    if (!Boolean.getBoolean("graphrag.simd.disabled")) {
+      try {
+        Kernels k = (Kernels) Class.forName("com.ok.embeddings.SimdKernels").getDeclaredConstructor().newInstance();
+        LOGGER.fine("Using SIMD similarity kernels");
+        return k;
+      } catch (Throwable t) {
+        // Incubator module not added to the JVM; fall through
+      }
+    }
+    LOGGER.fine("Using scalar similarity kernels");
+    return new ScalarKernels();
+  }
+
+  // "simd" or "scalar"
+  public static String implementation() {
+    return KERNELS instanceof ScalarKernels ? "scalar" : "simd";
+  }
+
   public static float dot(float[] a, float[] b) {
-    int n = Math.min(a.length, b.length);
-    float s = 0f; for (int i=0;i<n;i++) s += a[i]*b[i];
-    return s;
+    checkLengths(a, b);
+    return KERNELS.dot(a, 0, b, 0, a.length);
+  }
+
+  public static float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+    return KERNELS.dot(a, aOff, b, bOff, len);
   }
+
   public static float norm(float[] a) {
-    float s=0f; for (float v: a) s += v*v; return (float)Math.sqrt(s);
+    return (float) Math.sqrt(KERNELS.sumSquares(a, 0, a.length));
   }
+
+  // Cosine similarity; 0 if either vector is all zeros
   public static float cosine(float[] a, float[] b) {
+    checkLengths(a, b);
+    float[] acc = new float[3];
+    KERNELS.dotAndNorms(a, b, acc);
+    if (acc[1] == 0f || acc[2] == 0f) return 0f;
+    return (float) (acc[0] / (Math.sqrt(acc[1]) * Math.sqrt(acc[2])));
+  }
+
+  public static float l2Squared(float[] a, float[] b) {
+    checkLengths(a, b);
+    return KERNELS.l2Squared(a, b);
+  }
+
+  // Euclidean distance; for unit vectors this is sqrt(2 - 2 * dot)
+  public static float l2(float[] a, float[] b) {
+    return (float) Math.sqrt(l2Squared(a, b));
+  }
+
+  /**
+   * Score one query against many rows: {@code out[i] = dot(query, rows[i])}.
+   * Rows are expected to be pre-normalised, so the scores are cosines.
+   */
+  public static void dotAll(float[] query, float[][] rows, float[] out) {
+    if (out.length < rows.length) throw new IllegalArgumentException("Output shorter than row count");
+    for (int i = 0; i < rows.length; i++) out[i] = dot(query, rows[i]);
+  }
+
+  /**
+   * The k rows with the highest dot product with the query, best first (row index and score).
+   * Scoring and selection are fused, so no score array is materialised.
+   */
+  public static TopK topK(float[] query, float[][] rows, int k) {
+    TopK top = new TopK(Math.min(k, rows.length));
+    for (int i = 0; i < rows.length; i++) top.offer(i, dot(query, rows[i]));
+    top.sortDescending();
+    return top;
+  }
+
+  private static void checkLengths(float[] a, float[] b) {
     if (a.length != b.length) throw new IllegalArgumentException("Vector sizes differ");
-    double dot = 0, normA = 0, normB = 0;
-    for (int i = 0; i < a.length; i++) {
-      dot += a[i] * b[i];
-      normA += a[i] * a[i];
-      normB += b[i] * b[i];
-    }
-    if (normA == 0 || normB == 0) return 0f;
-    return (float)(dot / (Math.sqrt(normA) * Math.sqrt(normB)));
   }
-}
\ No newline at end of file
+}
@@ -1,94 +1,108 @@
 package com.ok.pipeline;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.*;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import com.fasterxml.jackson.core.type.TypeReference;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ok.util.Config;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
+import com.ok.util.TokenCounter;
 
 public class AnswerComposer {
+  private static final Logger LOGGER = Logger.getLogger(AnswerComposer.class.getName());
 
   private static final ObjectMapper MAPPER = new ObjectMapper()
       .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
-  private final HttpClient httpClient;
+  private final ResilientHttp http;
   private final String ollamaUrl;
   private final String ollamaModel;
   private static final int MAX_HITS = 10; // limit evidence length
+  // Leaves ~1k tokens of Ollama's default 4096-token window for the answer
+  public static final int DEFAULT_PROMPT_TOKENS = 3072;
+  private TokenCounter counter = TokenCounter.defaultCounter();
+  private int promptTokens = DEFAULT_PROMPT_TOKENS;
+  private LlmResponseCache cache;
 
   public AnswerComposer() {
-    this(HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build(),
+    this(ResilientHttp.of(HttpTransport.Endpoint.OLLAMA),
         Config.get("OLLAMA_URL"),
         Config.get("DEEPSEEK_MODEL"));
   }
 
-  // Default constructor uses real client + loads from config
+  // A dedicated client, e.g. a stub in tests
   public AnswerComposer(HttpClient httpClient, String ollamaUrl, String ollamaModel) {
-    this.httpClient = httpClient;
+    this(new HttpTransport("ollama", httpClient, Duration.ofMinutes(10), Integer.MAX_VALUE, false, false),
+        ollamaUrl, ollamaModel);
+  }
+
+  public AnswerComposer(HttpTransport http, String ollamaUrl, String ollamaModel) {
+    this(new ResilientHttp(http, ResilientHttp.Policy.DEFAULT), ollamaUrl, ollamaModel);
+  }
+
+  public AnswerComposer(ResilientHttp http, String ollamaUrl, String ollamaModel) {
+    this.http = http;
     this.ollamaUrl = ollamaUrl;
     this.ollamaModel = ollamaModel;
   }
 
+  // Budget the prompt in tokens of the given tokenizer
+  public AnswerComposer withPromptBudget(TokenCounter counter, int promptTokens) {
+    this.counter = counter;
+    this.promptTokens = promptTokens;
+    return this;
+  }
+
+  // Answer identical prompts from the cache; concurrent identical questions share one generation
+  public AnswerComposer withCache(LlmResponseCache cache) {
+    this.cache = cache;
+    return this;
+  }
+
   public String compose(String query, List<Retriever.Hit> hits, int maxChars) {
-    try {
-      StringBuilder evidence = new StringBuilder(hits.size() * 150); // pre-allocate
-      int count = 0;
-      for (Retriever.Hit hit : hits) {
-        if (count++ >= MAX_HITS) break;
-        String preview = hit.text.length() > 100 ? hit.text.substring(0, 100) + "..." : hit.text;
-        evidence.append("- [").append(hit.chunkId).append("] ").append(preview)
-            .append(String.format(" (score=%.4f)", hit.score))
-            .append("\n");
-      }
+    return composeStreaming(query, hits, maxChars, token -> { });
+  }
 
-      String prompt = String.format(
-          "Question: %s\n\nEvidence:\n%s\n\nDraft Answer:",
-          query, evidence.toString()
-      );
-
-      // Include "stream": false to get full output in one response
-      String payload = String.format(
-          "{\"model\":\"%s\",\"prompt\":%s,\"stream\":false}",
-          ollamaModel, MAPPER.writeValueAsString(prompt)
-      );
-
-      HttpRequest request = HttpRequest.newBuilder()
-          .uri(URI.create(ollamaUrl + "/api/generate"))
-          .timeout(Duration.ofSeconds(30))
-          .header("Content-Type", "application/json")
-          .POST(HttpRequest.BodyPublishers.ofString(payload, StandardCharsets.UTF_8))
-          .build();
-
-      HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-      // Handle multiple JSON objects if streamed
-      StringBuilder finalOutput = new StringBuilder();
-      String body = response.body().trim();
-
-      // Check if body is a single JSON object or multiple JSONs (stream)
-      if (body.startsWith("{") && body.endsWith("}")) {
-        Map<String, Object> json = MAPPER.readValue(body, new TypeReference<Map<String, Object>>() {});
-        finalOutput.append(json.getOrDefault("response", "").toString());
-      } else {
-        // Split multiple JSON objects separated by newlines
-        String[] lines = body.split("\\r?\\n");
-        for (String line : lines) {
-          if (line.isBlank()) continue;
-          Map<String, Object> json = MAPPER.readValue(line, new TypeReference<Map<String, Object>>() {});
-          Object resp = json.get("response");
-          if (resp != null) finalOutput.append(resp.toString());
-          if (Boolean.TRUE.equals(json.get("done"))) break;
-        }
-      }
+  /**
+   * Stream the answer from Ollama: tokens are passed to {@code onToken} as the NDJSON lines
+   * arrive, and the full answer is returned once the model reports {@code done}.
+   * If the request fails before any token arrives, the evidence-only fallback is emitted instead.
+   * With a cache, a cached answer (or one generated for a concurrent identical request) is passed
+   * to {@code onToken} in one piece.
+   */
+  public String composeStreaming(String query, List<Retriever.Hit> hits, int maxChars, Consumer<String> onToken) {
+    StringBuilder finalOutput = new StringBuilder();
+    try {
+      String prompt = buildPrompt(query, hits);
+      if (cache == null) return stream(prompt, finalOutput, onToken);
 
-      return finalOutput.toString();
+      boolean[] generated = new boolean[1];
+      String answer = cache.get(LlmResponseCache.key(ollamaModel, prompt), () -> {
+        generated[0] = true;
+        return stream(prompt, finalOutput, onToken);
+      });
+      if (!generated[0]) onToken.accept(answer);
+      return answer;
 
     } catch (Exception e) {
+      if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+      if (finalOutput.length() > 0) {
+        // Tokens already reached the caller; keep the partial answer rather than mixing in the fallback
+        LOGGER.warning("Answer stream interrupted: " + e.getMessage());
+        return finalOutput.toString();
+      }
+
       // Fallback: generate local answer
       StringBuilder fallback = new StringBuilder();
       fallback.append("Draft Answer (fallback):\n");
@@ -99,7 +113,86 @@ public class AnswerComposer {
             .append(String.format(" (score=%.4f)", hit.score))
             .append("\n");
       }
+      onToken.accept(fallback.toString());
       return fallback.toString();
     }
   }
+
+  // Stream one generation into out and onToken; throws if it fails or ends without done
+  private String stream(String prompt, StringBuilder out, Consumer<String> onToken)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    long firstToken = -1;
+    String payload = String.format(
+        "{\"model\":\"%s\",\"prompt\":%s,\"stream\":true}",
+        ollamaModel, MAPPER.writeValueAsString(prompt)
+    );
+
+    // The timeout covers the wait for response headers, not the whole stream
+    HttpRequest request = http.transport().post(URI.create(ollamaUrl + "/api/generate"), payload.getBytes(StandardCharsets.UTF_8))
+        .timeout(Duration.ofSeconds(30))
+        .header("Content-Type", "application/json")
+        .build();
+
+    HttpResponse<Stream<String>> response = http.send(request, HttpResponse.BodyHandlers.ofLines());
+    boolean done = false;
+    try (Stream<String> lines = response.body()) {
+      if (response.statusCode() != 200) {
+        throw new IOException("Ollama returned " + response.statusCode() + ": " + lines.collect(Collectors.joining()));
+      }
+
+      // One JSON object per line: {"response":"tok","done":false} ... {"done":true}
+      Iterator<String> it = lines.iterator();
+      while (it.hasNext()) {
+        String line = it.next();
+        if (line.isBlank()) continue;
+        JsonNode json = MAPPER.readTree(line);
+        if (json.hasNonNull("error")) throw new IOException("Ollama error: " + json.get("error").asText());
+
+        String token = json.path("response").asText("");
+        if (!token.isEmpty()) {
+          if (firstToken < 0) {
+            firstToken = System.nanoTime();
+            LOGGER.fine(String.format("Time to first token: %d ms", (firstToken - start) / 1_000_000));
+          }
+          out.append(token);
+          onToken.accept(token);
+        }
+        if (json.path("done").asBoolean(false)) {
+          done = true;
+          break;
+        }
+      }
+    }
+    // A stream cut short is returned to this caller as a partial answer but never cached
+    if (!done) throw new IOException("Answer stream ended before done");
+    LOGGER.fine(String.format("Answer streamed in %d ms", (System.nanoTime() - start) / 1_000_000));
+    return out.toString();
+  }
+
+  // Evidence is added in rank order until the token budget is spent; the hit that crosses it is truncated
+  private String buildPrompt(String query, List<Retriever.Hit> hits) {
+    String head = String.format("Question: %s\n\nEvidence:\n", query);
+    String tail = "\n\nDraft Answer:";
+    int budget = promptTokens - counter.count(head) - counter.count(tail);
+
+    StringBuilder evidence = new StringBuilder(hits.size() * 150); // pre-allocate
+    int count = 0;
+    for (Retriever.Hit hit : hits) {
+      if (count++ >= MAX_HITS || budget <= 0) break;
+      String prefix = "- [" + hit.chunkId + "] ";
+      String suffix = String.format(" (score=%.4f)\n", hit.score);
+      int overhead = counter.count(prefix) + counter.count(suffix);
+      String text = hit.text;
+      int tokens = counter.count(text);
+      if (overhead + tokens > budget) {
+        text = counter.truncate(text, budget - overhead);
+        if (text.isEmpty()) break;
+        tokens = counter.count(text);
+      }
+      evidence.append(prefix).append(text).append(suffix);
+      budget -= overhead + tokens;
+    }
+    return head + evidence + tail;
+  }
 }
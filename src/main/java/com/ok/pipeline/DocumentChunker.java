@@ -1,23 +1,53 @@
 package com.ok.pipeline;
 
-import com.ok.util.TextUtils;
+import com.ok.util.StreamingChunker;
+import com.ok.util.TokenCounter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.*;
+import java.util.stream.Stream;
 
 
 public class DocumentChunker {
+  private final TokenCounter counter;
   private final int targetTokens;
+  private final int overlapTokens;
+  private final int maxChars;
 
   /**
    * @param targetTokens approximate number of tokens per chunk
    */
   public DocumentChunker(int targetTokens) {
+    this(TokenCounter.WORDS, targetTokens, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param counter measures tokens, e.g. the embedding model's tokenizer
+   * @param overlapTokens tokens of trailing sentences repeated at the start of the next chunk
+   * @param maxChars hard cap on chunk length; longer sentences are cut at word boundaries
+   */
+  public DocumentChunker(TokenCounter counter, int targetTokens, int overlapTokens, int maxChars) {
+    this.counter = counter;
     this.targetTokens = targetTokens;
+    this.overlapTokens = overlapTokens;
+    this.maxChars = maxChars;
   }
 
   /**
-   * Chunk the text into smaller pieces (~targetTokens each) using TextUtils.
+   * Chunk the text into smaller pieces (~targetTokens each).
    */
   public List<String> chunk(String text) {
-    return TextUtils.chunkByTokens(text, targetTokens);
+    List<String> chunks = new ArrayList<>();
+    iterator(new StringReader(text)).forEachRemaining(chunks::add);
+    return chunks;
+  }
+
+  // Chunks produced lazily while the reader is consumed
+  public Iterator<String> iterator(Reader in) {
+    return new StreamingChunker(in, counter, targetTokens, overlapTokens, maxChars);
+  }
+
+  public Stream<String> stream(Reader in) {
+    return StreamingChunker.stream(in, counter, targetTokens, overlapTokens, maxChars);
   }
 }
@@ -0,0 +1,279 @@
+package com.ok.pipeline;
+
+import com.ok.embeddings.EmbeddingModel;
+import com.ok.embeddings.VectorMath;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the surface forms an LLM produces for one entity ("Acme Corp", "ACME Corp.", "Acme") to a
+ * single canonical name, the first form seen.
+ *
+ * Resolution, cheapest first:
+ * <ol>
+ *   <li>alias table ("IBM" -> "International Business Machines")</li>
+ *   <li>normalised key: case, accents, punctuation, possessives, a leading "the" and trailing
+ *       company suffixes (Inc, Corp, Ltd, ...) are ignored</li>
+ *   <li>fuzzy match on character trigrams: MinHash LSH finds candidates sharing a band, which
+ *       are accepted at Jaccard &gt;= FUZZY_JACCARD. Names must carry the same digits
+ *       ("Apollo 11" never becomes "Apollo 12") and short keys only match exactly</li>
+ *   <li>optionally, for candidates in the grey zone below that, cosine similarity of the names'
+ *       embeddings</li>
+ * </ol>
+ * A name that matches nothing becomes a new canonical entity.
+ */
+public class EntityCanonicalizer {
+  private static final Logger LOGGER = Logger.getLogger(EntityCanonicalizer.class.getName());
+
+  static final double FUZZY_JACCARD = 0.75;
+  // Candidates between this and FUZZY_JACCARD go to the embedding check
+  static final double GREY_JACCARD = 0.4;
+  public static final float DEFAULT_EMBEDDING_THRESHOLD = 0.92f;
+  // Keys shorter than this are too ambiguous to match fuzzily ("EU" vs "EY")
+  private static final int MIN_FUZZY_KEY = 5;
+
+  // 16 bands of 4 rows: pairs at Jaccard 0.75 share a band ~99% of the time, at 0.4 ~34%
+  private static final int BANDS = 16;
+  private static final int ROWS = 4;
+  private static final long[] SEEDS = new long[BANDS * ROWS];
+
+  static {
+    SplittableRandom random = new SplittableRandom(0x5EEDL);
+    for (int i = 0; i < SEEDS.length; i++) SEEDS[i] = random.nextLong() | 1L;
+  }
+
+  private static final Set<String> SUFFIXES = Set.of("inc", "incorporated", "corp", "corporation", "co",
+      "company", "ltd", "limited", "llc", "plc", "gmbh", "ag", "sa");
+  private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+  private static final Pattern POSSESSIVE = Pattern.compile("['’]s\\b");
+  private static final Pattern JOINERS = Pattern.compile("['’.]");
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+  private static final Pattern NON_DIGITS = Pattern.compile("\\D+");
+
+  private final Map<String, String> aliases = new HashMap<>(); // key -> canonical name
+  private final Map<String, Known> byKey = new HashMap<>();
+  private final List<Known> known = new ArrayList<>();
+  private final Map<Long, List<Known>> buckets = new HashMap<>();
+  private EmbeddingModel model;
+  private float embeddingThreshold = DEFAULT_EMBEDDING_THRESHOLD;
+
+  private int exactMerges;
+  private int fuzzyMerges;
+  private int embeddingMerges;
+
+  // A canonical entity and its blocking data
+  private static final class Known {
+    final String name;
+    final String digits;
+    final int[] shingles;
+    float[] embedding;
+
+    Known(String name, String key) {
+      this.name = name;
+      this.digits = digits(key);
+      this.shingles = shingles(key);
+    }
+  }
+
+  // Rows of alias \t canonical name
+  public static Map<String, String> loadAliases(Path tsv) throws IOException {
+    Map<String, String> out = new LinkedHashMap<>();
+    try (BufferedReader in = Files.newBufferedReader(tsv, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] f = line.split("\t");
+        if (f.length == 2 && !f[0].isBlank() && !f[1].isBlank()) out.put(f[0].trim(), f[1].trim());
+      }
+    }
+    return out;
+  }
+
+  public EntityCanonicalizer withAliases(Map<String, String> aliasToCanonical) {
+    aliasToCanonical.forEach(this::alias);
+    return this;
+  }
+
+  // Fall back to name embeddings for near misses; costs one embed call per new name with candidates
+  public EntityCanonicalizer withEmbeddings(EmbeddingModel model, float threshold) {
+    this.model = model;
+    this.embeddingThreshold = threshold;
+    return this;
+  }
+
+  // Make alias resolve to whatever canonical resolves to
+  public synchronized void alias(String alias, String canonical) {
+    String k = key(alias);
+    if (!k.isEmpty()) aliases.put(k, canonical);
+  }
+
+  /** The canonical name for name, registering it as a new entity if it matches none. */
+  public synchronized String resolve(String name) {
+    String target = aliases.get(key(name));
+    return resolveKey(target != null ? target : name);
+  }
+
+  private String resolveKey(String name) {
+    String k = key(name);
+    if (k.isEmpty()) return name;
+
+    Known exact = byKey.get(k);
+    if (exact != null) {
+      if (!exact.name.equals(name)) exactMerges++;
+      return exact.name;
+    }
+
+    Known candidate = new Known(name, k);
+    Known match = k.length() >= MIN_FUZZY_KEY ? fuzzyMatch(candidate) : null;
+    if (match != null) {
+      byKey.put(k, match); // the next occurrence of this spelling is an exact hit
+      return match.name;
+    }
+    register(k, candidate);
+    return name;
+  }
+
+  public synchronized int size() {
+    return known.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("EntityCanonicalizer entities=%d exactMerges=%d fuzzyMerges=%d embeddingMerges=%d",
+        known.size(), exactMerges, fuzzyMerges, embeddingMerges);
+  }
+
+  /** Lower-cased, accent- and punctuation-free form with possessives, "the" and company suffixes removed. */
+  public static String key(String name) {
+    if (name == null) return "";
+    String s = Normalizer.normalize(name, Normalizer.Form.NFKD);
+    s = MARKS.matcher(s).replaceAll("").toLowerCase(Locale.ROOT);
+    s = POSSESSIVE.matcher(s).replaceAll("");
+    s = JOINERS.matcher(s).replaceAll(""); // "U.S." -> "us", "O'Brien" -> "obrien"
+    List<String> tokens = new ArrayList<>(Arrays.asList(SEPARATORS.matcher(s).replaceAll(" ").trim().split(" ")));
+    if (tokens.size() > 1 && tokens.get(0).equals("the")) tokens.remove(0);
+    while (tokens.size() > 1 && SUFFIXES.contains(tokens.get(tokens.size() - 1))) tokens.remove(tokens.size() - 1);
+    return String.join(" ", tokens);
+  }
+
+  private Known fuzzyMatch(Known candidate) {
+    long[] signature = minHash(candidate.shingles);
+    Set<Known> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    Known best = null;
+    double bestJaccard = 0;
+    List<Known> grey = new ArrayList<>();
+    for (int b = 0; b < BANDS; b++) {
+      for (Known other : buckets.getOrDefault(bandKey(signature, b), List.of())) {
+        if (!seen.add(other) || !other.digits.equals(candidate.digits)) continue;
+        double j = jaccard(candidate.shingles, other.shingles);
+        if (j >= FUZZY_JACCARD && j > bestJaccard) {
+          best = other;
+          bestJaccard = j;
+        } else if (j >= GREY_JACCARD) {
+          grey.add(other);
+        }
+      }
+    }
+    if (best != null) {
+      fuzzyMerges++;
+      return best;
+    }
+    if (model == null || grey.isEmpty()) return null;
+
+    float[] mine = embed(candidate.name);
+    if (mine == null) return null;
+    candidate.embedding = mine;
+    float bestCosine = embeddingThreshold;
+    for (Known other : grey) {
+      if (other.embedding == null) other.embedding = embed(other.name);
+      if (other.embedding == null || other.embedding.length != mine.length) continue;
+      float c = VectorMath.cosine(mine, other.embedding);
+      if (c >= bestCosine) {
+        best = other;
+        bestCosine = c;
+      }
+    }
+    if (best != null) embeddingMerges++;
+    return best;
+  }
+
+  private float[] embed(String name) {
+    try {
+      float[] v = model.embed(name);
+      return v == null || v.length == 0 ? null : v;
+    } catch (UncheckedIOException e) {
+      LOGGER.fine("Name embedding failed, skipping fallback: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void register(String key, Known k) {
+    byKey.put(key, k);
+    known.add(k);
+    if (key.length() < MIN_FUZZY_KEY) return;
+    long[] signature = minHash(k.shingles);
+    for (int b = 0; b < BANDS; b++) buckets.computeIfAbsent(bandKey(signature, b), x -> new ArrayList<>()).add(k);
+  }
+
+  // Sorted, distinct hashes of the padded key's character trigrams
+  private static int[] shingles(String key) {
+    String s = " " + key + " ";
+    int[] out = new int[Math.max(1, s.length() - 2)];
+    for (int i = 0; i + 3 <= s.length(); i++) out[i] = s.substring(i, i + 3).hashCode();
+    return Arrays.stream(out).sorted().distinct().toArray();
+  }
+
+  private static long[] minHash(int[] shingles) {
+    long[] sig = new long[SEEDS.length];
+    Arrays.fill(sig, Long.MAX_VALUE);
+    for (int s : shingles) {
+      for (int i = 0; i < SEEDS.length; i++) {
+        long h = mix(s * SEEDS[i]);
+        if (h < sig[i]) sig[i] = h;
+      }
+    }
+    return sig;
+  }
+
+  private static long bandKey(long[] sig, int band) {
+    long h = band;
+    for (int r = 0; r < ROWS; r++) h = mix(h * 31 + sig[band * ROWS + r]);
+    return h;
+  }
+
+  // Stafford variant 13 finaliser (as in SplittableRandom)
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // Jaccard similarity of two sorted, distinct arrays
+  static double jaccard(int[] a, int[] b) {
+    int i = 0, j = 0, common = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] == b[j]) {
+        common++;
+        i++;
+        j++;
+      } else if (a[i] < b[j]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return common / (double) (a.length + b.length - common);
+  }
+
+  private static String digits(String key) {
+    return NON_DIGITS.matcher(key).replaceAll(" ").trim();
+  }
+}
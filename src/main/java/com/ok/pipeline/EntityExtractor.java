@@ -1,5 +1,7 @@
 package com.ok.pipeline;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -7,42 +9,178 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Pattern;
+import com.ok.util.HttpCallException;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
+import com.ok.util.TokenCounter;
 
 /**
  * Extracts entities and relations from document chunks using DeepSeek-R1.
- * Implements sophisticated JSON cleaning and cross-chunk relation inference.
+ * Repairs the model's JSON leniently (see {@link LenientJsonReader}) and infers cross-chunk relations.
  */
 public class EntityExtractor {
 
   private static final String OLLAMA_URL;
   private static final String MODEL;
+  private static final String KEEP_ALIVE;
+  private static final OutputMode OUTPUT_MODE;
 
-  // ObjectMapper with flexible JSON parsing configuration
-  private static final ObjectMapper MAPPER = new ObjectMapper()
-    .enable(com.fasterxml.jackson.core.JsonParser.Feature.ALLOW_COMMENTS)
-    .enable(com.fasterxml.jackson.core.JsonParser.Feature.ALLOW_SINGLE_QUOTES)
-    .enable(com.fasterxml.jackson.core.JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES);
+  /**
+   * FREE_TEXT (the default) asks for JSON in the prompt and repairs whatever comes back.
+   * STRUCTURED passes a JSON schema as Ollama's {@code format}, so generation is constrained to
+   * that shape and the long instructions with their examples are replaced by a short system
+   * prompt; it needs Ollama 0.5 or later.
+   */
+  public enum OutputMode { FREE_TEXT, STRUCTURED }
+
+  // Request bodies and the response envelope; the model's own JSON goes through LenientJsonReader
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final Pattern LINE_BREAKS = Pattern.compile("[\\n\\r]+");
+
+  private static final LenientJsonReader.Sink NO_OP = new LenientJsonReader.Sink() { };
+
+  private final ResilientHttp http;
+  private final String ollamaUrl;
+
+  public static final int DEFAULT_CONTEXT_TOKENS = 4096;
+  // Room left in the context window for the model's JSON answer
+  private static final int RESPONSE_RESERVE_TOKENS = 1024;
+  private static final int CONTEXT_TOKENS;
+
+  // STRUCTURED mode: the schema carries the output shape, so the prompt only carries the rules
+  private static final String SYSTEM_PROMPT = """
+      Extract the entities and relations in the user's text.
+      Entity types: Person, Organization, Location, Event, Year (dates and years), Quantity (counts and amounts, also without digits).
+      Put multi-line names on one line and list each entity once.
+      Relations use the exact entity names and a short relationType such as works_for, eventYear, affectedPopulation or causes.
+      """;
+
+  private static final JsonNode EXTRACTION_SCHEMA = schema("""
+      {"type": "object",
+       "properties": {
+         "entities": {"type": "array", "items": {"type": "object",
+           "properties": {"name": {"type": "string"},
+                          "type": {"type": "string",
+                                   "enum": ["Person", "Organization", "Location", "Event", "Year", "Quantity"]}},
+           "required": ["name", "type"]}},
+         "relations": {"type": "array", "items": {"type": "object",
+           "properties": {"source": {"type": "string"}, "target": {"type": "string"}, "relationType": {"type": "string"}},
+           "required": ["source", "target", "relationType"]}}},
+       "required": ["entities", "relations"]}
+      """);
+
+  private static final JsonNode RELATIONS_SCHEMA = schema("""
+      {"type": "object",
+       "properties": {"relations": {"type": "array", "items": {"type": "object",
+         "properties": {"source": {"type": "string"}, "target": {"type": "string"}, "relationType": {"type": "string"}},
+         "required": ["source", "target", "relationType"]}}},
+       "required": ["relations"]}
+      """);
+
+  private static final String INSTRUCTIONS = """
+      You are an information extraction system.
+      Extract all entities and relations from the following chunk.
+      Return JSON only, exactly in this format:
+
+      {
+        "entities": [
+        {"name": "Alice", "type": "Person", "chunk_ids": [0]},
+        {"name": "Acme Corp", "type": "Organization", "chunk_ids": [0]}
+        ],
+        "relations": [
+        {"source": "Alice", "target": "Acme Corp", "relationType": "works_for"}
+        ]
+      }
+
+      Rules for entity classification:
+      1. Entities must be one of: Person, Organization, Location, Event, Year, Quantity.
+      2. Flatten multi-line names into spaces.
+      3. Dates, years, or numeric expressions (e.g., 1918, 10, 759, hundreds of thousands) must be typed as "Year" if it's a date/year, or "Quantity" if it is a count/number.
+      4. Textual counts without explicit numbers (e.g., "streamed from the city") should be considered a Quantity.
+      5. Do not create entities of type 'Relation'; instead use the "relations" array.
+      6. Each entity should appear once per chunk; include all chunk_ids where mentioned.
+      7. Relations must reference entities by their exact name and should be typed according to the context (e.g., works_for, eventYear, affectedPopulation, effect, causes, etc.).
+
+      Examples:
+
+      Entities:
+      {"name": "Boccaccio’s Florence", "type": "Location", "chunk_ids": [0]}
+      {"name": "1918", "type": "Year", "chunk_ids": [0]}
+      {"name": "759 Philadelphians", "type": "Quantity", "chunk_ids": [0]}
 
-  private final HttpClient client = HttpClient.newHttpClient();
+      Relations:
+      {"source": "Boccaccio’s Florence", "target": "1348", "relationType": "timePlace"}
+      {"source": "Influenza", "target": "1918", "relationType": "eventYear"}
+      {"source": "Influenza", "target": "1000000", "relationType": "affectedPopulation"}
+
+      Always classify ambiguous numeric phrases or textual counts as Quantity, and years/dates as Year.
+      """;
+
+  private final TokenCounter counter;
+  private final int contextTokens;
+  private final OutputMode mode;
+  private final int instructionTokens;
+  private LlmResponseCache cache;
 
   static {
     Properties props = new Properties();
     String url = "http://localhost:11434";
     String model = "deepseek-r1:1.5b";
+    int contextTokens = DEFAULT_CONTEXT_TOKENS;
+    String keepAlive = "30m";
+    OutputMode mode = OutputMode.FREE_TEXT;
     try (InputStream in = new FileInputStream("config.properties")) {
       props.load(in);
       url = props.getProperty("OLLAMA_URL", url);
       model = props.getProperty("DEEPSEEK_MODEL", model);
-    } catch (IOException e) {
+      contextTokens = Integer.parseInt(props.getProperty("OLLAMA_NUM_CTX", String.valueOf(contextTokens)));
+      keepAlive = props.getProperty("OLLAMA_KEEP_ALIVE", keepAlive);
+      mode = OutputMode.valueOf(props.getProperty("EXTRACTION_MODE", mode.name()).trim().toUpperCase(Locale.ROOT));
+    } catch (IOException | IllegalArgumentException e) {
       System.err.println("Failed to load config.properties, using defaults: " + e.getMessage());
     }
     OLLAMA_URL = url;
     MODEL = model;
+    CONTEXT_TOKENS = contextTokens;
+    KEEP_ALIVE = keepAlive;
+    OUTPUT_MODE = mode;
+  }
+
+  public EntityExtractor() {
+    this(TokenCounter.defaultCounter(), CONTEXT_TOKENS);
+  }
+
+  /**
+   * @param counter tokenizer of the extraction model (or an approximation)
+   * @param contextTokens context window requested from Ollama (num_ctx) and budgeted for
+   */
+  public EntityExtractor(TokenCounter counter, int contextTokens) {
+    this(counter, contextTokens, OUTPUT_MODE);
+  }
+
+  public EntityExtractor(TokenCounter counter, int contextTokens, OutputMode mode) {
+    this(ResilientHttp.of(HttpTransport.Endpoint.OLLAMA), OLLAMA_URL, counter, contextTokens, mode);
+  }
+
+  // A dedicated Ollama endpoint, e.g. a stub in tests
+  public EntityExtractor(ResilientHttp http, String ollamaUrl, TokenCounter counter, int contextTokens,
+                         OutputMode mode) {
+    this.http = http;
+    this.ollamaUrl = ollamaUrl;
+    this.counter = counter;
+    this.contextTokens = contextTokens;
+    this.mode = mode;
+    this.instructionTokens = counter.count(mode == OutputMode.STRUCTURED ? SYSTEM_PROMPT : INSTRUCTIONS);
+  }
+
+  // Reuse responses for identical requests, e.g. boilerplate pages and re-ingested documents
+  public EntityExtractor withCache(LlmResponseCache cache) {
+    this.cache = cache;
+    return this;
   }
 
   public static class Entity {
@@ -78,349 +216,234 @@ public class EntityExtractor {
   public static class ExtractionResult {
     private final List<Entity> entities;
     private final List<Relation> relations;
+    private final int failedChunks;
     public ExtractionResult(List<Entity> entities, List<Relation> relations) {
-      this.entities = entities; this.relations = relations;
+      this(entities, relations, 0);
+    }
+    public ExtractionResult(List<Entity> entities, List<Relation> relations, int failedChunks) {
+      this.entities = entities; this.relations = relations; this.failedChunks = failedChunks;
     }
     public List<Entity> getEntities() { return entities; }
     public List<Relation> getRelations() { return relations; }
+    // Chunks whose extraction failed; a result with failures is partial and must not be cached
+    public int getFailedChunks() { return failedChunks; }
   }
 
   /**
      * Extract entities and relations from a batch of document chunks.
      * Implements two-stage processing: per-chunk extraction + cross-chunk inference.
+     * Chunks that fail are counted in {@link ExtractionResult#getFailedChunks()}; if Ollama is
+     * unreachable the whole batch fails.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the model
      */
-  public ExtractionResult extractBatch(String docId, List<String> chunks) {
+  public ExtractionResult extractBatch(String docId, List<String> chunks) throws InterruptedException {
     try {
-      Map<String, Entity> entityMap = new HashMap<>();
+      Map<String, Entity> entityMap = new LinkedHashMap<>();
       List<Relation> relations = new ArrayList<>();
 
+      int failed = 0;
+
       // Extract entities and relations from each chunk
       for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
-        String chunkText = chunks.get(chunkIndex);
-
-        String prompt = """
-          You are an information extraction system.
-          Extract all entities and relations from the following chunk.
-          Return JSON only, exactly in this format:
-
-          {
-            "entities": [
-            {"name": "Alice", "type": "Person", "chunk_ids": [0]},
-            {"name": "Acme Corp", "type": "Organization", "chunk_ids": [0]}
-            ],
-            "relations": [
-            {"source": "Alice", "target": "Acme Corp", "relationType": "works_for"}
-            ]
-          }
-
-          Rules for entity classification:
-          1. Entities must be one of: Person, Organization, Location, Event, Year, Quantity.
-          2. Flatten multi-line names into spaces.
-          3. Dates, years, or numeric expressions (e.g., 1918, 10, 759, hundreds of thousands) must be typed as "Year" if it's a date/year, or "Quantity" if it is a count/number.
-          4. Textual counts without explicit numbers (e.g., "streamed from the city") should be considered a Quantity.
-          5. Do not create entities of type 'Relation'; instead use the "relations" array.
-          6. Each entity should appear once per chunk; include all chunk_ids where mentioned.
-          7. Relations must reference entities by their exact name and should be typed according to the context (e.g., works_for, eventYear, affectedPopulation, effect, causes, etc.).
-
-          Examples:
-
-          Entities:
-          {"name": "Boccaccio’s Florence", "type": "Location", "chunk_ids": [0]}
-          {"name": "1918", "type": "Year", "chunk_ids": [0]}
-          {"name": "759 Philadelphians", "type": "Quantity", "chunk_ids": [0]}
-
-          Relations:
-          {"source": "Boccaccio’s Florence", "target": "1348", "relationType": "timePlace"}
-          {"source": "Influenza", "target": "1918", "relationType": "eventYear"}
-          {"source": "Influenza", "target": "1000000", "relationType": "affectedPopulation"}
-
-          Always classify ambiguous numeric phrases or textual counts as Quantity, and years/dates as Year.
-          """ + "\nChunk " + chunkIndex + ":\n<<<\n" + chunkText + "\n>>>";
-
-        // Prepare request
-        String body = String.format(
-            "{\"model\":\"%s\",\"prompt\":%s,\"stream\":false}",
-              MODEL, MAPPER.writeValueAsString(prompt)
-        );
-
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(OLLAMA_URL + "/api/generate"))
-            .header("Content-Type", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
-            .build();
-
-        // Send request to Ollama/DeepSeek
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        String raw = response.body();
-
-        if (response.statusCode() != 200) {
-          System.err.println("Ollama error: " + raw);
-          continue;
-        }
-
-        // Clean and parse LLM output (complex JSON processing)
-        String cleaned = cleanJsonOutput(raw);
-
-        JsonNode root;
+        ExtractionResult chunk;
         try {
-          root = MAPPER.readTree(cleaned);
-          if (!root.has("entities")) {
-            ((ObjectNode) root).set("entities", MAPPER.createArrayNode());
-          }
-          if (!root.has("relations") || !root.get("relations").isArray()) {
-            ((ObjectNode) root).set("relations", MAPPER.createArrayNode());
-          }
-        } catch (Exception ex) {
-          System.err.println("Failed to parse JSON for chunk " + chunkIndex + ": " + ex.getMessage());
+          chunk = extractChunk(docId, chunkIndex, chunks.get(chunkIndex));
+        } catch (HttpCallException e) {
+          // Ollama is down or overloaded: give up on the batch; chunks already answered are in the response cache
+          System.err.println("Extraction aborted for " + docId + " at chunk " + chunkIndex + ": " + e.getMessage());
+          return new ExtractionResult(Collections.emptyList(), Collections.emptyList(), chunks.size());
+        } catch (IOException e) {
+          System.err.println("Extraction failed for chunk " + chunkIndex + ": " + e.getMessage());
+          failed++;
           continue;
         }
-
-        // Process extracted entities
-        for (JsonNode n : root.get("entities")) {
-          String rawName = n.path("name").asText(null);
-          String type = n.path("type").asText("Thing");
-          if (rawName == null || rawName.isBlank()) continue;
-
-          final String name = rawName.replaceAll("[\\n\\r]+", " ").trim();
-
-          Entity e = entityMap.computeIfAbsent(name, k -> new Entity(name, type));
-          e.addChunkId(chunkIndex);
-        }
-
-        // Process extracted relations
-        for (JsonNode n : root.get("relations")) {
-          String src = n.path("source").asText(null);
-          String tgt = n.path("target").asText(null);
-          String relType = n.path("relationType").asText(null);
-
-          if (src != null && tgt != null && relType != null) {
-            relations.add(new Relation(src, tgt, relType));
-          }
+        for (Entity e : chunk.getEntities()) {
+          entityMap.computeIfAbsent(e.getName(), k -> new Entity(e.getName(), e.getType()))
+              .getChunkIds().addAll(e.getChunkIds());
         }
+        relations.addAll(chunk.getRelations());
+      }
+      if (failed > 0) {
+        System.err.println("Extraction failed for " + failed + " of " + chunks.size() + " chunks of " + docId);
       }
 
       // Infer cross-chunk relations
       try {
-        List<Entity> allEntities = new ArrayList<>(entityMap.values());
-        String entityJson = MAPPER.writeValueAsString(allEntities);
-
-        String crossPrompt = """
-          You are an information extraction system.
-          I will give you a list of entities extracted from multiple chunks.
-          Infer any relations that span across different chunks.
-
-          Rules:
-          - Only return JSON in this format:
-            {
-            "relations": [
-              {"source": "Entity1", "target": "Entity2", "relationType": "relation"}
-            ]
-            }
-          - Use exact entity names from the list.
-          - Only include relations that connect entities from different chunks.
-          - If none exist, return {"relations": []}.
-          """ + "\nEntities:\n" + entityJson;
-
-        String body = String.format(
-            "{\"model\":\"%s\",\"prompt\":%s,\"stream\":false}",
-              MODEL, MAPPER.writeValueAsString(crossPrompt)
-        );
-
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(OLLAMA_URL + "/api/generate"))
-            .header("Content-Type", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
-            .build();
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        String cleaned = cleanJsonOutput(response.body());
-
-        JsonNode root = MAPPER.readTree(cleaned);
-        if (root.has("relations")) {
-          for (JsonNode n : root.get("relations")) {
-            String src = n.path("source").asText(null);
-            String tgt = n.path("target").asText(null);
-            String relType = n.path("relationType").asText(null);
-
-            if (src != null && tgt != null && relType != null) {
-              relations.add(new Relation(src, tgt, relType));
-            }
-          }
-        }
-      } catch (Exception ex) {
+        relations.addAll(crossChunkRelations(entityMap.values()));
+      } catch (IOException ex) {
         System.err.println("Cross-chunk relation extraction failed: " + ex.getMessage());
       }
 
-      // Debug
-      // System.out.println("=== Extracted Entities ===");
-      // entityMap.values().forEach(System.out::println);
-      // System.out.println("=== Extracted Relations ===");
-      // relations.forEach(System.out::println);
-
-      return new ExtractionResult(new ArrayList<>(entityMap.values()), relations);
+      return new ExtractionResult(new ArrayList<>(entityMap.values()), relations, failed);
 
+    } catch (InterruptedException e) {
+      // Cancelled (e.g. the extraction pool is shutting down): stop instead of returning a result
+      Thread.currentThread().interrupt();
+      throw e;
     } catch (Exception e) {
       e.printStackTrace();
-      return new ExtractionResult(Collections.emptyList(), Collections.emptyList());
+      return new ExtractionResult(Collections.emptyList(), Collections.emptyList(), chunks.size());
     }
   }
 
   /**
-     * Advanced JSON cleaning for messy LLM outputs.
-     * Handles wrapped responses, code blocks, comments, and malformed JSON.
-     */
-  private String cleanJsonOutput(String raw) {
-    if (raw == null || raw.isBlank()) return "{}";
-    try {
-      // Unwrap {"response": "..."} structure if present
-      try {
-        JsonNode outer = MAPPER.readTree(raw);
-        if (outer.has("response")) raw = outer.get("response").asText();
-      } catch (Exception ignore) {}
-
-      // Remove code blocks, comments, and thinking tags
-      raw = raw.replaceAll("(?i)<think>", "")
-          .replaceAll("(?i)</think>", "")
-          .replaceAll("(?s)```json.*?\\n", "")
-          .replaceAll("(?s)```", "")
-          .replaceAll("(?m)^\\s*//.*$", "")
-          .replaceAll("//.*(?=[\\n\\r])", "")
-          .replaceAll("/\\*.*?\\*/", "")
-          .replaceAll("\\.\\.\\.", "");
-
-      // Unwrap double-encoded JSON if present
-      if (raw.startsWith("\"{") && raw.endsWith("}\"")) {
-        try { raw = MAPPER.readValue(raw, String.class); } catch (Exception ignore) {}
-      }
-
-      // Normalize quotes
-      raw = raw.replace("“", "\"").replace("”", "\"")
-          .replace("‘", "'").replace("’", "'");
-
-      // Only add key quotes if not already quoted
-      raw = raw.replaceAll("(?<=\\{|,)(\\s*)(?!\")(\\w+)\\s*:", "$1\"$2\":");
-
-      // Ensure values are quoted if they look like bare words
-      raw = raw.replaceAll("(:\\s*)([A-Za-z][^,\"}\\]]*)", "$1\"$2\"");
-
-      // Extract first complete JSON object
-      raw = trimToTopLevelJsonObject(raw);
+   * Extract the entities and relations of one chunk; its entities carry chunkIndex as chunk id.
+   * The prompt depends only on the chunk's text, so a chunk that moves within the document is
+   * answered from the response cache.
+   *
+   * @throws IOException if Ollama fails (HttpCallException once retries are exhausted) or the
+   *                     answer contains no JSON
+   */
+  public ExtractionResult extractChunk(String docId, int chunkIndex, String chunkText)
+      throws IOException, InterruptedException {
+    // Trim the chunk so instructions + chunk + the model's answer fit in the context window
+    String header = mode == OutputMode.STRUCTURED ? "" : "\nChunk:\n<<<\n";
+    int budget = contextTokens - instructionTokens - counter.count(header) - RESPONSE_RESERVE_TOKENS;
+    if (counter.count(chunkText) > budget) {
+      System.err.println("Chunk " + chunkIndex + " of " + docId + " exceeds the prompt budget of " + budget
+          + " tokens; truncating");
+      chunkText = counter.truncate(chunkText, budget);
+    }
 
-      // Remove bare commentary after commas outside strings (e.g., ", Wait, ...")
-      raw = stripBareTextAfterCommasOutsideStrings(raw);
+    String output = mode == OutputMode.STRUCTURED
+        ? generate(SYSTEM_PROMPT, chunkText, EXTRACTION_SCHEMA)
+        : generate(null, INSTRUCTIONS + header + chunkText + "\n>>>", null);
+
+    // Parse the LLM output straight into entities and relations
+    Map<String, Entity> entityMap = new LinkedHashMap<>();
+    List<Relation> relations = new ArrayList<>();
+    LenientJsonReader.read(output, new LenientJsonReader.Sink() {
+      @Override
+      public void entity(String rawName, String type) {
+        if (rawName == null || rawName.isBlank()) return;
+        final String name = LINE_BREAKS.matcher(rawName).replaceAll(" ").trim();
+        Entity e = entityMap.computeIfAbsent(name, k -> new Entity(name, type != null ? type : "Thing"));
+        e.addChunkId(chunkIndex);
+      }
 
-      // Kill trailing commas
-      raw = raw.replaceAll(",\\s*([}\\]])", "$1");
+      @Override
+      public void relation(String src, String tgt, String relType) {
+        if (src != null && tgt != null && relType != null) {
+          relations.add(new Relation(src, tgt, relType));
+        }
+      }
+    });
+    return new ExtractionResult(new ArrayList<>(entityMap.values()), relations);
+  }
 
-      // Final sanity: if it still doesn't parse, try a greedy backward cut
-      try {
-        MAPPER.readTree(raw);
-      } catch (Exception firstFail) {
-        int last = raw.length();
-        while (last > 0) {
-          int i = raw.lastIndexOf('}', last - 1);
-          if (i <= 0) break;
-          String candidate = raw.substring(0, i + 1);
-          try {
-            MAPPER.readTree(candidate);
-            raw = candidate;
-            break;
-          } catch (Exception ignore) {
-            last = i;
-          }
+  /**
+   * Ask the model for relations between entities found in different chunks.
+   * @throws IOException if Ollama fails
+   */
+  public List<Relation> crossChunkRelations(Collection<Entity> entities) throws IOException, InterruptedException {
+    String entityJson = MAPPER.writeValueAsString(entities);
+
+    String crossPrompt = """
+      You are an information extraction system.
+      I will give you a list of entities extracted from multiple chunks.
+      Infer any relations that span across different chunks.
+
+      Rules:
+      - Only return JSON in this format:
+        {
+        "relations": [
+          {"source": "Entity1", "target": "Entity2", "relationType": "relation"}
+        ]
+        }
+      - Use exact entity names from the list.
+      - Only include relations that connect entities from different chunks.
+      - If none exist, return {"relations": []}.
+      """ + "\nEntities:\n" + entityJson;
+
+    String output = mode == OutputMode.STRUCTURED
+        ? generate(null, crossPrompt, RELATIONS_SCHEMA)
+        : generate(null, crossPrompt, null);
+    List<Relation> relations = new ArrayList<>();
+    LenientJsonReader.read(output, new LenientJsonReader.Sink() {
+      @Override
+      public void relation(String src, String tgt, String relType) {
+        if (src != null && tgt != null && relType != null) {
+          relations.add(new Relation(src, tgt, relType));
         }
       }
+    });
+    return relations;
+  }
 
-      return raw.trim();
-    } catch (Exception e) {
-      System.err.println("Failed to clean LLM output: " + e.getMessage());
-      return "{}";
+  /**
+   * POST to /api/generate and return the model's text. Every call sends the same num_ctx and
+   * keep_alive, so Ollama keeps one loaded instance of the model instead of reloading it between
+   * chunks. With a cache, identical requests (keep_alive aside) are answered from it; only replies
+   * that contain a JSON object are cached, so an unusable one is asked for again next time.
+   *
+   * @param system system prompt, or null for the model's default
+   * @param schema JSON schema for the output (Ollama's format), or null for free text
+   * @throws IOException on non-200 responses or a reply without JSON; HttpCallException once
+   *                     retries are exhausted
+   */
+  private String generate(String system, String prompt, JsonNode schema) throws IOException, InterruptedException {
+    ObjectNode body = MAPPER.createObjectNode()
+        .put("model", MODEL)
+        .put("prompt", prompt)
+        .put("stream", false);
+    if (system != null) body.put("system", system);
+    ObjectNode options = body.putObject("options").put("num_ctx", contextTokens);
+    if (schema != null) {
+      body.set("format", schema);
+      options.put("temperature", 0); // recommended with format; extraction should be repeatable
     }
+    if (cache == null) return parseable(send(body));
+    LlmResponseCache.Key key = LlmResponseCache.key(MAPPER.writeValueAsString(body));
+    return cache.get(key, () -> parseable(send(body)));
   }
 
-   /**
-     * Extract substring containing only the first complete JSON object.
-     * Uses bracket counting to handle nested structures.
-     */
-  private String trimToTopLevelJsonObject(String s) {
-    int start = s.indexOf('{');
-    if (start < 0) return "{}";
-    int depth = 0;
-    boolean inStr = false, esc = false;
-    for (int i = start; i < s.length(); i++) {
-      char c = s.charAt(i);
-      if (inStr) {
-        if (esc) { esc = false; }
-        else if (c == '\\') { esc = true; }
-        else if (c == '"') { inStr = false; }
-      } else {
-        if (c == '"') { inStr = true; }
-        else if (c == '{') { depth++; }
-        else if (c == '}') {
-          depth--;
-          if (depth == 0) return s.substring(start, i + 1);
-        }
-      }
+  // Thrown inside the cache's generator, so a reply without JSON is never cached
+  private static String parseable(String output) throws IOException {
+    if (output == null || !LenientJsonReader.read(output, NO_OP)) {
+      throw new IOException("No JSON object in LLM output");
     }
-    // If we never closed, fallback to last closing brace
-    int end = s.lastIndexOf('}');
-    return (end > start) ? s.substring(start, end + 1) : "{}";
+    return output;
   }
 
-  /**
-     * Remove free-text inserted after commas outside of strings.
-     * Handles cases like {"key": "value", Wait this is wrong, "key2": "value2"}
-     */
-  private String stripBareTextAfterCommasOutsideStrings(String s) {
-    StringBuilder out = new StringBuilder(s.length());
-    boolean inStr = false, esc = false;
-    for (int i = 0; i < s.length(); i++) {
-      char c = s.charAt(i);
-      if (inStr) {
-        out.append(c);
-        if (esc) { esc = false; }
-        else if (c == '\\') { esc = true; }
-        else if (c == '"') { inStr = false; }
-        continue;
-      }
-      if (c == '"') {
-        inStr = true;
-        out.append(c);
-        continue;
-      }
-      if (c == ',') {
-        out.append(c);
-        // Copy whitespace after comma
-        int j = i + 1;
-        while (j < s.length() && Character.isWhitespace(s.charAt(j))) {
-          out.append(s.charAt(j));
-          j++;
-        }
-        if (j < s.length()) {
-          char nxt = s.charAt(j);
-          // Check if next character is valid JSON token
-          boolean valid = (nxt == '{' || nxt == '[' || nxt == '"' ||
-                  nxt == '}' || nxt == ']' ||
-                  nxt == 't' || nxt == 'f' || nxt == 'n' || // true/false/null
-                  nxt == '-' || Character.isDigit(nxt));
-          if (!valid) {
-            // Skip until next valid JSON token
-            while (j < s.length()) {
-              char k = s.charAt(j);
-              if (k == '{' || k == '[' || k == '"' || k == '}' || k == ']'
-                  || k == 't' || k == 'f' || k == 'n' || k == '-' || Character.isDigit(k)) {
-                break;
-              }
-              j++;
-            }
+  private String send(ObjectNode body) throws IOException, InterruptedException {
+    body.put("keep_alive", KEEP_ALIVE);
+    HttpRequest request = http.transport().post(URI.create(ollamaUrl + "/api/generate"), MAPPER.writeValueAsBytes(body))
+        .header("Content-Type", "application/json")
+        .build();
+    HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() != 200) {
+      throw new IOException("Ollama returned " + response.statusCode() + ": " + response.body());
+    }
+    return responseText(response.body());
+  }
+
+  private static JsonNode schema(String json) {
+    try {
+      return MAPPER.readTree(json);
+    } catch (IOException e) {
+      throw new IllegalStateException("Invalid extraction schema", e);
+    }
+  }
+
+  // The "response" field of Ollama's /api/generate envelope, or the body itself if it has none
+  private static String responseText(String body) {
+    if (body == null) return null;
+    try (JsonParser p = MAPPER.getFactory().createParser(body)) {
+      if (p.nextToken() == JsonToken.START_OBJECT) {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+          String field = p.getCurrentName();
+          p.nextToken();
+          if ("response".equals(field)) {
+            String text = p.getValueAsString();
+            return text != null ? text : body;
           }
-          i = j - 1; // Continue from valid token
+          p.skipChildren();
         }
-        continue;
       }
-      out.append(c);
+    } catch (IOException ignore) {
+      // not an envelope
     }
-    return out.toString();
+    return body;
   }
-
 }
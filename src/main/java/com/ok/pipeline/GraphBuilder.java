@@ -2,26 +2,54 @@ package com.ok.pipeline;
 
 import com.ok.embeddings.EmbeddingModel;
 import com.ok.store.GraphStore;
+import com.ok.util.HttpCallException;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
 
 /**
  * GraphBuilder: adds entities and relations only (no chunk nodes),
  * each entity keeps chunk_ids of chunks mentioning it.
+ * Extraction batches run concurrently (bounded by maxInFlight) and are merged in batch order,
+ * so the resulting graph does not depend on which LLM call finishes first.
+ * Name variants ("Acme Corp", "ACME Corp.", "Acme") are merged into one vertex by an
+ * EntityCanonicalizer. With a WikidataMatcher, entities whose name links to an item get its
+ * wikidata_id, and names linked to the same item are merged as well.
  */
 public class GraphBuilder {
+  private static final Logger LOGGER = Logger.getLogger(GraphBuilder.class.getName());
 
   private final GraphStore store;
   private final EmbeddingModel model;
   private final WikidataMatcher wikidata;
+  private final int maxInFlight;
+  private EntityCanonicalizer canonicalizer = new EntityCanonicalizer();
   private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int BATCH_SIZE = 5;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
 
   public GraphBuilder(GraphStore store, EmbeddingModel model, WikidataMatcher wikidata) {
+    this(store, model, wikidata, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * @param maxInFlight max extraction batches sent to the Ollama endpoint at once (1 = sequential)
+   */
+  public GraphBuilder(GraphStore store, EmbeddingModel model, WikidataMatcher wikidata, int maxInFlight) {
     this.store = store;
     this.model = model;
     this.wikidata = wikidata;
+    this.maxInFlight = Math.max(1, maxInFlight);
+  }
+
+  // Resolves name variants to one entity; kept across ingests so later documents reuse the same names
+  public GraphBuilder withCanonicalizer(EntityCanonicalizer canonicalizer) {
+    this.canonicalizer = canonicalizer;
+    return this;
   }
 
   public static class IngestResult {
@@ -35,35 +63,52 @@ public class GraphBuilder {
   }
 
   public GraphBuilder.IngestResult ingest(String docId, List<String> chunks, EntityExtractor ner) {
+    return ingest(docId, chunks, ner, null);
+  }
+
+  /**
+   * Same as {@link #ingest(String, List, EntityExtractor)}, but chunks extracted by an earlier run
+   * (wherever they now sit in the document) reuse the result recorded in the manifest instead of
+   * calling the LLM. The manifest is checkpointed after every batch with new results.
+   */
+  public GraphBuilder.IngestResult ingest(String docId, List<String> chunks, EntityExtractor ner,
+                                          IngestionManifest manifest) {
     Map<String, Vertex> entityMap = new HashMap<>();
-    Map<String, EntityExtractor.Entity> globalEntities = new HashMap<>();
+    Map<String, EntityExtractor.Entity> globalEntities = new LinkedHashMap<>();
     List<EntityExtractor.Relation> globalRelations = new ArrayList<>();
 
-    int batchSize = 5;
-
-    for (int start = 0; start < chunks.size(); start += batchSize) {
-      int end = Math.min(start + batchSize, chunks.size());
-      List<String> batch = chunks.subList(start, end);
-
-      // Extract entities + relations
-      EntityExtractor.ExtractionResult batchResult = ner.extractBatch(docId, batch);
-
-      // Merge batch entities
+    // Merge batch results strictly in batch order, variants of a name into its canonical entity
+    for (EntityExtractor.ExtractionResult batchResult : extractAll(docId, chunks, ner, manifest)) {
       for (EntityExtractor.Entity e : batchResult.getEntities()) {
-        EntityExtractor.Entity global = globalEntities.computeIfAbsent(
-            e.getName(),
-            k -> new EntityExtractor.Entity(e.getName(), e.getType())
-        );
-        global.getChunkIds().addAll(e.getChunkIds());
+        merge(globalEntities, canonicalizer.resolve(e.getName()), e);
       }
 
       globalRelations.addAll(batchResult.getRelations());
     }
 
+    // Link entity names to Wikidata items in one batched pass (index, cache, then SPARQL)
+    Map<String, WikidataMatcher.Match> links = wikidata != null ? wikidata.link(globalEntities.keySet()) : Map.of();
+
+    // Names the canonicalizer kept apart but Wikidata links to the same item are one entity too
+    Map<String, String> byItem = new HashMap<>();
+    for (EntityExtractor.Entity e : new ArrayList<>(globalEntities.values())) {
+      WikidataMatcher.Match link = links.get(e.getName());
+      if (link == null) continue;
+      String first = byItem.putIfAbsent(link.getId(), e.getName());
+      if (first != null) {
+        globalEntities.remove(e.getName());
+        merge(globalEntities, first, e);
+        canonicalizer.alias(e.getName(), first);
+      }
+    }
+
     // Create vertices
     List<Vertex> entityVertices = new ArrayList<>();
     for (EntityExtractor.Entity e : globalEntities.values()) {
-      Vertex v = store.addEntity(e.getName(), e.getType());
+      WikidataMatcher.Match link = links.get(e.getName());
+      Vertex v = link != null
+          ? store.addEntity(e.getName(), e.getType(), link.getId())
+          : store.addEntity(e.getName(), e.getType());
       try {
         v.property("chunk_ids", new ArrayList<>(e.getChunkIds()));
       } catch (Exception ex) {
@@ -74,19 +119,173 @@ public class GraphBuilder {
       System.out.println("Added entity: " + e);
     }
 
-    // Add edges, auto-create missing vertices
+    // Add edges, reusing entities already in the store before auto-creating missing vertices.
+    // Endpoints are canonicalised too; self-loops and repeats left by merging variants are dropped
+    Set<String> edges = new HashSet<>();
     for (EntityExtractor.Relation r : globalRelations) {
-      Vertex from = entityMap.computeIfAbsent(r.source, 
-        k -> store.addEntity(r.source, "Thing"));
-      Vertex to = entityMap.computeIfAbsent(r.target, 
-        k -> store.addEntity(r.target, "Thing"));
+      String source = canonicalizer.resolve(r.source);
+      String target = canonicalizer.resolve(r.target);
+      if (source.equals(target) || !edges.add(source + '\u0000' + r.relationType + '\u0000' + target)) continue;
+
+      Vertex from = entityMap.computeIfAbsent(source, k -> findOrAddEntity(source));
+      Vertex to = entityMap.computeIfAbsent(target, k -> findOrAddEntity(target));
 
       store.addEdge(from, to, r.relationType, Map.of("extracted", true));
-      System.out.println("Added relation: " + r);
+      System.out.println("Added relation: " + source + " -> " + target + " [" + r.relationType + "]");
     }
 
     return new IngestResult(entityVertices, Collections.emptyList());
   }
 
+  /**
+   * Run extractBatch over every BATCH_SIZE slice on virtual threads, with at most maxInFlight
+   * batches talking to the model at once. Results are returned in batch order, with chunk ids
+   * numbered across the whole document.
+   */
+  private List<EntityExtractor.ExtractionResult> extractAll(String docId, List<String> chunks, EntityExtractor ner,
+                                                            IngestionManifest manifest) {
+    List<List<String>> batches = new ArrayList<>();
+    for (int start = 0; start < chunks.size(); start += BATCH_SIZE) {
+      batches.add(chunks.subList(start, Math.min(start + BATCH_SIZE, chunks.size())));
+    }
+    if (manifest != null) {
+      manifest.retainExtractions(batches);
+      int cached = 0;
+      for (int i = 0; i < chunks.size(); i++) if (manifest.extraction(chunks.get(i), i) != null) cached++;
+      LOGGER.info("Extraction: " + chunks.size() + " chunks in " + batches.size() + " batches (" + cached
+          + " unchanged chunks reused from manifest)");
+    }
+
+    List<EntityExtractor.ExtractionResult> results = new ArrayList<>(batches.size());
+    try {
+      if (maxInFlight == 1 || batches.size() <= 1) {
+        for (int b = 0; b < batches.size(); b++) {
+          results.add(extractOrReuse(docId, b * BATCH_SIZE, batches.get(b), ner, manifest));
+        }
+        return results;
+      }
+
+      Semaphore inFlight = new Semaphore(maxInFlight);
+      try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+        List<Future<EntityExtractor.ExtractionResult>> futures = new ArrayList<>(batches.size());
+        for (int b = 0; b < batches.size(); b++) {
+          final int start = b * BATCH_SIZE;
+          final List<String> batch = batches.get(b);
+          futures.add(pool.submit(() -> {
+            inFlight.acquire();
+            try {
+              return extractOrReuse(docId, start, batch, ner, manifest);
+            } finally {
+              inFlight.release();
+            }
+          }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+          try {
+            results.add(futures.get(i).get());
+          } catch (ExecutionException ex) {
+            LOGGER.warning("Extraction failed for batch " + i + ": " + ex.getCause());
+            results.add(new EntityExtractor.ExtractionResult(List.of(), List.of(), batches.get(i).size()));
+          }
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while extracting entities", ex);
+    }
+    return results;
+  }
+
+  /**
+   * Extraction of the batch starting at chunk start. With a manifest, chunks extracted by an
+   * earlier run are reused and only the others go to the model; each successful chunk is
+   * recorded, failed ones are left to the next run. Cross-chunk relations are recorded per batch,
+   * and only when every chunk of it succeeded.
+   */
+  private EntityExtractor.ExtractionResult extractOrReuse(String docId, int start, List<String> batch,
+                                                          EntityExtractor ner, IngestionManifest manifest)
+      throws InterruptedException {
+    if (manifest == null) {
+      EntityExtractor.ExtractionResult result = ner.extractBatch(docId, batch);
+      for (EntityExtractor.Entity e : result.getEntities()) {
+        List<Integer> local = new ArrayList<>(e.getChunkIds());
+        e.getChunkIds().clear();
+        for (int id : local) e.addChunkId(start + id);
+      }
+      return result;
+    }
+
+    Map<String, EntityExtractor.Entity> entities = new LinkedHashMap<>();
+    List<EntityExtractor.Relation> relations = new ArrayList<>();
+    int failed = 0;
+    boolean changed = false;
+    for (int i = 0; i < batch.size(); i++) {
+      int chunkIndex = start + i;
+      EntityExtractor.ExtractionResult chunk = manifest.extraction(batch.get(i), chunkIndex);
+      if (chunk == null) {
+        try {
+          chunk = ner.extractChunk(docId, chunkIndex, batch.get(i));
+        } catch (HttpCallException ex) {
+          // Ollama is down or overloaded: leave the rest of the batch for the next run
+          LOGGER.warning("Extraction aborted for " + docId + " at chunk " + chunkIndex + ": " + ex.getMessage());
+          failed += batch.size() - i;
+          break;
+        } catch (IOException ex) {
+          LOGGER.warning("Extraction failed for chunk " + chunkIndex + " of " + docId + ": " + ex.getMessage());
+          failed++;
+          continue;
+        }
+        manifest.putExtraction(batch.get(i), chunk);
+        changed = true;
+      }
+      for (EntityExtractor.Entity e : chunk.getEntities()) {
+        entities.computeIfAbsent(e.getName(), k -> new EntityExtractor.Entity(e.getName(), e.getType()))
+            .getChunkIds().addAll(e.getChunkIds());
+      }
+      relations.addAll(chunk.getRelations());
+    }
+
+    List<EntityExtractor.Relation> cross = manifest.crossRelations(batch);
+    if (cross == null && failed < batch.size()) {
+      try {
+        cross = ner.crossChunkRelations(entities.values());
+        if (failed == 0) {
+          manifest.putCrossRelations(batch, cross);
+          changed = true;
+        }
+      } catch (IOException ex) {
+        LOGGER.warning("Cross-chunk relation extraction failed for " + docId + ": " + ex.getMessage());
+      }
+    }
+    if (cross != null) relations.addAll(cross);
+
+    if (changed) {
+      try {
+        manifest.save();
+      } catch (IOException ex) {
+        LOGGER.warning("Failed to checkpoint ingestion manifest: " + ex.getMessage());
+      }
+    }
+    return new EntityExtractor.ExtractionResult(new ArrayList<>(entities.values()), relations, failed);
+  }
+
+  // Fold e's chunk ids into the entity named canonical; a specific type replaces "Thing"
+  private static void merge(Map<String, EntityExtractor.Entity> entities, String canonical, EntityExtractor.Entity e) {
+    EntityExtractor.Entity global = entities.get(canonical);
+    if (global == null || ("Thing".equals(global.getType()) && !"Thing".equals(e.getType()))) {
+      EntityExtractor.Entity typed = new EntityExtractor.Entity(canonical, e.getType());
+      if (global != null) typed.getChunkIds().addAll(global.getChunkIds());
+      entities.put(canonical, typed);
+      global = typed;
+    }
+    global.getChunkIds().addAll(e.getChunkIds());
+  }
+
+  private Vertex findOrAddEntity(String name) {
+    Vertex existing = store.entityByName(name);
+    return existing != null ? existing : store.addEntity(name, "Thing");
+  }
+
 
 }
@@ -0,0 +1,249 @@
+package com.ok.pipeline;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Per-document ingestion checkpoint, persisted as JSON under data/manifests/.
+ *
+ * Records the store status of every chunk under its {@link #chunkKeys key} (content hash plus
+ * occurrence), the LLM extraction result of every chunk (keyed by its content hash, so edits
+ * elsewhere in the document don't invalidate it) and the cross-chunk relations of every chunk
+ * batch (keyed by the hashes of its chunks). A re-run only processes chunks whose records are
+ * missing, reports chunks that disappeared as stale, and resumes from the last saved checkpoint
+ * after a crash.
+ */
+public class IngestionManifest {
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private final Path file;
+  private final State state;
+  private final boolean fresh;
+  private List<String> moved = List.of();
+
+  // JSON shape of the manifest file
+  public static class State {
+    public String docId;
+    public Map<String, ChunkRecord> chunks = new LinkedHashMap<>();         // chunk key -> status
+    public Map<String, ExtractionRecord> extractions = new LinkedHashMap<>(); // chunk hash -> result
+    public Map<String, List<RelationRecord>> crossRelations = new LinkedHashMap<>(); // batch key -> relations
+  }
+
+  public static class ChunkRecord {
+    public int index;
+    public Integer page; // null if unknown (older manifests)
+    public boolean stored;
+  }
+
+  public static class ExtractionRecord {
+    public List<EntityRecord> entities = new ArrayList<>();
+    public List<RelationRecord> relations = new ArrayList<>();
+  }
+
+  public static class EntityRecord {
+    public String name;
+    public String type;
+  }
+
+  public static class RelationRecord {
+    public String source;
+    public String target;
+    public String relationType;
+  }
+
+  private IngestionManifest(Path file, State state, boolean fresh) {
+    this.file = file;
+    this.state = state;
+    this.fresh = fresh;
+  }
+
+  // Load the manifest for a document, or start an empty one
+  public static IngestionManifest load(String docId) throws IOException {
+    return load(docId, Path.of("data", "manifests"));
+  }
+
+  public static IngestionManifest load(String docId, Path dir) throws IOException {
+    Path file = dir.resolve(docId.replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+    boolean fresh = !Files.exists(file);
+    State state = fresh ? new State() : MAPPER.readValue(file.toFile(), State.class);
+    state.docId = docId;
+    return new IngestionManifest(file, state, fresh);
+  }
+
+  // True if no manifest existed on disk, i.e. the document was never ingested with one
+  public boolean isFresh() {
+    return fresh;
+  }
+
+  // Write the checkpoint atomically (tmp file + rename)
+  public synchronized void save() throws IOException {
+    Files.createDirectories(file.getParent());
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    MAPPER.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), state);
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public synchronized List<String> reconcile(List<String> chunks) {
+    return reconcile(chunks, null);
+  }
+
+  /**
+   * Align the manifest with the current chunk list and the page of every chunk (or null).
+   * Stored chunks whose index or page changed, e.g. after text was inserted earlier in the
+   * document, are marked as not stored so their rows are written again; see {@link #moved()}.
+   * @return keys of chunks recorded by a previous run that no longer exist (stale)
+   */
+  public synchronized List<String> reconcile(List<String> chunks, List<Integer> pages) {
+    Map<String, ChunkRecord> next = new LinkedHashMap<>();
+    List<String> movedKeys = new ArrayList<>();
+    List<String> keys = chunkKeys(chunks);
+    for (int i = 0; i < keys.size(); i++) {
+      ChunkRecord rec = state.chunks.getOrDefault(keys.get(i), new ChunkRecord());
+      Integer page = pages != null ? pages.get(i) : rec.page;
+      if (rec.stored && (rec.index != i || (rec.page != null && !rec.page.equals(page)))) {
+        rec.stored = false;
+        movedKeys.add(keys.get(i));
+      }
+      rec.index = i;
+      rec.page = page;
+      next.put(keys.get(i), rec);
+    }
+    moved = movedKeys;
+    List<String> stale = new ArrayList<>();
+    for (String k : state.chunks.keySet()) {
+      if (!next.containsKey(k)) stale.add(k);
+    }
+    // Stale entries stay until the caller confirms their deletion via forgetChunk
+    for (String k : stale) next.put(k, state.chunks.get(k));
+    state.chunks = next;
+    return stale;
+  }
+
+  // Keys of stored chunks the last reconcile found at a new index or page; their rows are outdated
+  public synchronized List<String> moved() {
+    return moved;
+  }
+
+  public synchronized void forgetChunk(String key) {
+    state.chunks.remove(key);
+  }
+
+  public synchronized boolean isStored(String key) {
+    ChunkRecord rec = state.chunks.get(key);
+    return rec != null && rec.stored;
+  }
+
+  public synchronized void markStored(String key) {
+    state.chunks.computeIfAbsent(key, k -> new ChunkRecord()).stored = true;
+  }
+
+  /**
+   * Cached extraction of one chunk, with its entities attributed to chunkIndex, or null if the
+   * chunk has not been extracted successfully yet.
+   */
+  public synchronized EntityExtractor.ExtractionResult extraction(String chunk, int chunkIndex) {
+    ExtractionRecord rec = state.extractions.get(hash(chunk));
+    if (rec == null) return null;
+
+    List<EntityExtractor.Entity> entities = new ArrayList<>();
+    for (EntityRecord er : rec.entities) {
+      EntityExtractor.Entity e = new EntityExtractor.Entity(er.name, er.type);
+      e.addChunkId(chunkIndex);
+      entities.add(e);
+    }
+    return new EntityExtractor.ExtractionResult(entities, toRelations(rec.relations));
+  }
+
+  public synchronized void putExtraction(String chunk, EntityExtractor.ExtractionResult result) {
+    ExtractionRecord rec = new ExtractionRecord();
+    for (EntityExtractor.Entity e : result.getEntities()) {
+      EntityRecord er = new EntityRecord();
+      er.name = e.getName();
+      er.type = e.getType();
+      rec.entities.add(er);
+    }
+    rec.relations = toRecords(result.getRelations());
+    state.extractions.put(hash(chunk), rec);
+  }
+
+  // Cached cross-chunk relations of a batch, or null if they have not been inferred yet
+  public synchronized List<EntityExtractor.Relation> crossRelations(List<String> batch) {
+    List<RelationRecord> rec = state.crossRelations.get(batchKey(batch));
+    return rec != null ? toRelations(rec) : null;
+  }
+
+  public synchronized void putCrossRelations(List<String> batch, List<EntityExtractor.Relation> relations) {
+    state.crossRelations.put(batchKey(batch), toRecords(relations));
+  }
+
+  // Drop cached results for chunks and batches that are not part of the current document
+  public synchronized void retainExtractions(List<List<String>> batches) {
+    Set<String> chunkHashes = new HashSet<>();
+    Set<String> batchKeys = new HashSet<>();
+    for (List<String> batch : batches) {
+      for (String chunk : batch) chunkHashes.add(hash(chunk));
+      batchKeys.add(batchKey(batch));
+    }
+    state.extractions.keySet().retainAll(chunkHashes);
+    state.crossRelations.keySet().retainAll(batchKeys);
+  }
+
+  private static List<EntityExtractor.Relation> toRelations(List<RelationRecord> records) {
+    List<EntityExtractor.Relation> relations = new ArrayList<>(records.size());
+    for (RelationRecord rr : records) {
+      relations.add(new EntityExtractor.Relation(rr.source, rr.target, rr.relationType));
+    }
+    return relations;
+  }
+
+  private static List<RelationRecord> toRecords(List<EntityExtractor.Relation> relations) {
+    List<RelationRecord> records = new ArrayList<>(relations.size());
+    for (EntityExtractor.Relation r : relations) {
+      RelationRecord rr = new RelationRecord();
+      rr.source = r.source;
+      rr.target = r.target;
+      rr.relationType = r.relationType;
+      records.add(rr);
+    }
+    return records;
+  }
+
+  /**
+   * Record key of every chunk, in order: its hash, suffixed with #n for the n-th repeat of the same
+   * text, so identical chunks are stored, reported stale and deleted one copy at a time.
+   */
+  public static List<String> chunkKeys(List<String> chunks) {
+    Map<String, Integer> seen = new HashMap<>();
+    List<String> keys = new ArrayList<>(chunks.size());
+    for (String chunk : chunks) {
+      String h = hash(chunk);
+      int n = seen.merge(h, 1, Integer::sum) - 1;
+      keys.add(n == 0 ? h : h + "#" + n);
+    }
+    return keys;
+  }
+
+  public static String batchKey(List<String> batch) {
+    StringBuilder sb = new StringBuilder();
+    for (String chunk : batch) sb.append(hash(chunk)).append('|');
+    return hash(sb.toString());
+  }
+
+  // SHA-256 hex of the chunk text
+  public static String hash(String text) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
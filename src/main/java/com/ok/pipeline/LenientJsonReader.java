@@ -0,0 +1,290 @@
+package com.ok.pipeline;
+
+/**
+ * Reads the entity/relation JSON an LLM was asked for, tolerating the ways models get it wrong.
+ *
+ * One left-to-right pass over the text, with no regexes and no intermediate copies of the
+ * payload. Tolerated:
+ * <ul>
+ *   <li>a {@code <think>...</think>} preamble, prose before the first '{' and anything after the
+ *   object closes;</li>
+ *   <li>Markdown code fences, {@code //} and {@code /* *}{@code /} comments, "..." placeholders;</li>
+ *   <li>smart quotes, single quotes, unquoted keys and bare-word values;</li>
+ *   <li>missing and trailing commas, and free text between members ("Wait, ...");</li>
+ *   <li>a payload double-encoded as a JSON string, and output cut off mid-object.</li>
+ * </ul>
+ * Records are handed to the {@link Sink} as their objects close; a record cut off by the end
+ * of the text is dropped. Fields the sink doesn't need (such as chunk_ids) are skipped.
+ */
+public final class LenientJsonReader {
+
+  public interface Sink {
+    default void entity(String name, String type) { }
+    default void relation(String source, String target, String relationType) { }
+  }
+
+  // What an object at a given position holds
+  private static final int SKIP = 0;
+  private static final int ROOT = 1;
+  private static final int ENTITY = 2;
+  private static final int RELATION = 3;
+
+  private final CharSequence s;
+  private final int end;
+  private final Sink sink;
+  private final StringBuilder tok = new StringBuilder();
+  private boolean quoted; // tok came from a quoted string
+  private int pos;
+
+  private LenientJsonReader(CharSequence s, int pos, Sink sink) {
+    this.s = s;
+    this.end = s.length();
+    this.pos = pos;
+    this.sink = sink;
+  }
+
+  /**
+   * Reads the first JSON object in text into sink.
+   *
+   * @return false if the text holds no JSON object at all
+   */
+  public static boolean read(CharSequence text, Sink sink) {
+    if (text == null) return false;
+    int from = indexOfIgnoreCase(text, "</think>");
+    LenientJsonReader r = new LenientJsonReader(text, from < 0 ? 0 : from + "</think>".length(), sink);
+
+    int c = r.skipNoise();
+    if (c == '"' && r.pos + 1 < r.end && text.charAt(r.pos + 1) == '{') {
+      // Double-encoded: {"response": "\"{\\\"entities\\\": ...}\""}
+      r.readString();
+      return read(r.tok.toString(), sink);
+    }
+    while (r.pos < r.end && text.charAt(r.pos) != '{') r.pos++;
+    if (r.pos == r.end) return false;
+    r.readObject(ROOT);
+    return true;
+  }
+
+  // Positioned on '{'
+  private void readObject(int kind) {
+    pos++;
+    String[] fields = kind == ENTITY ? new String[2] : kind == RELATION ? new String[3] : null;
+    while (true) {
+      int c = skipNoise();
+      if (c < 0) return; // cut off: drop the partial record
+      if (c == '}') {
+        pos++;
+        emit(kind, fields);
+        return;
+      }
+      if (c == ']') {
+        emit(kind, fields); // missing '}': let the enclosing array close
+        return;
+      }
+      if (c == ',' || c == ':') {
+        pos++;
+        continue;
+      }
+      if (!readKey()) continue; // prose between members
+
+      if (kind == ROOT) {
+        readValue(CharSequence.compare(tok, "entities") == 0 ? ENTITY
+            : CharSequence.compare(tok, "relations") == 0 ? RELATION : SKIP);
+      } else {
+        int slot = fieldSlot(kind);
+        if (readValue(SKIP) && slot >= 0) fields[slot] = quoted || !isNull() ? tok.toString() : null;
+      }
+    }
+  }
+
+  // Positioned on '['; objects in it are of the given kind
+  private void readArray(int kind) {
+    pos++;
+    while (true) {
+      int c = skipNoise();
+      if (c < 0) return;
+      if (c == ']') {
+        pos++;
+        return;
+      }
+      if (c == '}') return; // missing ']': let the enclosing object close
+      if (c == ',') {
+        pos++;
+        continue;
+      }
+      readValue(kind); // stray scalars are dropped
+    }
+  }
+
+  // Reads any value; returns true if it was a scalar, which is then in tok
+  private boolean readValue(int kind) {
+    int c = skipNoise();
+    if (c < 0) {
+      tok.setLength(0);
+      return false;
+    }
+    if (c == '{') {
+      readObject(kind);
+      return false;
+    }
+    if (c == '[') {
+      readArray(kind);
+      return false;
+    }
+    if (isQuote(c)) readString();
+    else readBare();
+    return true;
+  }
+
+  // A member name followed by ':', in tok; false (with the text consumed) if it isn't one
+  private boolean readKey() {
+    int c = s.charAt(pos);
+    if (isQuote(c)) {
+      readString();
+    } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+      tok.setLength(0);
+      while (pos < end && isWordChar(pos)) tok.append(s.charAt(pos++));
+    } else if (c == '{' || c == '[') {
+      readValue(SKIP);
+      return false;
+    } else {
+      pos++;
+      return false;
+    }
+    if (skipNoise() != ':') return false;
+    pos++;
+    return true;
+  }
+
+  // Quoted string into tok; smart quotes delimit like their ASCII counterparts
+  private void readString() {
+    tok.setLength(0);
+    quoted = true;
+    boolean dbl = isDoubleQuote(s.charAt(pos++));
+    while (pos < end) {
+      char c = s.charAt(pos++);
+      if (dbl ? isDoubleQuote(c) : c == '\'' || c == '’') return;
+      if (c == '\\' && pos < end) {
+        char e = s.charAt(pos++);
+        switch (e) {
+          case 'n' -> tok.append('\n');
+          case 't' -> tok.append('\t');
+          case 'r' -> tok.append('\r');
+          case 'b' -> tok.append('\b');
+          case 'f' -> tok.append('\f');
+          case 'u' -> {
+            int cp = pos + 4 <= end ? hex4(pos) : -1;
+            if (cp >= 0) {
+              tok.append((char) cp);
+              pos += 4;
+            } else {
+              tok.append('u');
+            }
+          }
+          default -> tok.append(e); // \" \\ \/ and unknown escapes
+        }
+      } else if (c == '‘' || c == '’') {
+        tok.append('\'');
+      } else {
+        tok.append(c);
+      }
+    }
+  }
+
+  // Unquoted value: up to the next delimiter or bracket, line end or comment, trimmed
+  private void readBare() {
+    tok.setLength(0);
+    quoted = false;
+    while (pos < end) {
+      char c = s.charAt(pos);
+      if (c == ',' || c == '{' || c == '}' || c == '[' || c == ']' || c == '\n' || c == '\r' || isDoubleQuote(c)) break;
+      if (c == '/' && pos + 1 < end && (s.charAt(pos + 1) == '/' || s.charAt(pos + 1) == '*')) break;
+      tok.append(c);
+      pos++;
+    }
+    int n = tok.length();
+    while (n > 0 && Character.isWhitespace(tok.charAt(n - 1))) n--;
+    tok.setLength(n);
+  }
+
+  // Skips whitespace, comments, code fences and "..."; returns the next char or -1 at the end
+  private int skipNoise() {
+    while (pos < end) {
+      char c = s.charAt(pos);
+      char next = pos + 1 < end ? s.charAt(pos + 1) : 0;
+      if (Character.isWhitespace(c) || c == '\u00A0' || c == '…') {
+        pos++;
+      } else if (c == '/' && next == '/') {
+        while (pos < end && s.charAt(pos) != '\n') pos++;
+      } else if (c == '/' && next == '*') {
+        pos += 2;
+        while (pos < end && !(s.charAt(pos) == '*' && pos + 1 < end && s.charAt(pos + 1) == '/')) pos++;
+        pos = Math.min(end, pos + 2);
+      } else if (c == '`') {
+        while (pos < end && s.charAt(pos) == '`') pos++;
+        while (pos < end && Character.isLetter(s.charAt(pos))) pos++; // ```json
+      } else if (c == '.' && next == '.') {
+        while (pos < end && s.charAt(pos) == '.') pos++;
+      } else {
+        return c;
+      }
+    }
+    return -1;
+  }
+
+  private void emit(int kind, String[] fields) {
+    if (kind == ENTITY) sink.entity(fields[0], fields[1]);
+    else if (kind == RELATION) sink.relation(fields[0], fields[1], fields[2]);
+  }
+
+  private int fieldSlot(int kind) {
+    if (kind == ENTITY) {
+      if (CharSequence.compare(tok, "name") == 0) return 0;
+      if (CharSequence.compare(tok, "type") == 0) return 1;
+    } else if (kind == RELATION) {
+      if (CharSequence.compare(tok, "source") == 0) return 0;
+      if (CharSequence.compare(tok, "target") == 0) return 1;
+      if (CharSequence.compare(tok, "relationType") == 0) return 2;
+    }
+    return -1;
+  }
+
+  // Apostrophes inside words ("I'm") don't open a string
+  private boolean isWordChar(int at) {
+    char c = s.charAt(at);
+    if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '-') return true;
+    return (c == '\'' || c == '’') && at + 1 < end && Character.isLetter(s.charAt(at + 1));
+  }
+
+  private boolean isNull() {
+    return CharSequence.compare(tok, "null") == 0;
+  }
+
+  private int hex4(int at) {
+    int v = 0;
+    for (int i = at; i < at + 4; i++) {
+      int d = Character.digit(s.charAt(i), 16);
+      if (d < 0) return -1;
+      v = v * 16 + d;
+    }
+    return v;
+  }
+
+  private static boolean isQuote(int c) {
+    return isDoubleQuote(c) || c == '\'' || c == '‘';
+  }
+
+  private static boolean isDoubleQuote(int c) {
+    return c == '"' || c == '“' || c == '”';
+  }
+
+  // needle is lower case
+  private static int indexOfIgnoreCase(CharSequence text, String needle) {
+    for (int i = 0, last = text.length() - needle.length(); i <= last; i++) {
+      int j = 0;
+      while (j < needle.length() && Character.toLowerCase(text.charAt(i + j)) == needle.charAt(j)) j++;
+      if (j == needle.length()) return i;
+    }
+    return -1;
+  }
+}
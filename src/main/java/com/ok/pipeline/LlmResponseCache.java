@@ -0,0 +1,307 @@
+package com.ok.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Durable cache of LLM responses keyed by a content hash of the request, with single-flight
+ * coalescing: callers asking for the same key while it is being generated wait for that one call
+ * instead of starting their own.
+ *
+ * Keys are SHA-256 of the request parts (model, prompt, options, ...). Lookups go through an
+ * in-memory LRU tier, then an append-only log on disk indexed at startup:
+ * <pre>[32-byte key][int64 created millis][int32 length][length bytes UTF-8]</pre> (little-endian).
+ * Entries older than the TTL are misses. On open, expired and superseded records are dropped and
+ * the log is compacted to the newest records that fit in maxBytes if needed; a torn tail record
+ * is truncated.
+ */
+public class LlmResponseCache implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(LlmResponseCache.class.getName());
+  private static final int KEY_BYTES = 32;
+  private static final int HEADER_BYTES = KEY_BYTES + Long.BYTES + Integer.BYTES;
+
+  public static final Duration DEFAULT_TTL = Duration.ofDays(30);
+  public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+  /** Produces the response on a miss; throw to report a failure, which is never cached. */
+  @FunctionalInterface
+  public interface Generator {
+    String generate() throws IOException, InterruptedException;
+  }
+
+  private final Path logFile;
+  private final long ttlMillis;
+  private final long maxBytes;
+  private final Map<Key, String> memory;
+  private final Map<Key, Slot> diskIndex = new ConcurrentHashMap<>();
+  private final Map<Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+  private FileChannel log;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public LlmResponseCache(Path logFile, int maxEntries) throws IOException {
+    this(logFile, maxEntries, DEFAULT_MAX_BYTES, DEFAULT_TTL);
+  }
+
+  /**
+   * @param logFile    on-disk tier, created if missing
+   * @param maxEntries capacity of the in-memory LRU tier
+   * @param maxBytes   size the log is compacted down to when reopened
+   * @param ttl        age after which an entry is regenerated
+   */
+  public LlmResponseCache(Path logFile, int maxEntries, long maxBytes, Duration ttl) throws IOException {
+    this.logFile = logFile;
+    this.ttlMillis = ttl.toMillis();
+    this.maxBytes = maxBytes;
+    this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+        return size() > maxEntries;
+      }
+    };
+
+    if (logFile.getParent() != null) Files.createDirectories(logFile.getParent());
+    this.log = open(logFile);
+    loadIndex();
+  }
+
+  /**
+   * Hash of the request parts; parts are separated so ("ab", "c") and ("a", "bc") differ.
+   * Null parts are allowed.
+   */
+  public static Key key(String... parts) {
+    try {
+      MessageDigest sha = MessageDigest.getInstance("SHA-256");
+      for (String part : parts) {
+        if (part != null) sha.update(part.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+      }
+      return Key.readFrom(ByteBuffer.wrap(sha.digest()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Cached response for key, or the result of generator. Concurrent calls with the same key share
+   * one generator call; its failure is rethrown to all of them.
+   */
+  public String get(Key key, Generator generator) throws IOException, InterruptedException {
+    String cached = lookup(key);
+    if (cached != null) return cached;
+
+    CompletableFuture<String> mine = new CompletableFuture<>();
+    CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      coalesced.incrementAndGet();
+      return await(running);
+    }
+    try {
+      // A leader that finished between our lookup and putIfAbsent has stored its result
+      String value = lookup(key);
+      if (value == null) {
+        misses.incrementAndGet();
+        value = generator.generate();
+        if (value == null) throw new IOException("LLM call produced no response");
+        store(key, value);
+      }
+      mine.complete(value);
+      return value;
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  public long getMemoryHits() { return memoryHits.get(); }
+  public long getDiskHits() { return diskHits.get(); }
+  public long getCoalesced() { return coalesced.get(); }
+  public long getMisses() { return misses.get(); }
+
+  @Override
+  public String toString() {
+    return String.format("LlmResponseCache memoryHits=%d diskHits=%d coalesced=%d misses=%d",
+        getMemoryHits(), getDiskHits(), getCoalesced(), getMisses());
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+
+  // --- tiers ---
+
+  private String lookup(Key key) {
+    synchronized (memory) {
+      String v = memory.get(key);
+      if (v != null) {
+        memoryHits.incrementAndGet();
+        return v;
+      }
+    }
+    Slot slot = diskIndex.get(key);
+    if (slot == null) return null;
+    if (expired(slot.created)) {
+      diskIndex.remove(key, slot);
+      return null;
+    }
+    try {
+      String v = readRecord(slot);
+      synchronized (memory) {
+        memory.put(key, v);
+      }
+      diskHits.incrementAndGet();
+      return v;
+    } catch (IOException e) {
+      LOGGER.warning("LLM cache read failed, treating as miss: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void store(Key key, String value) {
+    synchronized (memory) {
+      memory.put(key, value);
+    }
+    long created = System.currentTimeMillis();
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer rec = ByteBuffer.allocate(HEADER_BYTES + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+    key.writeTo(rec);
+    rec.putLong(created).putInt(bytes.length).put(bytes);
+    rec.flip();
+    try {
+      synchronized (this) {
+        long offset = log.size();
+        while (rec.hasRemaining()) log.write(rec, offset + rec.position());
+        diskIndex.put(key, new Slot(offset, created, bytes.length));
+      }
+    } catch (IOException e) {
+      LOGGER.warning("LLM cache write failed: " + e.getMessage());
+    }
+  }
+
+  private String readRecord(Slot slot) throws IOException {
+    ByteBuffer data = ByteBuffer.allocate(slot.length);
+    long pos = slot.offset + HEADER_BYTES;
+    while (data.hasRemaining()) {
+      if (log.read(data, pos + data.position()) < 0) throw new IOException("Truncated cache record");
+    }
+    return new String(data.array(), StandardCharsets.UTF_8);
+  }
+
+  private boolean expired(long created) {
+    return System.currentTimeMillis() - created > ttlMillis;
+  }
+
+  // Scan record headers to rebuild key -> newest live record, then compact if the log carries dead weight
+  private void loadIndex() throws IOException {
+    long size = log.size();
+    long pos = 0;
+    long liveBytes = 0;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (pos + HEADER_BYTES <= size) {
+      header.clear();
+      while (header.hasRemaining() && log.read(header, pos + header.position()) > 0) { }
+      header.flip();
+      Key key = Key.readFrom(header);
+      long created = header.getLong();
+      int length = header.getInt();
+      long end = pos + HEADER_BYTES + length;
+      if (length < 0 || end > size) break;
+      Slot old = diskIndex.remove(key);
+      if (old != null) liveBytes -= HEADER_BYTES + old.length;
+      if (!expired(created)) {
+        diskIndex.put(key, new Slot(pos, created, length));
+        liveBytes += HEADER_BYTES + length;
+      }
+      pos = end;
+    }
+    if (pos < size) {
+      LOGGER.warning("Truncating torn LLM cache tail at offset " + pos);
+      log.truncate(pos);
+    }
+    if (liveBytes > maxBytes || pos - liveBytes > liveBytes) compact();
+  }
+
+  // Rewrite the newest live records that fit in maxBytes and swap the file in atomically
+  private void compact() throws IOException {
+    List<Map.Entry<Key, Slot>> newestFirst = new ArrayList<>(diskIndex.entrySet());
+    newestFirst.sort((a, b) -> Long.compare(b.getValue().created, a.getValue().created));
+
+    Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+    Map<Key, Slot> kept = new HashMap<>();
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+      long written = 0;
+      for (Map.Entry<Key, Slot> e : newestFirst) {
+        Slot s = e.getValue();
+        long recordBytes = HEADER_BYTES + s.length;
+        if (written + recordBytes > maxBytes) continue;
+        long from = s.offset;
+        long remaining = recordBytes;
+        while (remaining > 0) {
+          long n = log.transferTo(from, remaining, out);
+          if (n <= 0) throw new IOException("Short copy while compacting LLM cache");
+          from += n;
+          remaining -= n;
+        }
+        kept.put(e.getKey(), new Slot(written, s.created, s.length));
+        written += recordBytes;
+      }
+      out.force(true);
+    }
+    log.close();
+    Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log = open(logFile);
+    diskIndex.clear();
+    diskIndex.putAll(kept);
+    LOGGER.info("Compacted LLM cache to " + kept.size() + " entries");
+  }
+
+  private static FileChannel open(Path file) throws IOException {
+    return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private static String await(CompletableFuture<String> running) throws IOException, InterruptedException {
+    try {
+      return running.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException io) throw io;
+      if (cause instanceof InterruptedException) throw new IOException("Coalesced LLM call was interrupted", cause);
+      if (cause instanceof RuntimeException re) throw re;
+      throw new IOException(cause);
+    }
+  }
+
+  private record Slot(long offset, long created, int length) { }
+
+  // 256-bit content hash as four longs
+  public record Key(long a, long b, long c, long d) {
+    static Key readFrom(ByteBuffer buf) {
+      return new Key(buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong());
+    }
+
+    void writeTo(ByteBuffer buf) {
+      buf.putLong(a).putLong(b).putLong(c).putLong(d);
+    }
+  }
+}
@@ -1,38 +1,186 @@
 package com.ok.pipeline;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
+/**
+ * Extracts text from a PDF page by page.
+ *
+ * Pages are split into ranges that worker threads extract in parallel, each with its own
+ * PDDocument and PDFTextStripper (neither is thread-safe). Pages are handed to the caller in
+ * page order as soon as their range is done, and only a bounded window of ranges is held in
+ * memory, so a long manual never exists as one String unless {@link #extract} is asked for it.
+ */
 public class PdfExtractor {
+  private static final Logger LOGGER = Logger.getLogger(PdfExtractor.class.getName());
+
+  public static final int DEFAULT_PAGES_PER_RANGE = 8;
+
+  private final Path folder;
+  private final int threads;
+  private final int pagesPerRange;
+
+  public PdfExtractor() {
+    this(Path.of("data"), Runtime.getRuntime().availableProcessors(), DEFAULT_PAGES_PER_RANGE);
+  }
+
+  public PdfExtractor(Path folder, int threads, int pagesPerRange) {
+    this.folder = folder;
+    this.threads = Math.max(1, threads);
+    this.pagesPerRange = Math.max(1, pagesPerRange);
+  }
+
+  // Text of one page (1-based number); lines trimmed, blank lines dropped, paragraphs split by "\n\n"
+  public static class Page {
+    public final int number;
+    public final String text;
+
+    public Page(int number, String text) {
+      this.number = number;
+      this.text = text;
+    }
+  }
+
   /**
    * Extracts text from a PDF while preserving paragraph breaks and headings.
    * Returns a single String where paragraphs are separated by double newlines.
    */
   public String extract(String fileName) throws IOException {
-    String folder = "data";
-    File pdfFile = new File(folder, fileName);
-    try (PDDocument document = PDDocument.load(pdfFile)) {
+    StringBuilder sb = new StringBuilder();
+    extractPages(fileName, page -> {
+      if (page.text.isEmpty()) return;
+      if (sb.length() > 0) sb.append("\n\n");
+      sb.append(page.text);
+    });
+    return sb.toString();
+  }
+
+  public List<Page> extractPages(String fileName) throws IOException {
+    List<Page> pages = new ArrayList<>();
+    extractPages(fileName, pages::add);
+    return pages;
+  }
+
+  /**
+   * Extract every page, calling onPage in page order from the calling thread.
+   */
+  public void extractPages(String fileName, Consumer<Page> onPage) throws IOException {
+    File pdfFile = folder.resolve(fileName).toFile();
+    // Worker 0 reuses the document opened here to count pages
+    PDDocument first = PDDocument.load(pdfFile, MemoryUsageSetting.setupMainMemoryOnly());
+    int pageCount = first.getNumberOfPages();
+    int ranges = (pageCount + pagesPerRange - 1) / pagesPerRange;
+    int workers = Math.min(threads, Math.max(1, ranges));
+
+    List<CompletableFuture<List<Page>>> results = new ArrayList<>(ranges);
+    for (int r = 0; r < ranges; r++) results.add(new CompletableFuture<>());
+    AtomicInteger next = new AtomicInteger();
+    // Ranges extracted ahead of the consumer are capped so memory stays bounded
+    Semaphore window = new Semaphore(workers * 2);
+
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    for (int w = 0; w < workers; w++) {
+      boolean reuse = w == 0;
+      pool.execute(() -> runWorker(reuse ? first : null, pdfFile, pageCount, results, next, window));
+    }
+    try {
+      for (int r = 0; r < ranges; r++) {
+        List<Page> pages = await(results.get(r));
+        window.release();
+        pages.forEach(onPage);
+      }
+    } finally {
+      next.set(ranges); // stop claiming ranges if the consumer bailed out
+      pool.shutdownNow();
+      try {
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Claim ranges in order until none are left, extracting each page of the range
+  private void runWorker(PDDocument doc, File pdfFile, int pageCount,
+                         List<CompletableFuture<List<Page>>> results, AtomicInteger next, Semaphore window) {
+    try {
+      if (doc == null) doc = PDDocument.load(pdfFile, MemoryUsageSetting.setupMainMemoryOnly());
+    } catch (IOException e) {
+      // The remaining workers (at least worker 0) pick up the ranges
+      LOGGER.warning("PDF worker could not open " + pdfFile + ": " + e.getMessage());
+      return;
+    }
+    try (PDDocument document = doc) {
       PDFTextStripper stripper = new PDFTextStripper();
       stripper.setLineSeparator("\n");
-      String rawText = stripper.getText(document);
-
-      // Normalize line breaks: collapse multiple blank lines into double newline
-      String normalized = rawText.replaceAll("(?m)^[ \t]*\r?\n", "\n")
-                                  .replaceAll("\n{2,}", "\n\n");
-
-      // Trim spaces on each line
-      StringBuilder sb = new StringBuilder();
-      String[] lines = normalized.split("\n");
-      for (String line : lines) {
-        String trimmed = line.trim();
-        if (!trimmed.isEmpty()) {
-          sb.append(trimmed).append("\n\n"); // double newline between paragraphs
+      while (true) {
+        window.acquire();
+        int r = next.getAndIncrement();
+        if (r >= results.size()) {
+          window.release();
+          return;
         }
+        try {
+          int start = r * pagesPerRange + 1;
+          int end = Math.min(pageCount, start + pagesPerRange - 1);
+          List<Page> pages = new ArrayList<>(end - start + 1);
+          for (int p = start; p <= end; p++) {
+            stripper.setStartPage(p);
+            stripper.setEndPage(p);
+            pages.add(new Page(p, normalize(stripper.getText(document))));
+          }
+          results.get(r).complete(pages);
+        } catch (IOException | RuntimeException e) {
+          results.get(r).completeExceptionally(e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      LOGGER.warning("Failed to close PDF worker document: " + e.getMessage());
+    }
+  }
+
+  private static List<Page> await(CompletableFuture<List<Page>> range) throws IOException {
+    try {
+      return range.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while extracting PDF", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) throw io;
+      throw new IOException("PDF extraction failed", e.getCause());
+    }
+  }
+
+  // One pass over the raw page text: trim each line, drop blank ones, separate with "\n\n"
+  static String normalize(String raw) {
+    StringBuilder sb = new StringBuilder(raw.length() + raw.length() / 8);
+    int len = raw.length();
+    int lineStart = 0;
+    while (lineStart < len) {
+      int lineEnd = raw.indexOf('\n', lineStart);
+      if (lineEnd < 0) lineEnd = len;
+      int s = lineStart;
+      int e = lineEnd;
+      while (s < e && raw.charAt(s) <= ' ') s++;
+      while (e > s && raw.charAt(e - 1) <= ' ') e--;
+      if (s < e) {
+        if (sb.length() > 0) sb.append("\n\n");
+        sb.append(raw, s, e);
       }
-      return sb.toString().trim();
+      lineStart = lineEnd + 1;
     }
+    return sb.toString();
   }
 }
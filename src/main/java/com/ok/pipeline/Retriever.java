@@ -4,17 +4,52 @@ import com.ok.embeddings.*;
 import com.ok.store.*;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.Logger;
 
 public class Retriever {
   private static final Logger LOGGER = Logger.getLogger(Retriever.class.getName());
 
+  public static final int RRF_K = 60;
+  public static final double DEFAULT_VECTOR_WEIGHT = 0.5;
+  // In HYBRID mode each leg contributes this many candidates per requested hit
+  private static final int CANDIDATES_PER_HIT = 3;
+  // Runs the lexical leg while the calling thread embeds the query and searches vectors
+  private static final ExecutorService LEGS = Executors.newVirtualThreadPerTaskExecutor();
+
   private final GraphStore store;
   private final EmbeddingModel model;
+  private final SearchMode mode;
+  private final Fusion fusion;
+  private final double vectorWeight;
+
+  // ANN uses the store's vector index; EXACT scans every chunk (kept for recall comparison);
+  // HYBRID runs the BM25 index and the ANN index concurrently and fuses the two rankings
+  public enum SearchMode { ANN, EXACT, HYBRID }
+
+  // How HYBRID combines the legs: reciprocal rank fusion, or a weighted sum of min-max
+  // normalised scores
+  public enum Fusion { RRF, WEIGHTED }
 
   public Retriever(GraphStore store, EmbeddingModel model) {
+    this(store, model, SearchMode.ANN);
+  }
+
+  public Retriever(GraphStore store, EmbeddingModel model, SearchMode mode) {
+    this(store, model, mode, Fusion.RRF, DEFAULT_VECTOR_WEIGHT);
+  }
+
+  /**
+   * @param vectorWeight share of the fused score given to the vector leg (the lexical leg gets
+   *                     the rest); only used in HYBRID mode
+   */
+  public Retriever(GraphStore store, EmbeddingModel model, SearchMode mode, Fusion fusion, double vectorWeight) {
+    if (vectorWeight < 0 || vectorWeight > 1) throw new IllegalArgumentException("vectorWeight must be in [0, 1]");
     this.store = store;
     this.model = model;
+    this.mode = mode;
+    this.fusion = fusion;
+    this.vectorWeight = vectorWeight;
   }
 
   public static class Hit {
@@ -29,45 +64,88 @@ public class Retriever {
     }
   }
 
+  /**
+   * Wall-clock time of each retrieval stage, in nanoseconds. The vector stage includes embedding
+   * the query. In HYBRID mode the lexical and vector legs overlap, so the total can be less than
+   * the sum of the stages.
+   */
+  public static class Timings {
+    public long lexicalNanos;
+    public long vectorNanos;
+    public long fusionNanos;
+    public long expansionNanos;
+    public long rerankNanos;
+    public long totalNanos;
+
+    @Override
+    public String toString() {
+      return String.format("total=%.2fms lexical=%.2fms vector=%.2fms fusion=%.2fms expansion=%.2fms rerank=%.2fms",
+          totalNanos / 1e6, lexicalNanos / 1e6, vectorNanos / 1e6, fusionNanos / 1e6,
+          expansionNanos / 1e6, rerankNanos / 1e6);
+    }
+  }
+
   public List<Hit> retrieve(String query, int k, int expandPerEntity) {
+    return retrieve(query, k, expandPerEntity, new Timings());
+  }
+
+  // As above, recording per-stage latency into timings
+  public List<Hit> retrieve(String query, int k, int expandPerEntity, Timings timings) {
+    long start = System.nanoTime();
     LOGGER.fine(() -> "Retrieving for query: \"" + query + "\"");
 
-    float[] q = model.embed(query);
-    LOGGER.fine(() -> "Query embedding length: " + q.length);
+    // Stage 1: vector similarity search (ANN index, or brute force in EXACT mode), fused with
+    // the lexical leg in HYBRID mode
+    float[] q;
+    List<Hit> base;
+    if (mode == SearchMode.HYBRID) {
+      int candidates = k * CANDIDATES_PER_HIT;
+      Future<List<GraphStore.ScoredVertex>> lexicalLeg = LEGS.submit(() -> {
+        long t = System.nanoTime();
+        try {
+          return store.lexicalChunks(query, candidates);
+        } finally {
+          timings.lexicalNanos = System.nanoTime() - t;
+        }
+      });
 
-    // Stage 1: vector similarity search
-    List<Hit> base = new ArrayList<>();
-    for (Vertex c : store.chunks()) {
-      if (!c.property("embedding").isPresent()) {
-        LOGGER.fine(() -> "Skipping chunk " + c.id() + ": no embedding");
-        continue;
+      long t = System.nanoTime();
+      q = model.embed(query);
+      List<GraphStore.ScoredVertex> vector = new ArrayList<>();
+      if (q.length > 0) {
+        for (GraphStore.ScoredVertex sv : store.nearestChunks(q, candidates, false)) {
+          if (sv.score > 0) vector.add(sv);
+        }
       }
+      timings.vectorNanos = System.nanoTime() - t;
 
-      float[] emb = (float[]) c.property("embedding").value();
-      if (emb == null || emb.length == 0) {
-        LOGGER.fine(() -> "Skipping chunk " + c.id() + ": empty embedding");
-        continue;
-      }
+      List<GraphStore.ScoredVertex> lexical = await(lexicalLeg);
+      t = System.nanoTime();
+      base = fuse(vector, lexical, k);
+      timings.fusionNanos = System.nanoTime() - t;
+      LOGGER.fine(() -> "Hybrid legs: vector=" + vector.size() + " lexical=" + lexical.size() + " fused=" + base.size());
+    } else {
+      long t = System.nanoTime();
+      q = model.embed(query);
+      LOGGER.fine(() -> "Query embedding length: " + q.length);
 
-      double sim = VectorMath.cosine(q, emb);
-      LOGGER.fine(() -> "Chunk " + c.id() + " embedding length=" + emb.length + ", similarity=" + sim);
+      base = new ArrayList<>();
+      for (GraphStore.ScoredVertex sv : store.nearestChunks(q, k, mode == SearchMode.EXACT)) {
+        Vertex c = sv.vertex;
+        double sim = sv.score;
+        LOGGER.fine(() -> "Chunk " + c.id() + " similarity=" + sim);
 
-      if (sim > 0) {
-        String cid = c.property("id").isPresent() ? c.property("id").value().toString() : c.id().toString();
-        String text = c.property("text").isPresent() ? c.property("text").value().toString() : "";
-        base.add(new Hit(cid, text, sim));
+        if (sim > 0) base.add(hitOf(c, sim));
       }
+      timings.vectorNanos = System.nanoTime() - t;
     }
 
     if (base.isEmpty()) {
+      timings.totalNanos = System.nanoTime() - start;
       LOGGER.warning("No hits found. Check embeddings and chunk content!");
       return Collections.emptyList();
     }
 
-    // Sort by score descending and limit top-k
-    base.sort((a, b) -> Double.compare(b.score, a.score));
-    if (base.size() > k) base = base.subList(0, k);
-
     LOGGER.fine("--- Retrieved hits (preview first 100 chars) ---");
     for (Hit h : base) {
       String preview = h.text.length() > 100 ? h.text.substring(0, 100) + "..." : h.text;
@@ -75,13 +153,12 @@ public class Retriever {
     }
 
     // Stage 2: expand via entities
+    long t = System.nanoTime();
     Map<String, Hit> merged = new LinkedHashMap<>();
     for (Hit h : base) merged.put(h.chunkId, h);
 
     for (Hit h : base) {
-      Vertex chunkV = store.chunks().stream()
-          .filter(v -> v.property("id").isPresent() && v.property("id").value().toString().equals(h.chunkId))
-          .findFirst().orElse(null);
+      Vertex chunkV = store.chunkById(h.chunkId);
       if (chunkV == null) continue;
 
       List<Vertex> ents = store.entitiesMentionedIn(chunkV);
@@ -99,18 +176,24 @@ public class Retriever {
         }
       }
     }
+    timings.expansionNanos = System.nanoTime() - t;
+
+    // Rerank: stage-1 hits reuse their stage-1 score, only expanded chunks are scored here.
+    // In HYBRID mode that score is the fused one, which expanded chunks do not have, so they
+    // fill the slots after the fused hits.
+    t = System.nanoTime();
+    Map<String, Double> baseScores = new HashMap<>();
+    for (Hit h : base) baseScores.put(h.chunkId, h.score);
 
-    // Rerank
     List<Hit> reranked = new ArrayList<>();
     for (Hit h : merged.values()) {
+      Double cached = baseScores.get(h.chunkId);
       double vecScore = 0.0;
-      Vertex chunkV = store.chunks().stream()
-          .filter(v -> v.property("id").isPresent() && v.property("id").value().toString().equals(h.chunkId))
-          .findFirst().orElse(null);
-
-      if (chunkV != null && chunkV.property("embedding").isPresent()) {
-        float[] emb2 = (float[]) chunkV.property("embedding").value();
-        vecScore = VectorMath.cosine(q, emb2);
+      if (cached != null) {
+        vecScore = cached;
+      } else if (mode != SearchMode.HYBRID) {
+        float[] emb2 = store.chunkEmbedding(h.chunkId);
+        if (emb2 != null) vecScore = VectorMath.cosine(q, emb2);
       }
 
       double finalScore = 0.85 * vecScore + 0.15 * h.score;
@@ -119,7 +202,67 @@ public class Retriever {
     }
 
     reranked.sort((a, b) -> Double.compare(b.score, a.score));
+    timings.rerankNanos = System.nanoTime() - t;
+    timings.totalNanos = System.nanoTime() - start;
+    LOGGER.fine(() -> "Retrieval timings: " + timings);
 
     return reranked.size() > (k * 2) ? reranked.subList(0, k * 2) : reranked;
   }
+
+  // Wait for the lexical leg; if it failed, carry on with the vector leg alone
+  private static List<GraphStore.ScoredVertex> await(Future<List<GraphStore.ScoredVertex>> leg) {
+    try {
+      return leg.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return List.of();
+    } catch (ExecutionException e) {
+      LOGGER.warning("Lexical search failed, using vector results only: " + e.getCause());
+      return List.of();
+    }
+  }
+
+  // Combine the two ranked legs into at most k hits with scores in [0, 1]
+  private List<Hit> fuse(List<GraphStore.ScoredVertex> vector, List<GraphStore.ScoredVertex> lexical, int k) {
+    Map<String, Hit> hits = new HashMap<>();
+    Map<String, Double> fused = new HashMap<>();
+    accumulate(vector, vectorWeight, hits, fused);
+    accumulate(lexical, 1 - vectorWeight, hits, fused);
+
+    List<Map.Entry<String, Double>> ranked = new ArrayList<>(fused.entrySet());
+    ranked.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+    List<Hit> out = new ArrayList<>(Math.min(k, ranked.size()));
+    for (Map.Entry<String, Double> e : ranked) {
+      if (out.size() == k) break;
+      Hit h = hits.get(e.getKey());
+      out.add(new Hit(h.chunkId, h.text, e.getValue()));
+    }
+    return out;
+  }
+
+  private void accumulate(List<GraphStore.ScoredVertex> leg, double weight,
+                          Map<String, Hit> hits, Map<String, Double> fused) {
+    if (leg.isEmpty()) return;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (GraphStore.ScoredVertex sv : leg) {
+      min = Math.min(min, sv.score);
+      max = Math.max(max, sv.score);
+    }
+    for (int rank = 0; rank < leg.size(); rank++) {
+      GraphStore.ScoredVertex sv = leg.get(rank);
+      Hit h = hitOf(sv.vertex, 0);
+      hits.putIfAbsent(h.chunkId, h);
+      double s = fusion == Fusion.RRF
+          ? (RRF_K + 1.0) / (RRF_K + rank + 1) // scaled so rank 1 scores 1
+          : max > min ? (sv.score - min) / (max - min) : 1.0;
+      fused.merge(h.chunkId, weight * s, Double::sum);
+    }
+  }
+
+  private static Hit hitOf(Vertex c, double score) {
+    String cid = c.property("id").isPresent() ? c.property("id").value().toString() : c.id().toString();
+    String text = c.property("text").isPresent() ? c.property("text").value().toString() : "";
+    return new Hit(cid, text, score);
+  }
 }
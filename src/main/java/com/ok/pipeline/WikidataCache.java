@@ -0,0 +1,146 @@
+package com.ok.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Persistent label -> Wikidata item cache for {@link WikidataMatcher}. Labels without an item are
+ * cached too (negative entries), so they aren't queried again on every run; they expire sooner
+ * than matches because items and labels keep being added to Wikidata.
+ *
+ * Stored as an append-only TSV log, newest line per label wins:
+ * <pre>created millis \t label \t QID or - \t item label \t type</pre>
+ * On open, expired and superseded lines are dropped and the log is rewritten if they dominate.
+ */
+public class WikidataCache implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(WikidataCache.class.getName());
+  private static final String MISS = "-";
+
+  public static final Duration DEFAULT_TTL = Duration.ofDays(90);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofDays(7);
+
+  private final long ttlMillis;
+  private final long negativeTtlMillis;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final BufferedWriter log;
+
+  // match == null records a miss
+  private record Entry(long created, WikidataMatcher.Match match) { }
+
+  public WikidataCache(Path file) throws IOException {
+    this(file, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+  }
+
+  public WikidataCache(Path file, Duration ttl, Duration negativeTtl) throws IOException {
+    this.ttlMillis = ttl.toMillis();
+    this.negativeTtlMillis = negativeTtl.toMillis();
+    if (file.getParent() != null) Files.createDirectories(file.getParent());
+
+    int lines = 0;
+    if (Files.exists(file)) {
+      try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          lines++;
+          String[] f = line.split("\t", -1);
+          if (f.length != 5) continue; // torn tail
+          long created;
+          try {
+            created = Long.parseLong(f[0]);
+          } catch (NumberFormatException e) {
+            continue;
+          }
+          Entry entry = new Entry(created, MISS.equals(f[2]) ? null : new WikidataMatcher.Match(f[2], f[3], f[4], List.of()));
+          if (expired(entry)) entries.remove(f[1]);
+          else entries.put(f[1], entry);
+        }
+      }
+    }
+    if (lines > 2 * entries.size() + 100) rewrite(file);
+    this.log = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+  }
+
+  /**
+   * The cached item for label: a present Optional for a match, an empty one for a cached miss,
+   * or null if the label hasn't been looked up (or its entry expired).
+   */
+  public Optional<WikidataMatcher.Match> lookup(String label) {
+    String key = clean(label);
+    Entry entry = entries.get(key);
+    if (entry == null) return null;
+    if (expired(entry)) {
+      entries.remove(key, entry);
+      return null;
+    }
+    return Optional.ofNullable(entry.match);
+  }
+
+  // Record the item for label, or a miss when match is null
+  public synchronized void put(String label, WikidataMatcher.Match match) {
+    // Keyed by the label as logged, so the entry is found under the same key after a reload
+    String key = clean(label);
+    Entry entry = new Entry(System.currentTimeMillis(), match);
+    entries.put(key, entry);
+    try {
+      log.write(format(key, entry));
+      log.newLine();
+    } catch (IOException e) {
+      LOGGER.warning("Wikidata cache write failed: " + e.getMessage());
+    }
+  }
+
+  // Make recent puts durable; called after each batch of lookups
+  public synchronized void flush() {
+    try {
+      log.flush();
+    } catch (IOException e) {
+      LOGGER.warning("Wikidata cache flush failed: " + e.getMessage());
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    log.close();
+  }
+
+  private boolean expired(Entry entry) {
+    long age = System.currentTimeMillis() - entry.created;
+    return age > (entry.match == null ? negativeTtlMillis : ttlMillis);
+  }
+
+  private void rewrite(Path file) throws IOException {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        out.write(format(e.getKey(), e.getValue()));
+        out.newLine();
+      }
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOGGER.info("Compacted Wikidata cache to " + entries.size() + " entries");
+  }
+
+  private static String format(String label, Entry entry) {
+    WikidataMatcher.Match m = entry.match;
+    return entry.created + "\t" + clean(label) + "\t"
+        + (m == null ? MISS + "\t\t" : clean(m.getId()) + "\t" + clean(m.getLabel()) + "\t" + clean(m.getType()));
+  }
+
+  // Tabs and line breaks would break the TSV framing
+  private static String clean(String s) {
+    return s == null ? "" : s.replaceAll("[\\t\\r\\n]+", " ");
+  }
+}
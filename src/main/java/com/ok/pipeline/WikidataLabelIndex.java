@@ -0,0 +1,133 @@
+package com.ok.pipeline;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Offline label -> Wikidata item index, so {@link WikidataMatcher} can link entities without
+ * network calls. Built once from a subset of a Wikidata JSON dump (entities filtered to the
+ * domain, e.g. with wdumper) and saved as TSV:
+ * <pre>normalised label \t QID \t label \t type</pre>
+ *
+ * English labels and aliases are indexed under {@link #key}, which ignores case, Unicode form and
+ * extra whitespace. When several items share a key, an item's own label beats an alias, then the
+ * item with the most sitelinks wins. Types are the English label of the first P31 (instance of)
+ * value if that item is in the subset too, else "Thing".
+ */
+public class WikidataLabelIndex {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final Pattern SPACES = Pattern.compile("\\s+");
+
+  private final Map<String, WikidataMatcher.Match> byKey;
+
+  private WikidataLabelIndex(Map<String, WikidataMatcher.Match> byKey) {
+    this.byKey = byKey;
+  }
+
+  public static String key(String label) {
+    String s = Normalizer.normalize(label, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    return SPACES.matcher(s).replaceAll(" ").trim();
+  }
+
+  public static WikidataLabelIndex load(Path tsv) throws IOException {
+    Map<String, WikidataMatcher.Match> byKey = new HashMap<>();
+    try (BufferedReader in = Files.newBufferedReader(tsv, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] f = line.split("\t", -1);
+        if (f.length == 4) byKey.put(f[0], new WikidataMatcher.Match(f[1], f[2], f[3], List.of()));
+      }
+    }
+    return new WikidataLabelIndex(byKey);
+  }
+
+  /**
+   * Index a dump and write it to out. The dump is Wikidata's JSON format (one array of entities,
+   * or one entity per line), optionally gzipped; it is streamed, one entity at a time.
+   */
+  public static WikidataLabelIndex build(Path dump, Path out) throws IOException {
+    Map<String, Candidate> best = new HashMap<>();
+    Map<String, String> labels = new HashMap<>(); // QID -> English label, to name types
+    try (InputStream raw = Files.newInputStream(dump);
+         InputStream in = dump.toString().endsWith(".gz") ? new GZIPInputStream(raw, 1 << 16) : raw;
+         MappingIterator<JsonNode> it = MAPPER.readerFor(JsonNode.class).readValues(in)) {
+      while (it.hasNextValue()) {
+        JsonNode entity = it.nextValue();
+        String id = entity.path("id").asText("");
+        String label = entity.path("labels").path("en").path("value").asText("");
+        if (id.isEmpty() || label.isEmpty()) continue;
+        labels.put(id, label);
+
+        int sitelinks = entity.path("sitelinks").size();
+        String typeId = entity.path("claims").path("P31").path(0).path("mainsnak").path("datavalue")
+            .path("value").path("id").asText("");
+        offer(best, key(label), new Candidate(id, label, typeId, true, sitelinks));
+        for (JsonNode alias : entity.path("aliases").path("en")) {
+          String a = alias.path("value").asText("");
+          if (!a.isEmpty()) offer(best, key(a), new Candidate(id, label, typeId, false, sitelinks));
+        }
+      }
+    }
+
+    Map<String, WikidataMatcher.Match> byKey = new HashMap<>(best.size() * 2);
+    try (BufferedWriter w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Candidate> e : best.entrySet()) {
+        Candidate c = e.getValue();
+        String type = labels.getOrDefault(c.typeId, "Thing");
+        WikidataMatcher.Match m = new WikidataMatcher.Match(c.id, c.label, type, List.of());
+        byKey.put(e.getKey(), m);
+        w.write(clean(e.getKey()) + "\t" + c.id + "\t" + clean(c.label) + "\t" + clean(type));
+        w.newLine();
+      }
+    }
+    return new WikidataLabelIndex(byKey);
+  }
+
+  // The item for label, or null
+  public WikidataMatcher.Match lookup(String label) {
+    return byKey.get(key(label));
+  }
+
+  public int size() {
+    return byKey.size();
+  }
+
+  private record Candidate(String id, String label, String typeId, boolean ownLabel, int sitelinks) {
+    boolean beats(Candidate o) {
+      if (ownLabel != o.ownLabel) return ownLabel;
+      return sitelinks > o.sitelinks;
+    }
+  }
+
+  private static void offer(Map<String, Candidate> best, String key, Candidate c) {
+    if (key.isEmpty()) return;
+    best.merge(key, c, (old, neu) -> neu.beats(old) ? neu : old);
+  }
+
+  private static String clean(String s) {
+    return s.replaceAll("[\\t\\r\\n]+", " ");
+  }
+
+  /** Usage: WikidataLabelIndex &lt;dump.json[.gz]&gt; &lt;index.tsv&gt; */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: WikidataLabelIndex <dump.json[.gz]> <index.tsv>");
+      System.exit(2);
+    }
+    WikidataLabelIndex index = build(Path.of(args[0]), Path.of(args[1]));
+    System.out.println("Indexed " + index.size() + " labels into " + args[1]);
+  }
+}
@@ -1,14 +1,63 @@
 package com.ok.pipeline;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import com.fasterxml.jackson.databind.*;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
 
+/**
+ * Links entity names to Wikidata items.
+ *
+ * {@link #link} resolves many labels at once: first from an offline {@link WikidataLabelIndex}
+ * and a persistent {@link WikidataCache} (which also remembers misses), then the rest with
+ * SPARQL queries that match up to BATCH_SIZE labels each through a VALUES block. Queries run
+ * concurrently within the endpoint's connection limit and are paced to a request rate. An
+ * offline matcher never touches the network.
+ */
 public class WikidataMatcher {
+  private static final Logger LOGGER = Logger.getLogger(WikidataMatcher.class.getName());
   private static final String SPARQL_ENDPOINT = "https://query.wikidata.org/sparql";
   private static final ObjectMapper MAPPER = new ObjectMapper();
-  private final HttpClient http = HttpClient.newHttpClient();
+  private static final Pattern QID = Pattern.compile("Q\\d+");
+  // Labels per VALUES query; keeps each query well inside the service's 60 s limit
+  static final int BATCH_SIZE = 50;
+  // Longer names are extraction noise, not labels
+  private static final int MAX_LABEL_LENGTH = 200;
+
+  private static final String USER_AGENT;
+  private static final double REQUESTS_PER_SECOND;
+
+  static {
+    Properties props = new Properties();
+    // Wikimedia asks automated clients for a descriptive User-Agent with contact details
+    String userAgent = "graphrag/1.0 (entity linking; Java HttpClient)";
+    double rps = 5.0;
+    try (InputStream in = new FileInputStream("config.properties")) {
+      props.load(in);
+      userAgent = props.getProperty("WIKIDATA_USER_AGENT", userAgent);
+      rps = Double.parseDouble(props.getProperty("WIKIDATA_RPS", String.valueOf(rps)));
+    } catch (IOException | IllegalArgumentException e) {
+      LOGGER.warning("Failed to load config.properties, using defaults: " + e.getMessage());
+    }
+    USER_AGENT = userAgent;
+    REQUESTS_PER_SECOND = rps;
+  }
+
+  private final ResilientHttp http; // null when offline
+  private final String endpoint;
+  private final Pacer pacer;
+  private WikidataCache cache;
+  private WikidataLabelIndex index;
 
   public static class Match {
     private final String id;    // Qxxx
@@ -26,7 +75,7 @@ public class WikidataMatcher {
   }
 
   public static class Relation {
-    public final String relationType;  
+    public final String relationType;
     public final String targetId;
     public final String targetLabel;
     public final String targetType;
@@ -39,64 +88,217 @@ public class WikidataMatcher {
     }
   }
 
+  public WikidataMatcher() {
+    this(ResilientHttp.of(HttpTransport.Endpoint.WIKIDATA), SPARQL_ENDPOINT, REQUESTS_PER_SECOND);
+  }
+
+  /**
+   * @param endpoint          SPARQL endpoint URL, e.g. a mirror or a stub in tests
+   * @param requestsPerSecond pace of queries across all threads
+   */
+  public WikidataMatcher(ResilientHttp http, String endpoint, double requestsPerSecond) {
+    this.http = http;
+    this.endpoint = endpoint;
+    this.pacer = new Pacer(requestsPerSecond);
+  }
+
+  // A matcher that only answers from the index (and the cache, if one is added)
+  public static WikidataMatcher offline(WikidataLabelIndex index) {
+    return new WikidataMatcher(null, null, 1).withLabelIndex(index);
+  }
+
+  public WikidataMatcher withCache(WikidataCache cache) {
+    this.cache = cache;
+    return this;
+  }
+
+  // Consulted before the cache and the network; null for none
+  public WikidataMatcher withLabelIndex(WikidataLabelIndex index) {
+    this.index = index;
+    return this;
+  }
+
+  /**
+   * Items for the given labels, keyed by label; labels without a match are absent. Never throws:
+   * a failed query leaves its labels unmatched (and uncached, so a later run tries again).
+   */
+  public Map<String, Match> link(Collection<String> labels) {
+    Map<String, Match> out = new ConcurrentHashMap<>();
+    List<String> pending = new ArrayList<>();
+    int indexed = 0;
+    int cached = 0;
+    for (String label : new LinkedHashSet<>(labels)) {
+      if (label == null || label.isBlank() || label.length() > MAX_LABEL_LENGTH) continue;
+      Match m = index != null ? index.lookup(label) : null;
+      if (m != null) {
+        out.put(label, m);
+        indexed++;
+        continue;
+      }
+      Optional<Match> hit = cache != null ? cache.lookup(label) : null;
+      if (hit != null) {
+        hit.ifPresent(found -> out.put(label, found));
+        cached++;
+        continue;
+      }
+      if (http != null) pending.add(label);
+    }
+
+    if (!pending.isEmpty()) {
+      try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < pending.size(); start += BATCH_SIZE) {
+          List<String> batch = pending.subList(start, Math.min(start + BATCH_SIZE, pending.size()));
+          futures.add(pool.submit(() -> {
+            try {
+              pacer.acquire();
+              Map<String, Match> found = query(batch);
+              out.putAll(found);
+              if (cache != null) {
+                for (String label : batch) cache.put(label, found.get(label));
+                cache.flush();
+              }
+            } catch (IOException e) {
+              LOGGER.warning("Wikidata lookup failed for " + batch.size() + " labels: " + e.getMessage());
+            }
+            return null;
+          }));
+        }
+        for (Future<?> f : futures) f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        LOGGER.warning("Wikidata lookup failed: " + e.getCause());
+      }
+    }
+    LOGGER.fine("Wikidata linked " + out.size() + " of " + labels.size() + " labels (" + indexed + " indexed, "
+        + cached + " cached, " + pending.size() + " queried)");
+    return out;
+  }
+
+  /**
+   * The item for one term with up to 20 of its statements; a LOCAL: placeholder when there is
+   * none or Wikidata can't be reached.
+   */
   public Match match(String term) {
+    Match link = link(List.of(term)).get(term);
+    if (link == null) return new Match("LOCAL:" + term, term, "Thing", List.of());
+    if (http == null || !QID.matcher(link.getId()).matches()) return link;
     try {
       String sparql = String.format("""
-        SELECT ?item ?itemLabel ?typeLabel ?rel ?relLabel ?target ?targetLabel ?targetTypeLabel
+        SELECT ?relLabel ?target ?targetLabel ?targetTypeLabel
         WHERE {
-          ?item rdfs:label "%s"@en.
-          OPTIONAL { ?item wdt:P31 ?type. ?type rdfs:label ?typeLabel FILTER(LANG(?typeLabel)="en") }
-          OPTIONAL { ?item ?rel ?target.
-               ?rel rdfs:label ?relLabel FILTER(LANG(?relLabel)="en").
-               ?target rdfs:label ?targetLabel FILTER(LANG(?targetLabel)="en").
-               OPTIONAL { ?target wdt:P31 ?targetType. ?targetType rdfs:label ?targetTypeLabel FILTER(LANG(?targetTypeLabel)="en") }
-               }
+          wd:%s ?p ?target.
+          ?rel wikibase:directClaim ?p.
+          ?target rdfs:label ?targetLabel FILTER(LANG(?targetLabel)="en")
+          OPTIONAL { ?target wdt:P31 ?targetType. }
           SERVICE wikibase:label { bd:serviceParam wikibase:language "en". }
         }
         LIMIT 20
-      """, term);
-
-      HttpRequest req = HttpRequest.newBuilder()
-          .uri(URI.create(SPARQL_ENDPOINT + "?query=" + java.net.URLEncoder.encode(sparql, "UTF-8")))
-          .header("Accept", "application/sparql-results+json")
-          .GET()
-          .build();
+      """, link.getId());
 
-      HttpResponse<String> res = http.send(req, HttpResponse.BodyHandlers.ofString());
-      if (res.statusCode() != 200) {
-        return new Match("LOCAL:" + term, term, "Thing", List.of());
-      }
-
-      JsonNode root = MAPPER.readTree(res.body()).path("results").path("bindings");
-      if (!root.isArray() || root.isEmpty()) {
-        return new Match("LOCAL:" + term, term, "Thing", List.of());
+      List<Relation> rels = new ArrayList<>();
+      for (JsonNode node : select(sparql)) {
+        String relLabel = node.path("relLabel").path("value").asText();
+        String targetId = extractId(node.path("target").path("value").asText());
+        String targetLabel = node.path("targetLabel").path("value").asText();
+        String targetType = node.has("targetTypeLabel") ? node.path("targetTypeLabel").path("value").asText("Thing") : "Thing";
+        rels.add(new Relation(relLabel, targetId, targetLabel, targetType));
       }
+      return new Match(link.getId(), link.getLabel(), link.getType(), rels);
 
-      JsonNode first = root.get(0);
-      String id = extractId(first.path("item").path("value").asText());
-      String label = first.path("itemLabel").path("value").asText(term);
-      String type = first.has("typeLabel") ? first.path("typeLabel").path("value").asText("Thing") : "Thing";
+    } catch (Exception e) {
+      return link;
+    }
+  }
 
-      List<Relation> rels = new ArrayList<>();
-      for (JsonNode node : root) {
-        if (node.has("relLabel") && node.has("target")) {
-          String relLabel = node.path("relLabel").path("value").asText();
-          String targetId = extractId(node.path("target").path("value").asText());
-          String targetLabel = node.path("targetLabel").path("value").asText();
-          String targetType = node.has("targetTypeLabel") ? node.path("targetTypeLabel").path("value").asText("Thing") : "Thing";
-          rels.add(new Relation(relLabel, targetId, targetLabel, targetType));
+  // One VALUES query for a batch of exact English labels; the item with the most sitelinks wins
+  private Map<String, Match> query(List<String> labels) throws IOException, InterruptedException {
+    StringBuilder values = new StringBuilder();
+    for (String label : labels) values.append(' ').append(literal(label)).append("@en");
+    String sparql = """
+        SELECT ?label ?item ?links ?typeLabel
+        WHERE {
+          VALUES ?label {%s }
+          ?item rdfs:label ?label.
+          OPTIONAL { ?item wikibase:sitelinks ?links. }
+          OPTIONAL { ?item wdt:P31 ?type. ?type rdfs:label ?typeLabel FILTER(LANG(?typeLabel)="en") }
         }
-      }
+        """.formatted(values);
 
-      return new Match(id, label, type, rels);
+    Map<String, Match> best = new HashMap<>();
+    Map<String, Integer> bestLinks = new HashMap<>();
+    for (JsonNode row : select(sparql)) {
+      String label = row.path("label").path("value").asText();
+      String id = extractId(row.path("item").path("value").asText());
+      int links = row.path("links").path("value").asInt(0);
+      Integer current = bestLinks.get(label);
+      // Items repeat once per P31 value; keep the first type of the best-linked item
+      if (current != null && links <= current) continue;
+      bestLinks.put(label, links);
+      String type = row.has("typeLabel") ? row.path("typeLabel").path("value").asText("Thing") : "Thing";
+      best.put(label, new Match(id, label, type, List.of()));
+    }
+    return best;
+  }
 
-    } catch (Exception e) {
-      return new Match("LOCAL:" + term, term, "Thing", List.of());
+  private JsonNode select(String sparql) throws IOException, InterruptedException {
+    byte[] form = ("query=" + URLEncoder.encode(sparql, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+    HttpRequest req = http.transport().post(URI.create(endpoint), form)
+        .header("Content-Type", "application/x-www-form-urlencoded")
+        .header("Accept", "application/sparql-results+json")
+        .header("User-Agent", USER_AGENT)
+        .build();
+
+    HttpResponse<String> res = http.send(req, HttpResponse.BodyHandlers.ofString());
+    if (res.statusCode() != 200) {
+      throw new IOException("Wikidata returned " + res.statusCode());
+    }
+    JsonNode bindings = MAPPER.readTree(res.body()).path("results").path("bindings");
+    return bindings.isArray() ? bindings : MAPPER.createArrayNode();
+  }
+
+  // A SPARQL string literal
+  static String literal(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"' -> sb.append("\\\"");
+        case '\\' -> sb.append("\\\\");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        default -> sb.append(c);
+      }
     }
+    return sb.append('"').toString();
   }
 
   private String extractId(String uri) {
     int idx = uri.lastIndexOf('/');
     return (idx >= 0) ? uri.substring(idx + 1) : uri;
   }
+
+  // Spaces requests evenly at a fixed rate across threads
+  private static final class Pacer {
+    private final long intervalNanos;
+    private long next;
+
+    Pacer(double perSecond) {
+      this.intervalNanos = perSecond > 0 ? (long) (1e9 / perSecond) : 0;
+      this.next = System.nanoTime();
+    }
+
+    void acquire() throws InterruptedException {
+      long wait;
+      synchronized (this) {
+        long now = System.nanoTime();
+        long slot = next - now > 0 ? next : now;
+        next = slot + intervalNanos;
+        wait = slot - now;
+      }
+      if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
 }
@@ -0,0 +1,260 @@
+package com.ok.store;
+
+import com.ok.embeddings.TopK;
+import com.ok.util.TermDictionary;
+import com.ok.util.TextUtils;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over chunk text with BM25 scoring and MaxScore dynamic pruning.
+ *
+ * Postings are primitive arrays of (doc ordinal, term frequency) in ordinal order. A query
+ * walks only the postings of "essential" terms, those whose summed upper bounds can still beat
+ * the current k-th best score. The other terms are probed by skipping (galloping search), and
+ * only for documents that can still make the top k. So a query never scores every document
+ * that contains a common term.
+ *
+ * Re-adding an id replaces the old document; removed documents are tombstoned.
+ */
+public class Bm25Index {
+  public static final double DEFAULT_K1 = 1.2;
+  public static final double DEFAULT_B = 0.75;
+  private static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+  private final double k1;
+  private final double b;
+  private final TermDictionary terms = new TermDictionary();
+  private Postings[] postings = new Postings[64];
+
+  private String[] docIds = new String[64];
+  private int[] docLengths = new int[64];
+  private int docs;
+  private final BitSet deleted = new BitSet();
+  private final Map<String, Integer> ordinalOf = new HashMap<>();
+  private long totalLength;
+  private int liveDocs;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  public Bm25Index() {
+    this(DEFAULT_K1, DEFAULT_B);
+  }
+
+  public Bm25Index(double k1, double b) {
+    this.k1 = k1;
+    this.b = b;
+  }
+
+  // Growable postings list for one term
+  private static final class Postings {
+    int[] docs = new int[4];
+    int[] freqs = new int[4];
+    int size;
+    int maxFreq;
+    int minDocLength = Integer.MAX_VALUE;
+    int df; // includes tombstoned docs, like Lucene before a merge; bounds stay conservative
+
+    void add(int doc, int freq, int docLength) {
+      if (size == docs.length) {
+        docs = Arrays.copyOf(docs, size * 2);
+        freqs = Arrays.copyOf(freqs, size * 2);
+      }
+      docs[size] = doc;
+      freqs[size++] = freq;
+      maxFreq = Math.max(maxFreq, freq);
+      minDocLength = Math.min(minDocLength, docLength);
+      df++;
+    }
+  }
+
+  public void add(String id, String text) {
+    List<String> tokens = TextUtils.terms(text);
+    int[] ids = new int[tokens.size()];
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < ids.length; i++) ids[i] = terms.getOrAdd(tokens.get(i));
+      Arrays.sort(ids);
+
+      Integer old = ordinalOf.get(id);
+      if (old != null) tombstone(old);
+
+      int doc = docs++;
+      if (doc == docIds.length) {
+        docIds = Arrays.copyOf(docIds, doc * 2);
+        docLengths = Arrays.copyOf(docLengths, doc * 2);
+      }
+      docIds[doc] = id;
+      docLengths[doc] = ids.length;
+      ordinalOf.put(id, doc);
+      totalLength += ids.length;
+      liveDocs++;
+
+      // Sorted ids: each run is one term and its frequency
+      for (int i = 0; i < ids.length; ) {
+        int j = i;
+        while (j < ids.length && ids[j] == ids[i]) j++;
+        postingsFor(ids[i]).add(doc, j - i, ids.length);
+        i = j;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public boolean remove(String id) {
+    lock.writeLock().lock();
+    try {
+      Integer doc = ordinalOf.remove(id);
+      if (doc == null) return false;
+      tombstone(doc);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return liveDocs;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void tombstone(int doc) {
+    if (deleted.get(doc)) return;
+    deleted.set(doc);
+    ordinalOf.remove(docIds[doc], doc);
+    totalLength -= docLengths[doc];
+    liveDocs--;
+  }
+
+  private Postings postingsFor(int termId) {
+    if (termId >= postings.length) postings = Arrays.copyOf(postings, Math.max(termId + 1, postings.length * 2));
+    Postings p = postings[termId];
+    if (p == null) postings[termId] = p = new Postings();
+    return p;
+  }
+
+  /**
+   * Top-k documents by BM25 for the query terms, best first.
+   */
+  public List<VectorIndex.Result> search(String query, int k) {
+    if (k <= 0) return List.of();
+    lock.readLock().lock();
+    try {
+      if (liveDocs == 0) return List.of();
+      double avgLength = Math.max(1.0, totalLength / (double) liveDocs);
+
+      // One cursor per distinct query term that occurs in the index
+      List<Cursor> list = new ArrayList<>();
+      Set<Integer> seen = new HashSet<>();
+      for (String t : TextUtils.terms(query)) {
+        int id = terms.id(t);
+        if (id < 0 || !seen.add(id) || id >= postings.length || postings[id] == null) continue;
+        list.add(new Cursor(postings[id], idf(postings[id].df), avgLength));
+      }
+      if (list.isEmpty()) return List.of();
+
+      // Ascending upper bound; prefix[i] = sum of bounds of cursors 0..i
+      list.sort(Comparator.comparingDouble(c -> c.upperBound));
+      Cursor[] cursors = list.toArray(new Cursor[0]);
+      int n = cursors.length;
+      float[] prefix = new float[n];
+      float acc = 0f;
+      for (int i = 0; i < n; i++) prefix[i] = acc += cursors[i].upperBound;
+
+      TopK top = new TopK(k);
+      int firstEssential = 0;
+      while (firstEssential < n) {
+        int doc = NO_MORE_DOCS;
+        for (int i = firstEssential; i < n; i++) doc = Math.min(doc, cursors[i].doc());
+        if (doc == NO_MORE_DOCS) break;
+
+        float score = 0f;
+        for (int i = firstEssential; i < n; i++) {
+          if (cursors[i].doc() == doc) {
+            score += cursors[i].score();
+            cursors[i].next();
+          }
+        }
+        // Non-essential terms, highest bound first, while the doc can still enter the top k
+        for (int i = firstEssential - 1; i >= 0; i--) {
+          if (score + prefix[i] <= top.threshold()) break;
+          if (cursors[i].advance(doc) == doc) score += cursors[i].score();
+        }
+        if (deleted.get(doc)) continue;
+
+        top.offer(doc, score);
+        float threshold = top.threshold();
+        while (firstEssential < n && prefix[firstEssential] <= threshold) firstEssential++;
+      }
+
+      top.sortDescending();
+      List<VectorIndex.Result> out = new ArrayList<>(top.size());
+      for (int i = 0; i < top.size(); i++) out.add(new VectorIndex.Result(docIds[top.id(i)], top.score(i)));
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private float idf(int df) {
+    int n = Math.max(liveDocs, df); // tombstones can leave df above the live count
+    return (float) Math.log(1.0 + (n - df + 0.5) / (df + 0.5));
+  }
+
+  // Iterator over one postings list that scores the current document
+  private final class Cursor {
+    final Postings p;
+    final float idf;
+    final double avgLength;
+    final float upperBound;
+    int pos;
+
+    Cursor(Postings p, float idf, double avgLength) {
+      this.p = p;
+      this.idf = idf;
+      this.avgLength = avgLength;
+      // BM25 grows with tf and shrinks with length, so (max tf, min length) bounds every doc
+      this.upperBound = bm25(p.maxFreq, p.minDocLength);
+    }
+
+    int doc() {
+      return pos < p.size ? p.docs[pos] : NO_MORE_DOCS;
+    }
+
+    void next() {
+      pos++;
+    }
+
+    float score() {
+      return bm25(p.freqs[pos], docLengths[p.docs[pos]]);
+    }
+
+    // Move to the first posting >= target: gallop, then binary search the last step
+    int advance(int target) {
+      if (doc() >= target) return doc();
+      int step = 1;
+      int lo = pos;
+      int hi = pos + 1;
+      while (hi < p.size && p.docs[hi] < target) {
+        lo = hi;
+        step <<= 1;
+        hi = Math.min(p.size, hi + step);
+      }
+      int idx = Arrays.binarySearch(p.docs, lo, Math.min(hi + 1, p.size), target);
+      pos = idx >= 0 ? idx : -idx - 1;
+      return doc();
+    }
+
+    float bm25(int tf, int docLength) {
+      double norm = k1 * (1 - b + b * docLength / avgLength);
+      return (float) (idf * tf * (k1 + 1) / (tf + norm));
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.ok.store;
+
+import java.util.List;
+
+/**
+ * Exact VectorIndex: scores the query against every live row of the matrix.
+ * Used as the recall reference for approximate indexes.
+ */
+public class BruteForceVectorIndex implements VectorIndex {
+  private final EmbeddingMatrix matrix;
+
+  public BruteForceVectorIndex(EmbeddingMatrix matrix) {
+    this.matrix = matrix;
+  }
+
+  @Override
+  public void add(int row) {
+    // Nothing to build: every search is a full scan
+  }
+
+  @Override
+  public List<Result> search(float[] query, int k) {
+    return matrix.topK(query, k);
+  }
+}
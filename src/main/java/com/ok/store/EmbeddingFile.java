@@ -0,0 +1,176 @@
+package com.ok.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Versioned binary file format for an {@link EmbeddingMatrix}.
+ *
+ * <pre>
+ * header (64 bytes, little-endian)
+ *   magic    4  "GEMB"
+ *   version  4  = 1
+ *   dtype    4  0 = float32
+ *   dims     4
+ *   count    4  number of rows
+ *   flags    4  bit 0: rows are L2-normalised
+ *   idsOff   8  offset of the id table
+ *   idsLen   8  byte length of the id table
+ *   dataOff  8  offset of the float block (64-byte aligned)
+ *   crc      8  CRC32C over id table + float block
+ *   reserved 4
+ * id table   count x (int32 length, UTF-8 bytes)
+ * float block count x dims little-endian float32, row-major
+ * </pre>
+ *
+ * Loading maps the float block with {@link FileChannel#map} and hands the slices straight to the
+ * matrix, so no vector is copied or boxed; only the id table is decoded onto the heap.
+ */
+public final class EmbeddingFile {
+  private static final int MAGIC = 0x424D4547; // "GEMB" read little-endian
+  public static final int VERSION = 1;
+  private static final int DTYPE_FLOAT32 = 0;
+  private static final int FLAG_NORMALISED = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int DATA_ALIGNMENT = 64;
+
+  private EmbeddingFile() {}
+
+  // True if the file starts with the binary magic (used to tell it apart from legacy JSON)
+  public static boolean isEmbeddingFile(Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      return ch.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+    }
+  }
+
+  /**
+   * Write every live row of the matrix. Tombstoned rows are dropped, so the file is compact.
+   */
+  public static void write(EmbeddingMatrix matrix, Path path) throws IOException {
+    int dims = matrix.dims();
+    int rows = matrix.rows();
+
+    // Id table
+    int count = 0;
+    int idsLen = 0;
+    byte[][] idBytes = new byte[rows][];
+    for (int row = 0; row < rows; row++) {
+      String id = matrix.idOf(row);
+      if (id == null) continue;
+      idBytes[row] = id.getBytes(StandardCharsets.UTF_8);
+      idsLen += Integer.BYTES + idBytes[row].length;
+      count++;
+    }
+    long idsOff = HEADER_BYTES;
+    long dataOff = align(idsOff + idsLen);
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    CRC32C crc = new CRC32C();
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer ids = ByteBuffer.allocate(idsLen).order(ByteOrder.LITTLE_ENDIAN);
+      for (byte[] b : idBytes) {
+        if (b == null) continue;
+        ids.putInt(b.length).put(b);
+      }
+      ids.flip();
+      crc.update(ids.duplicate());
+      ch.write(ids, idsOff);
+
+      // Float block, streamed one row at a time through a reusable buffer
+      ByteBuffer rowBuf = ByteBuffer.allocateDirect(dims * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      long pos = dataOff;
+      for (int row = 0; row < rows; row++) {
+        if (idBytes[row] == null) continue;
+        rowBuf.clear();
+        rowBuf.asFloatBuffer().put(matrix.row(row));
+        crc.update(rowBuf.duplicate());
+        while (rowBuf.hasRemaining()) pos += ch.write(rowBuf, pos);
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(DTYPE_FLOAT32).putInt(dims).putInt(count)
+          .putInt(FLAG_NORMALISED).putLong(idsOff).putLong(idsLen).putLong(dataOff).putLong(crc.getValue());
+      header.rewind();
+      ch.write(header, 0);
+      ch.force(false);
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static EmbeddingMatrix map(Path path) throws IOException {
+    return map(path, true);
+  }
+
+  /**
+   * Memory-map a file written by {@link #write}. With {@code verify} the CRC is checked, which
+   * touches every page once; skip it for the fastest possible warm restart.
+   */
+  public static EmbeddingMatrix map(Path path, boolean verify) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      if (ch.read(header, 0) != HEADER_BYTES) throw new IOException("Truncated embedding file header: " + path);
+      header.flip();
+
+      if (header.getInt() != MAGIC) throw new IOException("Not an embedding file: " + path);
+      int version = header.getInt();
+      if (version != VERSION) throw new IOException("Unsupported embedding file version " + version);
+      int dtype = header.getInt();
+      if (dtype != DTYPE_FLOAT32) throw new IOException("Unsupported embedding dtype " + dtype);
+      int dims = header.getInt();
+      int count = header.getInt();
+      int flags = header.getInt();
+      if ((flags & FLAG_NORMALISED) == 0) throw new IOException("Embedding rows are not normalised");
+      long idsOff = header.getLong();
+      long idsLen = header.getLong();
+      long dataOff = header.getLong();
+      long expectedCrc = header.getLong();
+
+      long dataLen = (long) count * dims * Float.BYTES;
+      if (ch.size() < dataOff + dataLen) throw new IOException("Truncated embedding file: " + path);
+
+      MappedByteBuffer idTable = ch.map(FileChannel.MapMode.READ_ONLY, idsOff, idsLen);
+      idTable.order(ByteOrder.LITTLE_ENDIAN);
+      CRC32C crc = verify ? new CRC32C() : null;
+      if (crc != null) crc.update(idTable.duplicate());
+
+      String[] ids = new String[count];
+      byte[] scratch = new byte[256];
+      for (int i = 0; i < count; i++) {
+        int len = idTable.getInt();
+        if (len > scratch.length) scratch = new byte[len];
+        idTable.get(scratch, 0, len);
+        ids[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+      }
+
+      // Map the float block in slices that line up with the matrix segment size
+      int rowsPerSegment = EmbeddingMatrix.rowsPerSegment(dims);
+      int segCount = count == 0 ? 0 : (count + rowsPerSegment - 1) / rowsPerSegment;
+      FloatBuffer[] segments = new FloatBuffer[segCount];
+      for (int s = 0; s < segCount; s++) {
+        int segRows = Math.min(rowsPerSegment, count - s * rowsPerSegment);
+        long off = dataOff + (long) s * rowsPerSegment * dims * Float.BYTES;
+        MappedByteBuffer slice = ch.map(FileChannel.MapMode.READ_ONLY, off, (long) segRows * dims * Float.BYTES);
+        if (crc != null) crc.update(slice.duplicate());
+        segments[s] = slice.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+      }
+
+      if (crc != null && crc.getValue() != expectedCrc) {
+        throw new IOException("Embedding file checksum mismatch: " + path);
+      }
+      return new EmbeddingMatrix(dims, ids, segments);
+    }
+  }
+
+  private static long align(long offset) {
+    return (offset + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+  }
+}
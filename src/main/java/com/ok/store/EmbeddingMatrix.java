@@ -0,0 +1,218 @@
+package com.ok.store;
+
+import com.ok.embeddings.TopK;
+import com.ok.embeddings.VectorMath;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Row-major, off-heap store for chunk embeddings.
+ *
+ * Every vector is L2-normalised on insert and written into direct (off-heap) float segments, so
+ * cosine similarity is a single dot product over contiguous memory and the vectors cost nothing
+ * on the GC heap. Rows are dense ints; {@link #rowOf(String)} / {@link #idOf(int)} map between
+ * rows and chunk ids.
+ *
+ * Rows are append-only: re-adding an id writes a new row and tombstones the old one, so row
+ * numbers held by an index stay valid. Reads are lock-free; writers are serialised.
+ * Segments may also be read-only slices of a memory-mapped {@link EmbeddingFile}.
+ */
+public class EmbeddingMatrix {
+  // Target size of one direct segment; keeps each buffer well below the 2GB ByteBuffer limit
+  private static final int SEGMENT_BYTES = 64 << 20;
+  private static final ThreadLocal<float[][]> SCRATCH = ThreadLocal.withInitial(() -> new float[2][]);
+
+  private int dims;
+  private int rowsPerSegment;
+  private volatile FloatBuffer[] segments = new FloatBuffer[0];
+  private volatile String[] ids = new String[0];
+  private volatile int rows;
+  private int deletedRows;
+  private final Map<String, Integer> rowOf = new ConcurrentHashMap<>();
+
+  public EmbeddingMatrix() {
+    this(0);
+  }
+
+  // dims = 0 defers the dimension to the first vector added
+  public EmbeddingMatrix(int dims) {
+    if (dims > 0) setDims(dims);
+  }
+
+  // Wrap pre-normalised rows that are already laid out in segments (e.g. mapped from disk)
+  EmbeddingMatrix(int dims, String[] ids, FloatBuffer[] segments) {
+    if (dims > 0) setDims(dims); // an empty store was saved before its first vector
+    this.segments = segments;
+    this.ids = ids;
+    this.rows = ids.length;
+    for (int row = 0; row < ids.length; row++) {
+      if (ids[row] == null) deletedRows++;
+      else rowOf.put(ids[row], row);
+    }
+  }
+
+  private void setDims(int dims) {
+    this.dims = dims;
+    this.rowsPerSegment = rowsPerSegment(dims);
+  }
+
+  static int rowsPerSegment(int dims) {
+    if (dims <= 0) return 1;
+    return Math.max(1, SEGMENT_BYTES / (dims * Float.BYTES));
+  }
+
+  /**
+   * Normalise and append a vector for the given chunk id.
+   * @return the row the vector was written to
+   */
+  public synchronized int add(String id, float[] vector) {
+    if (dims == 0) setDims(vector.length);
+    if (vector.length != dims) throw new IllegalArgumentException("Vector sizes differ");
+
+    int row = rows;
+    int seg = row / rowsPerSegment;
+    FloatBuffer[] segs = segments;
+    if (seg >= segs.length) {
+      segs = Arrays.copyOf(segs, seg + 1);
+      segs[seg] = allocateSegment();
+      segments = segs;
+    } else if (segs[seg].isReadOnly()) {
+      // Appending into a partially filled mapped segment: copy it to a writable one first
+      FloatBuffer copy = allocateSegment();
+      copy.put(0, segs[seg], 0, (row % rowsPerSegment) * dims);
+      segs = segs.clone();
+      segs[seg] = copy;
+      segments = segs;
+    }
+
+    double sum = 0;
+    for (float v : vector) sum += v * v;
+    float inv = sum == 0 ? 0f : (float) (1.0 / Math.sqrt(sum));
+    FloatBuffer fb = segs[seg];
+    int off = (row % rowsPerSegment) * dims;
+    for (int i = 0; i < dims; i++) fb.put(off + i, vector[i] * inv);
+
+    String[] idArr = ids;
+    if (row >= idArr.length) {
+      idArr = Arrays.copyOf(idArr, Math.max(16, idArr.length * 2));
+    }
+    idArr[row] = id;
+    ids = idArr;
+
+    Integer old = rowOf.put(id, row);
+    if (old != null) tombstone(old);
+
+    rows = row + 1; // volatile write publishes the row to readers
+    return row;
+  }
+
+  private FloatBuffer allocateSegment() {
+    return ByteBuffer.allocateDirect(rowsPerSegment * dims * Float.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  // Tombstone the row for this id; returns false if the id is unknown
+  public synchronized boolean remove(String id) {
+    Integer row = rowOf.remove(id);
+    if (row == null) return false;
+    tombstone(row);
+    return true;
+  }
+
+  private void tombstone(int row) {
+    ids[row] = null;
+    deletedRows++;
+  }
+
+  public int dims() { return dims; }
+
+  // Number of rows written, including tombstoned ones
+  public int rows() { return rows; }
+
+  // Number of live chunk ids
+  public int size() { return rowOf.size(); }
+
+  public synchronized int deletedRows() { return deletedRows; }
+
+  public boolean isLive(int row) { return ids[row] != null; }
+
+  public String idOf(int row) { return ids[row]; }
+
+  public int rowOf(String id) {
+    Integer row = rowOf.get(id);
+    return row == null ? -1 : row;
+  }
+
+  // Copy of the (normalised) row
+  public float[] row(int row) {
+    float[] out = new float[dims];
+    segments[row / rowsPerSegment].get((row % rowsPerSegment) * dims, out);
+    return out;
+  }
+
+  // Dot product of a row with a query; equals cosine when the query is normalised
+  public float dot(int row, float[] query) {
+    float[] r = scratch(0);
+    segments[row / rowsPerSegment].get((row % rowsPerSegment) * dims, r, 0, dims);
+    return VectorMath.dot(r, 0, query, 0, dims);
+  }
+
+  // Cosine similarity between two stored rows
+  public float dot(int a, int b) {
+    float[] ra = scratch(0);
+    float[] rb = scratch(1);
+    segments[a / rowsPerSegment].get((a % rowsPerSegment) * dims, ra, 0, dims);
+    segments[b / rowsPerSegment].get((b % rowsPerSegment) * dims, rb, 0, dims);
+    return VectorMath.dot(ra, 0, rb, 0, dims);
+  }
+
+  // Per-thread heap copies of rows: a bulk copy out of the direct buffer lets the SIMD kernels
+  // run on arrays (the incubator API cannot load from a ByteBuffer on this JDK)
+  private float[] scratch(int slot) {
+    float[][] s = SCRATCH.get();
+    if (s[slot] == null || s[slot].length < dims) s[slot] = new float[dims];
+    return s[slot];
+  }
+
+  /**
+   * Exact top-k by cosine: one sequential pass over every live row.
+   */
+  public List<VectorIndex.Result> topK(float[] query, int k) {
+    if (k <= 0 || rows == 0) return List.of();
+    if (query.length != dims) throw new IllegalArgumentException("Vector sizes differ");
+    float[] q = normalize(query);
+
+    int n = rows;
+    FloatBuffer[] segs = segments;
+    String[] idArr = ids;
+
+    // Fused scoring + bounded min-heap selection
+    TopK top = new TopK(Math.min(k, n));
+    float[] r = new float[dims];
+    for (int row = 0; row < n; row++) {
+      if (idArr[row] == null) continue;
+      segs[row / rowsPerSegment].get((row % rowsPerSegment) * dims, r, 0, dims);
+      top.offer(row, VectorMath.dot(r, 0, q, 0, dims));
+    }
+    top.sortDescending();
+
+    List<VectorIndex.Result> out = new ArrayList<>(top.size());
+    for (int i = 0; i < top.size(); i++) out.add(new VectorIndex.Result(idArr[top.id(i)], top.score(i)));
+    return out;
+  }
+
+  public static float[] normalize(float[] v) {
+    double sum = 0;
+    for (float x : v) sum += x * x;
+    float[] out = new float[v.length];
+    if (sum == 0) return out;
+    float inv = (float) (1.0 / Math.sqrt(sum));
+    for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+    return out;
+  }
+}
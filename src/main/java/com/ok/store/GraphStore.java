@@ -18,6 +18,8 @@ public interface GraphStore {
   
   // Chunk operations
   Vertex addChunk(String id, String text, float[] embedding);
+  // Normalised embedding for a chunk, or null if it has none
+  float[] chunkEmbedding(String chunkId);
   
   // Relationship operations
   Edge addEdge(Vertex from, Vertex to, String label, Map<String,Object> props);
@@ -32,6 +34,25 @@ public interface GraphStore {
   // Query operations
   List<Vertex> chunks();
   List<Vertex> entities();
+  // Indexed point lookups; return null when absent
+  Vertex chunkById(String id);
+  Vertex entityByName(String name);
   List<Vertex> chunksMentioning(Vertex entity);
   List<Vertex> entitiesMentionedIn(Vertex chunk);
+
+  // Top-k chunks by cosine similarity; exact=true bypasses the ANN index (recall baseline)
+  List<ScoredVertex> nearestChunks(float[] query, int k, boolean exact);
+  // Top-k chunks by BM25 over their text (keyword leg of hybrid retrieval)
+  List<ScoredVertex> lexicalChunks(String query, int k);
+
+  // Value object pairing a chunk vertex with its similarity score
+  class ScoredVertex {
+    public final Vertex vertex;
+    public final double score;
+
+    public ScoredVertex(Vertex vertex, double score) {
+      this.vertex = vertex;
+      this.score = score;
+    }
+  }
 }
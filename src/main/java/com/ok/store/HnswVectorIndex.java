@@ -0,0 +1,278 @@
+package com.ok.store;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest-neighbour index based on Hierarchical Navigable Small World graphs
+ * (Malkov &amp; Yashunin) over the rows of an {@link EmbeddingMatrix}. Rows are pre-normalised,
+ * so similarity is a plain dot product and node numbers are simply matrix rows.
+ *
+ * <ul>
+ *   <li>{@code m} – max links per node on the upper layers (layer 0 keeps {@code 2*m})</li>
+ *   <li>{@code efConstruction} – candidate list size while linking new nodes</li>
+ *   <li>{@code efSearch} – candidate list size at query time (recall/latency trade-off)</li>
+ * </ul>
+ *
+ * Rows tombstoned in the matrix stay in the graph for navigation but never appear in results.
+ */
+public class HnswVectorIndex implements VectorIndex {
+  public static final int DEFAULT_M = 16;
+  public static final int DEFAULT_EF_CONSTRUCTION = 200;
+  public static final int DEFAULT_EF_SEARCH = 64;
+
+  private final int m;
+  private final int mMax0;
+  private final int efConstruction;
+  private volatile int efSearch;
+  private final double levelMultiplier;
+  private final Random random;
+  private final EmbeddingMatrix matrix;
+
+  // Graph storage, indexed by matrix row (null for rows not yet indexed)
+  private final List<int[][]> links = new ArrayList<>();   // links[row][level] -> neighbour rows
+  private final List<int[]> linkCounts = new ArrayList<>(); // used slots per level
+
+  private int entryPoint = -1;
+  private int maxLevel = -1;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  public HnswVectorIndex(EmbeddingMatrix matrix) {
+    this(matrix, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH);
+  }
+
+  public HnswVectorIndex(EmbeddingMatrix matrix, int m, int efConstruction, int efSearch) {
+    this(matrix, m, efConstruction, efSearch, 42L);
+  }
+
+  public HnswVectorIndex(EmbeddingMatrix matrix, int m, int efConstruction, int efSearch, long seed) {
+    if (m < 2) throw new IllegalArgumentException("m must be >= 2");
+    this.matrix = matrix;
+    this.m = m;
+    this.mMax0 = 2 * m;
+    this.efConstruction = Math.max(efConstruction, m);
+    this.efSearch = Math.max(1, efSearch);
+    this.levelMultiplier = 1.0 / Math.log(m);
+    this.random = new Random(seed);
+  }
+
+  public void setEfSearch(int efSearch) {
+    this.efSearch = Math.max(1, efSearch);
+  }
+
+  public int getEfSearch() {
+    return efSearch;
+  }
+
+  @Override
+  public void add(int node) {
+    lock.writeLock().lock();
+    try {
+      int level = randomLevel();
+      while (links.size() <= node) {
+        links.add(null);
+        linkCounts.add(null);
+      }
+      int[][] nodeLinks = new int[level + 1][];
+      for (int l = 0; l <= level; l++) nodeLinks[l] = new int[maxLinks(l)];
+      links.set(node, nodeLinks);
+      linkCounts.set(node, new int[level + 1]);
+
+      if (entryPoint < 0) {
+        entryPoint = node;
+        maxLevel = level;
+        return;
+      }
+
+      // Greedy descent through the layers above the new node's level
+      float[] v = matrix.row(node);
+      int ep = entryPoint;
+      for (int l = maxLevel; l > level; l--) {
+        ep = greedyClosest(v, ep, l);
+      }
+
+      // Link the node on every layer it lives on
+      for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+        List<Candidate> found = searchLayer(v, ep, efConstruction, l);
+        List<Candidate> neighbours = selectNeighbours(found, m);
+        for (Candidate c : neighbours) {
+          appendLink(node, l, c.node);
+          connect(c.node, node, l);
+        }
+        ep = found.get(0).node;
+      }
+
+      if (level > maxLevel) {
+        maxLevel = level;
+        entryPoint = node;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Result> search(float[] query, int k) {
+    if (k <= 0) return List.of();
+    if (query.length != matrix.dims()) throw new IllegalArgumentException("Vector sizes differ");
+    float[] q = EmbeddingMatrix.normalize(query);
+    lock.readLock().lock();
+    try {
+      if (entryPoint < 0) return List.of();
+
+      int ep = entryPoint;
+      for (int l = maxLevel; l > 0; l--) {
+        ep = greedyClosest(q, ep, l);
+      }
+
+      // Over-fetch to compensate for tombstoned nodes
+      int ef = Math.max(efSearch, k) + Math.min(matrix.deletedRows(), k);
+      List<Candidate> found = searchLayer(q, ep, ef, 0);
+
+      List<Result> out = new ArrayList<>(k);
+      for (Candidate c : found) {
+        String id = matrix.idOf(c.node);
+        if (id == null) continue;
+        out.add(new Result(id, c.sim));
+        if (out.size() == k) break;
+      }
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // --- graph construction helpers ---
+
+  private int maxLinks(int level) {
+    return level == 0 ? mMax0 : m;
+  }
+
+  private int randomLevel() {
+    double r = 1.0 - random.nextDouble(); // (0, 1]
+    return (int) Math.floor(-Math.log(r) * levelMultiplier);
+  }
+
+  private void appendLink(int node, int level, int neighbour) {
+    int[] counts = linkCounts.get(node);
+    links.get(node)[level][counts[level]++] = neighbour;
+  }
+
+  // Add node -> neighbour, shrinking the neighbour list with the heuristic when full
+  private void connect(int node, int neighbour, int level) {
+    int[] nodeLinks = links.get(node)[level];
+    int[] counts = linkCounts.get(node);
+    if (counts[level] < nodeLinks.length) {
+      nodeLinks[counts[level]++] = neighbour;
+      return;
+    }
+
+    List<Candidate> pool = new ArrayList<>(counts[level] + 1);
+    for (int i = 0; i < counts[level]; i++) {
+      pool.add(new Candidate(nodeLinks[i], matrix.dot(node, nodeLinks[i])));
+    }
+    pool.add(new Candidate(neighbour, matrix.dot(node, neighbour)));
+    pool.sort(Candidate.BY_SIM_DESC);
+
+    List<Candidate> kept = selectNeighbours(pool, nodeLinks.length);
+    for (int i = 0; i < kept.size(); i++) nodeLinks[i] = kept.get(i).node;
+    counts[level] = kept.size();
+  }
+
+  /**
+   * Neighbour selection heuristic (Algorithm 4): keep a candidate only if it is closer to the
+   * base than to any already-kept neighbour, then top up with the best pruned ones.
+   * Candidates must be sorted by descending similarity to the base.
+   */
+  private List<Candidate> selectNeighbours(List<Candidate> candidates, int limit) {
+    if (candidates.size() <= limit) return candidates;
+    List<Candidate> kept = new ArrayList<>(limit);
+    List<Candidate> pruned = new ArrayList<>();
+    for (Candidate c : candidates) {
+      if (kept.size() >= limit) break;
+      boolean good = true;
+      for (Candidate r : kept) {
+        if (matrix.dot(c.node, r.node) > c.sim) {
+          good = false;
+          break;
+        }
+      }
+      if (good) kept.add(c); else pruned.add(c);
+    }
+    for (int i = 0; i < pruned.size() && kept.size() < limit; i++) kept.add(pruned.get(i));
+    return kept;
+  }
+
+  // --- search helpers ---
+
+  private int greedyClosest(float[] q, int ep, int level) {
+    int best = ep;
+    float bestSim = matrix.dot(ep, q);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      int[] nbrs = links.get(best)[level];
+      int count = linkCounts.get(best)[level];
+      for (int i = 0; i < count; i++) {
+        float sim = matrix.dot(nbrs[i], q);
+        if (sim > bestSim) {
+          bestSim = sim;
+          best = nbrs[i];
+          changed = true;
+        }
+      }
+    }
+    return best;
+  }
+
+  // Beam search on one layer; returns up to ef candidates sorted by descending similarity
+  private List<Candidate> searchLayer(float[] q, int ep, int ef, int level) {
+    BitSet visited = new BitSet(links.size());
+    visited.set(ep);
+    Candidate start = new Candidate(ep, matrix.dot(ep, q));
+
+    PriorityQueue<Candidate> frontier = new PriorityQueue<>(Candidate.BY_SIM_DESC);
+    PriorityQueue<Candidate> results = new PriorityQueue<>(Candidate.BY_SIM_DESC.reversed());
+    frontier.add(start);
+    results.add(start);
+
+    while (!frontier.isEmpty()) {
+      Candidate c = frontier.poll();
+      if (results.size() >= ef && c.sim < results.peek().sim) break;
+
+      int[][] nodeLinks = links.get(c.node);
+      if (level >= nodeLinks.length) continue;
+      int[] nbrs = nodeLinks[level];
+      int count = linkCounts.get(c.node)[level];
+      for (int i = 0; i < count; i++) {
+        int n = nbrs[i];
+        if (visited.get(n)) continue;
+        visited.set(n);
+        float sim = matrix.dot(n, q);
+        if (results.size() < ef || sim > results.peek().sim) {
+          Candidate nc = new Candidate(n, sim);
+          frontier.add(nc);
+          results.add(nc);
+          if (results.size() > ef) results.poll();
+        }
+      }
+    }
+
+    List<Candidate> out = new ArrayList<>(results);
+    out.sort(Candidate.BY_SIM_DESC);
+    return out;
+  }
+
+  private static final class Candidate {
+    static final Comparator<Candidate> BY_SIM_DESC = (a, b) -> Float.compare(b.sim, a.sim);
+
+    final int node;
+    final float sim;
+
+    Candidate(int node, float sim) {
+      this.node = node;
+      this.sim = sim;
+    }
+  }
+}
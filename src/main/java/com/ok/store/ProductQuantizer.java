@@ -0,0 +1,163 @@
+package com.ok.store;
+
+import com.ok.embeddings.VectorMath;
+
+import java.util.*;
+
+/**
+ * Product quantization (Jégou et al.): the vector is cut into {@code m} sub-vectors and each is
+ * replaced by the index of its nearest of 256 centroids, learned per subspace with k-means.
+ * One byte per sub-vector, i.e. {@code 4 * dims / m} times smaller than float; with the default
+ * sub-vector width of 8 dimensions that is 32x.
+ *
+ * A query is scored by building an {@code m x 256} table of sub-vector dot products once, after
+ * which every code costs {@code m} table lookups.
+ */
+public class ProductQuantizer implements VectorQuantizer {
+  public static final int DEFAULT_SUBVECTOR_DIMS = 8;
+  private static final int CENTROIDS = 256;
+  private static final int KMEANS_ITERATIONS = 12;
+
+  private final int dims;
+  private final int m;
+  private final int dsub;
+  private final long seed;
+  private float[][] codebooks; // [subspace][centroid * dsub + d]
+  private int centroids;
+
+  public ProductQuantizer(int dims) {
+    this(dims, subspacesFor(dims), 42L);
+  }
+
+  /**
+   * @param subspaces number of sub-vectors; must divide dims
+   */
+  public ProductQuantizer(int dims, int subspaces, long seed) {
+    if (subspaces <= 0 || dims % subspaces != 0) {
+      throw new IllegalArgumentException("subspaces must divide dims (" + dims + ")");
+    }
+    this.dims = dims;
+    this.m = subspaces;
+    this.dsub = dims / subspaces;
+    this.seed = seed;
+  }
+
+  // Largest subspace count whose sub-vectors are at least DEFAULT_SUBVECTOR_DIMS wide
+  private static int subspacesFor(int dims) {
+    for (int m = Math.max(1, dims / DEFAULT_SUBVECTOR_DIMS); m > 1; m--) {
+      if (dims % m == 0) return m;
+    }
+    return 1;
+  }
+
+  @Override
+  public void train(List<float[]> sample) {
+    if (sample.isEmpty()) throw new IllegalArgumentException("Empty training sample");
+    int k = Math.min(CENTROIDS, sample.size());
+    Random rnd = new Random(seed);
+    float[][] books = new float[m][];
+    float[][] sub = new float[sample.size()][dsub];
+    for (int s = 0; s < m; s++) {
+      for (int i = 0; i < sample.size(); i++) System.arraycopy(sample.get(i), s * dsub, sub[i], 0, dsub);
+      books[s] = kmeans(sub, k, rnd);
+    }
+    this.centroids = k;
+    this.codebooks = books;
+  }
+
+  // Lloyd's k-means on one subspace, initialised from distinct random sample points
+  private float[] kmeans(float[][] points, int k, Random rnd) {
+    int n = points.length;
+    float[] centers = new float[k * dsub];
+    List<Integer> order = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) order.add(i);
+    Collections.shuffle(order, rnd);
+    for (int c = 0; c < k; c++) System.arraycopy(points[order.get(c)], 0, centers, c * dsub, dsub);
+
+    int[] assign = new int[n];
+    float[] sums = new float[k * dsub];
+    int[] counts = new int[k];
+    for (int it = 0; it < KMEANS_ITERATIONS; it++) {
+      boolean changed = false;
+      for (int i = 0; i < n; i++) {
+        int best = nearest(centers, k, points[i], 0);
+        if (best != assign[i] || it == 0) changed = true;
+        assign[i] = best;
+      }
+      if (!changed) break;
+
+      Arrays.fill(sums, 0f);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < n; i++) {
+        int c = assign[i];
+        counts[c]++;
+        for (int d = 0; d < dsub; d++) sums[c * dsub + d] += points[i][d];
+      }
+      for (int c = 0; c < k; c++) {
+        if (counts[c] == 0) {
+          // Re-seed an empty cluster with a random point
+          System.arraycopy(points[rnd.nextInt(n)], 0, centers, c * dsub, dsub);
+          continue;
+        }
+        for (int d = 0; d < dsub; d++) centers[c * dsub + d] = sums[c * dsub + d] / counts[c];
+      }
+    }
+    return centers;
+  }
+
+  // Index of the centroid closest (L2) to v[off .. off+dsub)
+  private int nearest(float[] centers, int k, float[] v, int off) {
+    int best = 0;
+    float bestDist = Float.POSITIVE_INFINITY;
+    for (int c = 0; c < k; c++) {
+      float dist = 0f;
+      int base = c * dsub;
+      for (int d = 0; d < dsub; d++) {
+        float diff = v[off + d] - centers[base + d];
+        dist += diff * diff;
+      }
+      if (dist < bestDist) {
+        bestDist = dist;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public boolean isTrained() {
+    return codebooks != null;
+  }
+
+  @Override
+  public int dims() {
+    return dims;
+  }
+
+  @Override
+  public int codeBytes() {
+    return m;
+  }
+
+  @Override
+  public void encode(float[] vector, byte[] out, int offset) {
+    for (int s = 0; s < m; s++) {
+      out[offset + s] = (byte) nearest(codebooks[s], centroids, vector, s * dsub);
+    }
+  }
+
+  @Override
+  public Scorer scorer(float[] query) {
+    float[] table = new float[m * CENTROIDS];
+    for (int s = 0; s < m; s++) {
+      for (int c = 0; c < centroids; c++) {
+        table[s * CENTROIDS + c] = VectorMath.dot(query, s * dsub, codebooks[s], c * dsub, dsub);
+      }
+    }
+    return (codes, off) -> {
+      float score = 0f;
+      for (int s = 0; s < m; s++) score += table[s * CENTROIDS + (codes[off + s] & 0xFF)];
+      return score;
+    };
+  }
+}
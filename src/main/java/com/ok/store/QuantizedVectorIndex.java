@@ -0,0 +1,222 @@
+package com.ok.store;
+
+import com.ok.embeddings.TopK;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+/**
+ * VectorIndex that keeps only compressed codes in memory and searches them, then re-scores the
+ * best {@code k * rerankFactor} candidates exactly against the full vectors of the
+ * {@link EmbeddingMatrix} (which may be memory-mapped from disk, so only touched rows are paged
+ * in).
+ *
+ * The quantizer is trained from the corpus once {@code trainAfter} rows exist; before that
+ * searches fall back to an exact scan. {@link #retrain()} re-learns the codebooks after the
+ * corpus has drifted. {@link #recall} measures the recall loss against exact search.
+ *
+ * Codes are kept in segments of up to 64MB, like the matrix's float segments, so the index is
+ * not capped by the 2GB array limit (about 524k rows of 4096-dim int8 codes).
+ */
+public class QuantizedVectorIndex implements VectorIndex {
+  public static final int DEFAULT_TRAIN_AFTER = 1024;
+  public static final int DEFAULT_RERANK_FACTOR = 10;
+  // PQ codes rank more coarsely, so more candidates go to the exact step
+  public static final int PQ_RERANK_FACTOR = 30;
+  private static final int MAX_TRAINING_SAMPLE = 20_000;
+  private static final int SEGMENT_BYTES = 64 << 20;
+
+  private final EmbeddingMatrix matrix;
+  private final IntFunction<VectorQuantizer> quantizerFactory;
+  private final int trainAfter;
+  private final int rerankFactor;
+
+  private VectorQuantizer quantizer;
+  private byte[][] segments = new byte[0][];
+  private int rowsPerSegment;
+  private int encodedRows; // rows [0, encodedRows) have codes
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * @param quantizerFactory builds an untrained quantizer for the matrix dimension
+   * @param trainAfter       rows needed before codebooks are trained
+   * @param rerankFactor     candidates re-scored exactly per requested result
+   */
+  public QuantizedVectorIndex(EmbeddingMatrix matrix, IntFunction<VectorQuantizer> quantizerFactory,
+                              int trainAfter, int rerankFactor) {
+    this.matrix = matrix;
+    this.quantizerFactory = quantizerFactory;
+    this.trainAfter = Math.max(1, trainAfter);
+    this.rerankFactor = Math.max(1, rerankFactor);
+  }
+
+  // 4x smaller codes, near-lossless ranking
+  public static QuantizedVectorIndex int8(EmbeddingMatrix matrix) {
+    return new QuantizedVectorIndex(matrix, ScalarQuantizer::new, DEFAULT_TRAIN_AFTER, DEFAULT_RERANK_FACTOR);
+  }
+
+  // 32x smaller codes (8-dim sub-vectors); relies on the exact re-scoring step for recall
+  public static QuantizedVectorIndex pq(EmbeddingMatrix matrix) {
+    return new QuantizedVectorIndex(matrix, ProductQuantizer::new, DEFAULT_TRAIN_AFTER, PQ_RERANK_FACTOR);
+  }
+
+  @Override
+  public void add(int row) {
+    lock.writeLock().lock();
+    try {
+      if (quantizer == null) {
+        if (matrix.rows() >= trainAfter) train();
+        return;
+      }
+      encodeUpTo(row + 1);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Re-learn the codebooks from the current corpus and re-encode every row
+  public void retrain() {
+    lock.writeLock().lock();
+    try {
+      train();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void train() {
+    int rows = matrix.rows();
+    List<float[]> sample = new ArrayList<>();
+    // Evenly strided sample of live rows
+    int stride = Math.max(1, rows / MAX_TRAINING_SAMPLE);
+    for (int row = 0; row < rows && sample.size() < MAX_TRAINING_SAMPLE; row += stride) {
+      if (matrix.isLive(row)) sample.add(matrix.row(row));
+    }
+    if (sample.isEmpty()) return;
+
+    VectorQuantizer q = quantizerFactory.apply(matrix.dims());
+    q.train(sample);
+    quantizer = q;
+    segments = new byte[0][];
+    rowsPerSegment = Math.max(1, SEGMENT_BYTES / q.codeBytes());
+    encodedRows = 0;
+    encodeUpTo(rows);
+  }
+
+  private void encodeUpTo(int rows) {
+    if (rows <= encodedRows) return;
+    int cb = quantizer.codeBytes();
+    reserve(rows, cb);
+    for (int row = encodedRows; row < rows; row++) {
+      quantizer.encode(matrix.row(row), segments[row / rowsPerSegment], (row % rowsPerSegment) * cb);
+    }
+    encodedRows = rows;
+  }
+
+  // Make room for rows codes: earlier segments are full size, the last one grows by half as needed
+  private void reserve(int rows, int cb) {
+    int segCount = (rows + rowsPerSegment - 1) / rowsPerSegment;
+    if (segCount > segments.length) segments = Arrays.copyOf(segments, segCount);
+    for (int s = 0; s < segCount; s++) {
+      int need = (s < segCount - 1 ? rowsPerSegment : rows - s * rowsPerSegment) * cb;
+      byte[] seg = segments[s];
+      if (seg == null) {
+        segments[s] = new byte[s < segCount - 1 ? rowsPerSegment * cb : need];
+      } else if (seg.length < need) {
+        int grown = (int) Math.min((long) rowsPerSegment * cb, Math.max(need, seg.length * 3L / 2));
+        segments[s] = Arrays.copyOf(seg, s < segCount - 1 ? rowsPerSegment * cb : grown);
+      }
+    }
+  }
+
+  @Override
+  public List<Result> search(float[] query, int k) {
+    if (k <= 0) return List.of();
+    if (query.length != matrix.dims()) throw new IllegalArgumentException("Vector sizes differ");
+    lock.readLock().lock();
+    try {
+      if (quantizer == null) return matrix.topK(query, k);
+
+      float[] q = EmbeddingMatrix.normalize(query);
+      VectorQuantizer.Scorer scorer = quantizer.scorer(q);
+      int cb = quantizer.codeBytes();
+
+      // Stage 1: approximate scores over the codes
+      TopK candidates = new TopK(k * rerankFactor);
+      for (int row = 0; row < encodedRows; row++) {
+        if (!matrix.isLive(row)) continue;
+        candidates.offer(row, scorer.score(segments[row / rowsPerSegment], (row % rowsPerSegment) * cb));
+      }
+
+      // Stage 2: exact re-scoring against the full vectors
+      TopK top = new TopK(k);
+      for (int i = 0; i < candidates.size(); i++) {
+        int row = candidates.id(i);
+        top.offer(row, matrix.dot(row, q));
+      }
+      top.sortDescending();
+
+      List<Result> out = new ArrayList<>(top.size());
+      for (int i = 0; i < top.size(); i++) {
+        String id = matrix.idOf(top.id(i));
+        if (id != null) out.add(new Result(id, top.score(i)));
+      }
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public boolean isTrained() {
+    lock.readLock().lock();
+    try {
+      return quantizer != null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Bytes held for codes versus the same rows as float32
+  public double compressionRatio() {
+    lock.readLock().lock();
+    try {
+      if (quantizer == null) return 1.0;
+      return (matrix.dims() * (double) Float.BYTES) / quantizer.codeBytes();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long codeBytesInMemory() {
+    lock.readLock().lock();
+    try {
+      return quantizer == null ? 0 : (long) encodedRows * quantizer.codeBytes();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Recall@k of this index against exact search over the same matrix, averaged over queries.
+   */
+  public double recall(List<float[]> queries, int k) {
+    if (queries.isEmpty() || k <= 0) return 1.0;
+    long found = 0, expected = 0;
+    for (float[] query : queries) {
+      Set<String> truth = new HashSet<>();
+      for (Result r : matrix.topK(query, k)) truth.add(r.id);
+      for (Result r : search(query, k)) if (truth.contains(r.id)) found++;
+      expected += truth.size();
+    }
+    return expected == 0 ? 1.0 : found / (double) expected;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("QuantizedVectorIndex[%s, %.1fx, %d code bytes, rerank x%d]",
+        quantizer == null ? "untrained" : quantizer.getClass().getSimpleName(),
+        compressionRatio(), codeBytesInMemory(), rerankFactor);
+  }
+}
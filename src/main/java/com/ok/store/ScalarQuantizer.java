@@ -0,0 +1,80 @@
+package com.ok.store;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * int8 scalar quantization: each dimension is mapped linearly onto 0..255 between the
+ * minimum and maximum seen in the training sample. 1 byte per dimension (4x smaller than float).
+ *
+ * For a query q the approximate dot product is
+ * {@code sum q[i] * (min[i] + step[i] * code[i]) = sum q[i]*min[i] + sum (q[i]*step[i]) * code[i]},
+ * so scoring is one multiply-add per byte.
+ */
+public class ScalarQuantizer implements VectorQuantizer {
+  private final int dims;
+  private float[] min;
+  private float[] step;
+
+  public ScalarQuantizer(int dims) {
+    this.dims = dims;
+  }
+
+  @Override
+  public void train(List<float[]> sample) {
+    if (sample.isEmpty()) throw new IllegalArgumentException("Empty training sample");
+    float[] lo = new float[dims];
+    float[] hi = new float[dims];
+    Arrays.fill(lo, Float.POSITIVE_INFINITY);
+    Arrays.fill(hi, Float.NEGATIVE_INFINITY);
+    for (float[] v : sample) {
+      for (int i = 0; i < dims; i++) {
+        lo[i] = Math.min(lo[i], v[i]);
+        hi[i] = Math.max(hi[i], v[i]);
+      }
+    }
+    float[] st = new float[dims];
+    for (int i = 0; i < dims; i++) st[i] = hi[i] > lo[i] ? (hi[i] - lo[i]) / 255f : 0f;
+    this.min = lo;
+    this.step = st;
+  }
+
+  @Override
+  public boolean isTrained() {
+    return min != null;
+  }
+
+  @Override
+  public int dims() {
+    return dims;
+  }
+
+  @Override
+  public int codeBytes() {
+    return dims;
+  }
+
+  @Override
+  public void encode(float[] vector, byte[] out, int offset) {
+    for (int i = 0; i < dims; i++) {
+      int c = step[i] == 0f ? 0 : Math.round((vector[i] - min[i]) / step[i]);
+      out[offset + i] = (byte) Math.max(0, Math.min(255, c)); // values outside the trained range clamp
+    }
+  }
+
+  @Override
+  public Scorer scorer(float[] query) {
+    float bias = 0f;
+    float[] qs = new float[dims];
+    for (int i = 0; i < dims; i++) {
+      bias += query[i] * min[i];
+      qs[i] = query[i] * step[i];
+    }
+    final float base = bias;
+    return (codes, off) -> {
+      float s = 0f;
+      for (int i = 0; i < dims; i++) s += qs[i] * (codes[off + i] & 0xFF);
+      return base + s;
+    };
+  }
+}
@@ -0,0 +1,282 @@
+package com.ok.store;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ok.util.HttpTransport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Buffers rows for a Supabase table and writes them as PostgREST bulk inserts, or upserts with
+ * {@link #upsertOn}, (one JSON array per request) instead of one request per row.
+ *
+ * A batch is sent once it reaches {@code maxRows} rows or {@code maxBytes} of JSON. At most
+ * {@code maxInFlight} batches are on the wire at once. Failures the server answered before
+ * applying the batch (connection refused, 429, 503) are retried with exponential backoff. Other
+ * network errors, timeouts and 5xx responses may arrive after the batch was committed, so they
+ * are only retried for upserts, where sending the batch again is harmless; a plain insert would
+ * duplicate its rows. If a batch is rejected outright (other 4xx, e.g. one malformed row), it is
+ * split in half until the offending rows are isolated, so the good rows still land and every
+ * failure is reported against the key of its row. Rejections no row could pass (authentication,
+ * permissions, a missing table or column) fail the batch as a whole, and every later batch
+ * without sending it.
+ */
+public class SupabaseBatchWriter implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(SupabaseBatchWriter.class.getName());
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final HttpTransport HTTP = HttpTransport.of(HttpTransport.Endpoint.SUPABASE);
+
+  public static final int DEFAULT_MAX_ROWS = 200;
+  public static final int DEFAULT_MAX_BYTES = 4 << 20;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+  public static final int DEFAULT_MAX_RETRIES = 4;
+  private static final long BASE_BACKOFF_MS = 200;
+  private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+  private final String endpoint;
+  private final String apiKey;
+  private final int maxRows;
+  private final int maxBytes;
+  private final int maxRetries;
+  private final Semaphore inFlight;
+  private final ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor();
+  private final List<Future<?>> pending = new ArrayList<>();
+  private Consumer<List<String>> onStored = keys -> { };
+  private String upsertKey; // null: plain inserts
+  private Duration requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+  private List<Row> buffer = new ArrayList<>();
+  private int bufferBytes;
+
+  private final List<String> stored = Collections.synchronizedList(new ArrayList<>());
+  private final Map<String, String> failed = new ConcurrentHashMap<>();
+  private volatile String fatalError; // a request-level rejection; later batches fail with it
+
+  // A serialised row and the caller's key for it
+  private record Row(String key, byte[] json) { }
+
+  public static class Report {
+    public final List<String> stored;
+    public final Map<String, String> failed; // row key -> error
+
+    public Report(List<String> stored, Map<String, String> failed) {
+      this.stored = stored;
+      this.failed = failed;
+    }
+  }
+
+  public SupabaseBatchWriter(String url, String apiKey, String table) {
+    this(url, apiKey, table, DEFAULT_MAX_ROWS, DEFAULT_MAX_BYTES, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_RETRIES);
+  }
+
+  public SupabaseBatchWriter(String url, String apiKey, String table,
+                             int maxRows, int maxBytes, int maxInFlight, int maxRetries) {
+    this.endpoint = url + "/rest/v1/" + table;
+    this.apiKey = apiKey;
+    this.maxRows = Math.max(1, maxRows);
+    this.maxBytes = Math.max(1, maxBytes);
+    this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+    this.maxRetries = Math.max(0, maxRetries);
+  }
+
+  // Called (from a writer thread) with the keys of every batch that was stored
+  public SupabaseBatchWriter onStored(Consumer<List<String>> onStored) {
+    this.onStored = onStored;
+    return this;
+  }
+
+  /**
+   * Upsert rows instead of inserting them: a row whose values in these comma-separated columns
+   * already exist replaces that row. The columns need a unique constraint or index, e.g.
+   * {@code "doc,chunk_hash"}.
+   */
+  public SupabaseBatchWriter upsertOn(String columns) {
+    this.upsertKey = columns;
+    return this;
+  }
+
+  public SupabaseBatchWriter withRequestTimeout(Duration timeout) {
+    this.requestTimeout = timeout;
+    return this;
+  }
+
+  /**
+   * Queue a row; sends the current batch first if the row would push it over a limit.
+   * @param key identifies the row in the {@link Report} and the onStored callback
+   */
+  public synchronized void add(String key, Map<String, Object> row) throws JsonProcessingException {
+    byte[] json = MAPPER.writeValueAsBytes(row);
+    if (!buffer.isEmpty() && bufferBytes + json.length + 1 > maxBytes) sendBuffer();
+    buffer.add(new Row(key, json));
+    bufferBytes += json.length + 1;
+    if (buffer.size() >= maxRows) sendBuffer();
+  }
+
+  /**
+   * Send whatever is buffered and wait for every batch to finish.
+   * @return cumulative outcome of all rows added so far
+   */
+  public Report flush() throws InterruptedException {
+    List<Future<?>> waitFor;
+    synchronized (this) {
+      if (!buffer.isEmpty()) sendBuffer();
+      waitFor = new ArrayList<>(pending);
+      pending.clear();
+    }
+    for (Future<?> f : waitFor) {
+      try {
+        f.get();
+      } catch (ExecutionException e) {
+        LOGGER.severe("Batch writer task failed: " + e.getCause());
+      }
+    }
+    synchronized (stored) {
+      return new Report(new ArrayList<>(stored), new LinkedHashMap<>(failed));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while flushing batches", e);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // Caller holds the monitor
+  private void sendBuffer() {
+    List<Row> batch = buffer;
+    buffer = new ArrayList<>();
+    bufferBytes = 0;
+    pending.add(pool.submit(() -> {
+      inFlight.acquire();
+      try {
+        write(batch);
+      } finally {
+        inFlight.release();
+      }
+      return null;
+    }));
+  }
+
+  // Send one batch; bisect on rejection so bad rows are isolated
+  private void write(List<Row> batch) throws InterruptedException {
+    String fatal = fatalError;
+    Outcome outcome = fatal != null ? new Outcome(fatal, false) : sendWithRetry(batch);
+    if (outcome.error() == null) {
+      List<String> keys = new ArrayList<>(batch.size());
+      for (Row r : batch) keys.add(r.key());
+      stored.addAll(keys);
+      onStored.accept(keys);
+    } else if (outcome.rejected() && batch.size() > 1) {
+      int mid = batch.size() / 2;
+      write(batch.subList(0, mid));
+      write(batch.subList(mid, batch.size()));
+    } else {
+      // A single rejected row, or retries exhausted on a batch the server never judged
+      for (Row r : batch) failed.put(r.key(), outcome.error());
+      LOGGER.warning("Failed to store " + batch.size() + " row(s): " + outcome.error());
+    }
+  }
+
+  // error == null means success; rejected means the server refused the data itself
+  private record Outcome(String error, boolean rejected) { }
+
+  private Outcome sendWithRetry(List<Row> batch) throws InterruptedException {
+    boolean upsert = upsertKey != null;
+    URI uri = URI.create(upsert ? endpoint + "?on_conflict=" + URLEncoder.encode(upsertKey, StandardCharsets.UTF_8)
+        : endpoint);
+    HttpRequest request = HTTP.post(uri, toJsonArray(batch))
+        .timeout(requestTimeout)
+        .header("apikey", apiKey)
+        .header("Authorization", "Bearer " + apiKey)
+        .header("Content-Type", "application/json")
+        .header("Prefer", upsert ? "resolution=merge-duplicates,return=minimal" : "return=minimal")
+        .build();
+
+    String error = null;
+    for (int attempt = 0; attempt <= maxRetries; attempt++) {
+      if (attempt > 0) Thread.sleep(backoff(attempt));
+      boolean ambiguous;
+      try {
+        HttpResponse<String> response = HTTP.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+        if (status / 100 == 2) return new Outcome(null, false);
+        error = status + ": " + response.body();
+        if (status != 429 && status < 500) {
+          if (requestLevel(status, response.body())) {
+            fatalError = error;
+            return new Outcome(error, false);
+          }
+          // Other 4xx: the data is at fault, retrying won't help
+          return new Outcome(error, true);
+        }
+        // 429 and 503 turn the request away; other 5xx may follow a commit
+        ambiguous = status != 429 && status != 503;
+      } catch (ConnectException | HttpConnectTimeoutException e) {
+        error = e.toString();
+        ambiguous = false; // never reached the server
+      } catch (IOException e) {
+        error = e.toString();
+        ambiguous = true;
+      }
+      if (ambiguous && !upsert) {
+        // Retrying an insert that may have landed would duplicate its rows
+        return new Outcome(error + " (not retried, the rows may have been stored)", false);
+      }
+      LOGGER.fine("Batch of " + batch.size() + " failed (attempt " + (attempt + 1) + "): " + error);
+    }
+    return new Outcome(error, false);
+  }
+
+  /**
+   * True for rejections of the request itself rather than of some rows: authentication and
+   * permissions, and PostgREST/Postgres errors for unknown tables or columns (PGRST2xx, 42P01,
+   * 42703), a missing unique index for on_conflict (42P10) or privileges (42501, PGRST3xx).
+   */
+  static boolean requestLevel(int status, String body) {
+    if (status == 401 || status == 403 || status == 404) return true;
+    String code = "";
+    try {
+      code = MAPPER.readTree(body).path("code").asText("");
+    } catch (IOException | RuntimeException e) {
+      // not a PostgREST error body
+    }
+    return code.startsWith("PGRST2") || code.startsWith("PGRST3")
+        || code.equals("42P01") || code.equals("42703") || code.equals("42P10") || code.equals("42501");
+  }
+
+  private long backoff(int attempt) {
+    long exp = BASE_BACKOFF_MS << Math.min(attempt - 1, 10);
+    return exp + ThreadLocalRandom.current().nextLong(exp / 2 + 1);
+  }
+
+  private static byte[] toJsonArray(List<Row> batch) {
+    int len = 2;
+    for (Row r : batch) len += r.json().length + 1;
+    ByteArrayOutputStream out = new ByteArrayOutputStream(len);
+    out.write('[');
+    for (int i = 0; i < batch.size(); i++) {
+      if (i > 0) out.write(',');
+      out.writeBytes(batch.get(i).json());
+    }
+    out.write(']');
+    return out.toByteArray();
+  }
+}
@@ -2,8 +2,11 @@ package com.ok.store;
 
 import java.net.http.*;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import com.fasterxml.jackson.databind.*;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
 
 /**
  * HTTP client for Supabase REST API operations.
@@ -11,7 +14,9 @@ import com.fasterxml.jackson.databind.*;
  */
 public class SupabaseClient {
   private static final ObjectMapper MAPPER = new ObjectMapper();
-  private static final HttpClient CLIENT = HttpClient.newHttpClient();
+  private static final HttpTransport HTTP = HttpTransport.of(HttpTransport.Endpoint.SUPABASE);
+  // Searches are safe to retry; single inserts are not
+  private static final ResilientHttp SEARCH = ResilientHttp.of(HttpTransport.Endpoint.SUPABASE);
 
   private final String url;
   private final String apiKey;
@@ -48,15 +53,13 @@ public class SupabaseClient {
       "top_k", k
     ));
 
-    HttpRequest request = HttpRequest.newBuilder()
-      .uri(URI.create(url + "/rest/v1/rpc/vector_search"))
+    HttpRequest request = HTTP.post(URI.create(url + "/rest/v1/rpc/vector_search"), body.getBytes(StandardCharsets.UTF_8))
       .header("apikey", apiKey)
       .header("Authorization", "Bearer " + apiKey)
       .header("Content-Type", "application/json")
-      .POST(HttpRequest.BodyPublishers.ofString(body))
       .build();
 
-    HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+    HttpResponse<String> response = SEARCH.send(request, HttpResponse.BodyHandlers.ofString());
     JsonNode arr = MAPPER.readTree(response.body());
 
     List<SupabaseVectorRecord> records = new ArrayList<>();
@@ -69,6 +72,14 @@ public class SupabaseClient {
     return records;
   }
 
+  /**
+   * Writer that bulk-inserts rows into this client's table; prefer it over {@link #insertRow}
+   * when storing more than a handful of chunks.
+   */
+  public SupabaseBatchWriter batchWriter() {
+    return new SupabaseBatchWriter(url, apiKey, table);
+  }
+
   /**
    * Insert a single chunk into Supabase vector table
    * @param text Chunk text
@@ -87,15 +98,13 @@ public class SupabaseClient {
 
     String body = MAPPER.writeValueAsString(payload);
 
-    HttpRequest request = HttpRequest.newBuilder()
-      .uri(URI.create(url + "/rest/v1/" + table))
+    HttpRequest request = HTTP.post(URI.create(url + "/rest/v1/" + table), body.getBytes(StandardCharsets.UTF_8))
       .header("apikey", apiKey)
       .header("Authorization", "Bearer " + apiKey)
       .header("Content-Type", "application/json")
-      .POST(HttpRequest.BodyPublishers.ofString(body))
       .build();
 
-    HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+    HttpResponse<String> response = HTTP.send(request, HttpResponse.BodyHandlers.ofString());
     if (response.statusCode() >= 400) {
       System.err.println("Failed to insert chunk: " + response.body());
     }
@@ -1,6 +1,8 @@
 package com.ok.store;
 
 import com.ok.embeddings.EmbeddingModel;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
 import java.net.URI;
 import java.net.http.*;
 import java.util.*;
@@ -18,7 +20,7 @@ public class SupabaseRetriever {
   private final String apiKey;
   private final String table;
   private final EmbeddingModel model;
-  private final HttpClient client;
+  private final ResilientHttp http;
 
   // Value object for search results with immutable properties
   public static class Hit {
@@ -42,7 +44,7 @@ public class SupabaseRetriever {
     this.apiKey = apiKey;
     this.table = table;
     this.model = model;
-    this.client = HttpClient.newHttpClient();
+    this.http = ResilientHttp.of(HttpTransport.Endpoint.SUPABASE);
   }
 
   // Vector similarity search with HTTP communication
@@ -59,19 +61,17 @@ public class SupabaseRetriever {
       payload.put("query_vector", queryVector);
       payload.put("top_k", k);
 
-      String jsonBody = MAPPER.writeValueAsString(payload);
+      byte[] jsonBody = MAPPER.writeValueAsBytes(payload);
 
       // Call the generic vector_search remote procedure call
-      HttpRequest request = HttpRequest.newBuilder()
-          .uri(URI.create(url + "/rest/v1/rpc/vector_search"))
+      HttpRequest request = http.transport().post(URI.create(url + "/rest/v1/rpc/vector_search"), jsonBody)
           .header("apikey", apiKey)
           .header("Authorization", "Bearer " + apiKey)
           .header("Content-Type", "application/json")
-          .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
           .build();
 
       // Process response and transform data
-      HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+      HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
       if (response.statusCode() >= 200 && response.statusCode() < 300) {
         List<Map<String, Object>> results = MAPPER.readValue(response.body(), new TypeReference<>() {});
         List<Hit> hits = new ArrayList<>();
@@ -1,5 +1,6 @@
 package com.ok.store;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ok.embeddings.EmbeddingModel;
 import java.sql.*;
@@ -9,6 +10,9 @@ import java.util.*;
  * PostgreSQL/Supabase integration with pgvector extension.
  */
 public class SupabaseVectorStore {
+  private static final int JDBC_BATCH_SIZE = 500;
+  private static final String INSERT_SQL =
+      "INSERT INTO document_chunks (doc_id, chunk_text, metadata, embedding) VALUES (?, ?, ?::jsonb, ?::vector)";
   private final Connection conn;
   private final ObjectMapper mapper = new ObjectMapper();
 
@@ -24,8 +28,7 @@ public class SupabaseVectorStore {
     // Convert float[] to Postgres array string for pgvector
     String vectorLiteral = arrayToPgVector(embedding);
 
-    String sql = "INSERT INTO document_chunks (doc_id, chunk_text, metadata, embedding) VALUES (?, ?, ?::jsonb, ?::vector)";
-    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+    try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
       ps.setString(1, docId);
       ps.setString(2, text);
       ps.setString(3, mapper.writeValueAsString(metadata));
@@ -36,6 +39,67 @@ public class SupabaseVectorStore {
     }
   }
 
+  /**
+     * Store many chunks with JDBC batching: one round trip and one transaction per
+     * JDBC_BATCH_SIZE rows. If a batch fails it is rolled back and replayed row by row under
+     * savepoints, so one bad row does not drop its neighbours.
+     * @return indexes of the rows that could not be stored, mapped to the error
+     */
+  public Map<Integer, String> saveChunks(String docId, List<String> texts, List<Map<String, Object>> metadata,
+                                         List<float[]> embeddings) throws SQLException {
+    Map<Integer, String> failed = new LinkedHashMap<>();
+    boolean autoCommit = conn.getAutoCommit();
+    conn.setAutoCommit(false);
+    try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+      for (int start = 0; start < texts.size(); start += JDBC_BATCH_SIZE) {
+        int end = Math.min(start + JDBC_BATCH_SIZE, texts.size());
+        try {
+          for (int i = start; i < end; i++) {
+            bindChunk(ps, docId, texts.get(i), metadata.get(i), embeddings.get(i));
+            ps.addBatch();
+          }
+          ps.executeBatch();
+          conn.commit();
+        } catch (SQLException | RuntimeException e) {
+          ps.clearBatch();
+          conn.rollback();
+          saveRowByRow(ps, docId, texts, metadata, embeddings, start, end, failed);
+        }
+      }
+    } finally {
+      conn.setAutoCommit(autoCommit);
+    }
+    return failed;
+  }
+
+  private void saveRowByRow(PreparedStatement ps, String docId, List<String> texts, List<Map<String, Object>> metadata,
+                            List<float[]> embeddings, int start, int end, Map<Integer, String> failed) throws SQLException {
+    for (int i = start; i < end; i++) {
+      Savepoint sp = conn.setSavepoint();
+      try {
+        bindChunk(ps, docId, texts.get(i), metadata.get(i), embeddings.get(i));
+        ps.executeUpdate();
+        conn.releaseSavepoint(sp);
+      } catch (SQLException | RuntimeException e) {
+        conn.rollback(sp);
+        failed.put(i, e.getMessage());
+      }
+    }
+    conn.commit();
+  }
+
+  private void bindChunk(PreparedStatement ps, String docId, String text, Map<String, Object> metadata,
+                         float[] embedding) throws SQLException {
+    ps.setString(1, docId);
+    ps.setString(2, text);
+    try {
+      ps.setString(3, mapper.writeValueAsString(metadata));
+    } catch (JsonProcessingException e) {
+      throw new SQLException("Unserialisable metadata", e);
+    }
+    ps.setString(4, arrayToPgVector(embedding));
+  }
+
   /**
      * Perform vector similarity search using pgvector's cosine distance operator.
      */
@@ -2,19 +2,37 @@ package com.ok.store;
 
 import org.apache.tinkerpop.gremlin.structure.*;
 import org.apache.tinkerpop.gremlin.tinkergraph.structure.*;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Function;
 
 // Concrete Strategy implementation using Apache TinkerPop framework
 public class TinkerGraphStore implements GraphStore {
   private final TinkerGraph graph;
+  // Chunk embeddings live off-heap in the matrix, not as vertex properties
+  private volatile EmbeddingMatrix matrix = new EmbeddingMatrix();
+  private volatile VectorIndex index;
+  private final Function<EmbeddingMatrix, VectorIndex> indexFactory;
+  // Keyword index over chunk text, maintained alongside the vertices
+  private final Bm25Index lexical = new Bm25Index();
   private static final ObjectMapper MAPPER = new ObjectMapper();
 
   public TinkerGraphStore() {
+    this(HnswVectorIndex::new);
+  }
+
+  // Plug in a different ANN index (e.g. tuned HNSW parameters, BruteForceVectorIndex::new, or
+  // QuantizedVectorIndex::pq to keep only compressed codes in memory)
+  public TinkerGraphStore(Function<EmbeddingMatrix, VectorIndex> indexFactory) {
     this.graph = TinkerGraph.open();
+    // Chunks are keyed by vertex id already; entity names get a property index
+    this.graph.createIndex("name", Vertex.class);
+    this.indexFactory = indexFactory;
+    this.index = indexFactory.apply(matrix);
   }
 
   @Override
@@ -33,12 +51,19 @@ public class TinkerGraphStore implements GraphStore {
   @Override
   public Vertex addChunk(String id, String text, float[] embedding) {
     Vertex v = graph.addVertex(T.label, "chunk", T.id, id, "text", text);
+    lexical.add(id, text);
     if (embedding != null && embedding.length > 0) {
-      v.property("embedding", embedding);
+      index.add(matrix.add(id, embedding));
     }
     return v;
   }
 
+  @Override
+  public float[] chunkEmbedding(String chunkId) {
+    int row = matrix.rowOf(chunkId);
+    return row < 0 ? null : matrix.row(row);
+  }
+
   @Override
   public Edge addEdge(Vertex from, Vertex to, String label, Map<String, Object> props) {
     Edge e = from.addEdge(label, to);
@@ -72,6 +97,19 @@ public class TinkerGraphStore implements GraphStore {
     return out;
   }
 
+  @Override
+  public Vertex chunkById(String id) {
+    Iterator<Vertex> it = graph.vertices(id);
+    if (!it.hasNext()) return null;
+    Vertex v = it.next();
+    return "chunk".equals(v.label()) ? v : null;
+  }
+
+  @Override
+  public Vertex entityByName(String name) {
+    return graph.traversal().V().has("name", name).hasLabel("entity").tryNext().orElse(null);
+  }
+
   // Graph traversal operations using iterator pattern
   @Override
   public List<Vertex> chunksMentioning(Vertex entity) {
@@ -93,6 +131,44 @@ public class TinkerGraphStore implements GraphStore {
     return out;
   }
 
+  @Override
+  public List<ScoredVertex> nearestChunks(float[] query, int k, boolean exact) {
+    List<ScoredVertex> out = new ArrayList<>();
+    if (matrix.rows() == 0) return out;
+    if (!exact) {
+      for (VectorIndex.Result r : index.search(query, k)) {
+        Iterator<Vertex> it = graph.vertices(r.id);
+        if (it.hasNext()) out.add(new ScoredVertex(it.next(), r.score));
+      }
+      return out;
+    }
+
+    // Exact mode: sequential brute-force scan of the matrix
+    for (VectorIndex.Result r : matrix.topK(query, k)) {
+      Iterator<Vertex> it = graph.vertices(r.id);
+      if (it.hasNext()) out.add(new ScoredVertex(it.next(), r.score));
+    }
+    return out;
+  }
+
+  @Override
+  public List<ScoredVertex> lexicalChunks(String query, int k) {
+    List<ScoredVertex> out = new ArrayList<>();
+    for (VectorIndex.Result r : lexical.search(query, k)) {
+      Vertex v = chunkById(r.id);
+      if (v != null) out.add(new ScoredVertex(v, r.score));
+    }
+    return out;
+  }
+
+  public VectorIndex getIndex() {
+    return index;
+  }
+
+  public EmbeddingMatrix getMatrix() {
+    return matrix;
+  }
+
   @Override
   public void saveGraph(String filename) throws IOException {
     File dir = new File("data");
@@ -109,26 +185,62 @@ public class TinkerGraphStore implements GraphStore {
     try (var in = new FileInputStream(file)) {
       org.apache.tinkerpop.gremlin.structure.io.graphml.GraphMLReader.build().create().readGraph(in, graph);
     }
+    // Chunks read from GraphML bypass addChunk, so index their text here
+    for (Vertex v : chunks()) {
+      if (v.property("text").isPresent()) lexical.add(v.id().toString(), v.value("text").toString());
+    }
   }
 
+  /**
+   * Save chunk embeddings. Files ending in ".json" use the legacy JSON layout;
+   * anything else is written in the memory-mappable {@link EmbeddingFile} format.
+   */
   @Override
   public void saveEmbeddings(String filename) throws IOException {
+    if (filename.endsWith(".json")) {
+      exportEmbeddingsJson(filename);
+    } else {
+      EmbeddingFile.write(matrix, new File("data", filename).toPath());
+    }
+  }
+
+  /**
+   * Load chunk embeddings, detecting the format from the file contents.
+   * Binary files are mapped zero-copy and replace the current matrix; JSON is imported row by row.
+   */
+  @Override
+  public void loadEmbeddings(String filename) throws IOException {
+    File f = new File("data", filename);
+    if (!f.exists()) return;
+
+    if (EmbeddingFile.isEmbeddingFile(f.toPath())) {
+      EmbeddingMatrix mapped = EmbeddingFile.map(f.toPath());
+      VectorIndex rebuilt = indexFactory.apply(mapped);
+      for (int row = 0; row < mapped.rows(); row++) rebuilt.add(row);
+      matrix = mapped;
+      index = rebuilt;
+    } else {
+      importEmbeddingsJson(filename);
+    }
+  }
+
+  // Legacy export: {"chunkId": [f, f, ...], ...}
+  public void exportEmbeddingsJson(String filename) throws IOException {
     File f = new File("data", filename);
+    EmbeddingMatrix m = matrix;
 
     try (BufferedWriter bw = new BufferedWriter(new FileWriter(f))) {
       bw.write("{\n");
       boolean firstVertex = true;
-      Iterator<Vertex> it = graph.vertices();
-      while (it.hasNext()) {
-        Vertex v = it.next();
-        if (!v.property("embedding").isPresent()) continue;
-        float[] emb = (float[]) v.property("embedding").value();
-        if (emb == null || emb.length == 0) continue;
+      for (int row = 0; row < m.rows(); row++) {
+        String id = m.idOf(row);
+        if (id == null) continue;
+        float[] emb = m.row(row);
 
         if (!firstVertex) bw.write(",\n");
         firstVertex = false;
 
-        bw.write("  \"" + v.id().toString() + "\": [");
+        bw.write("  \"" + id + "\": [");
         for (int i = 0; i < emb.length; i++) {
           if (i > 0) bw.write(",");
           bw.write(Float.toString(emb[i]));
@@ -139,29 +251,29 @@ public class TinkerGraphStore implements GraphStore {
     }
   }
 
-  @Override
-  public void loadEmbeddings(String filename) throws IOException {
+  // Legacy import, streamed token by token so no dimension is boxed
+  public void importEmbeddingsJson(String filename) throws IOException {
     File f = new File("data", filename);
     if (!f.exists()) return;
 
-    Map<String, List<Double>> data = MAPPER.readValue(
-            f,
-            new TypeReference<Map<String, List<Double>>>() {}
-    );
-
-    // Restore embeddings to vertices
-    for (Map.Entry<String, List<Double>> e : data.entrySet()) {
-      String vid = e.getKey();
-      List<Double> vals = e.getValue();
-      if (vals == null || vals.isEmpty()) continue;
-
-      float[] emb = new float[vals.size()];
-      for (int i = 0; i < vals.size(); i++) emb[i] = vals.get(i).floatValue();
-
-      Iterator<Vertex> it = graph.vertices(vid);
-      if (it.hasNext()) {
-        Vertex v = it.next();
-        v.property("embedding", emb);
+    try (JsonParser p = MAPPER.getFactory().createParser(f)) {
+      if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Expected JSON object in " + filename);
+      float[] buf = new float[1024];
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String vid = p.getCurrentName();
+        if (p.nextToken() != JsonToken.START_ARRAY) {
+          p.skipChildren();
+          continue;
+        }
+        int n = 0;
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+          if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+          buf[n++] = p.getFloatValue();
+        }
+        // Restore embeddings for chunk vertices present in the graph
+        if (n > 0 && graph.vertices(vid).hasNext()) {
+          index.add(matrix.add(vid, Arrays.copyOf(buf, n)));
+        }
       }
     }
   }
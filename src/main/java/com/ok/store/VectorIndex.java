@@ -0,0 +1,27 @@
+package com.ok.store;
+
+import java.util.List;
+
+/**
+ * Strategy interface for nearest-neighbour search over chunk embeddings.
+ * Implementations index rows of a shared {@link EmbeddingMatrix}, score by cosine similarity
+ * and skip rows the matrix has tombstoned. The owning GraphStore keeps them in sync.
+ */
+public interface VectorIndex {
+  // Index a row that has just been written to the backing EmbeddingMatrix
+  void add(int row);
+
+  // Top-k chunk ids by descending cosine similarity
+  List<Result> search(float[] query, int k);
+
+  // Value object for a scored chunk id
+  class Result {
+    public final String id;
+    public final double score;
+
+    public Result(String id, double score) {
+      this.id = id;
+      this.score = score;
+    }
+  }
+}
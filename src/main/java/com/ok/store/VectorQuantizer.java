@@ -0,0 +1,29 @@
+package com.ok.store;
+
+import java.util.List;
+
+/**
+ * Lossy codec that compresses (normalised) embeddings into fixed-size byte codes and scores a
+ * float query directly against those codes (asymmetric distance computation).
+ * Codebooks are learned from a sample of the corpus with {@link #train}.
+ */
+public interface VectorQuantizer {
+  void train(List<float[]> sample);
+
+  boolean isTrained();
+
+  int dims();
+
+  // Bytes per encoded vector
+  int codeBytes();
+
+  void encode(float[] vector, byte[] out, int offset);
+
+  // Precompute whatever the query needs so each code is scored with table lookups / int math
+  Scorer scorer(float[] query);
+
+  // Approximate dot product of the query with an encoded vector
+  interface Scorer {
+    float score(byte[] codes, int offset);
+  }
+}
@@ -0,0 +1,208 @@
+package com.ok.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Byte-level BPE tokenizer (GPT-2 / Qwen format) loaded from a vocab.json + merges.txt pair.
+ *
+ * Text is split into pre-tokens with the Qwen2 regex. Each pre-token is mapped byte by byte onto
+ * the printable byte alphabet, and the merges are applied lowest rank first. Merge pairs are keyed
+ * by the two token ids in a primitive long-keyed table. Pre-token encodings are cached, because
+ * the same words recur all over a document.
+ */
+public class BpeTokenizer implements TokenCounter {
+  // Qwen2 pre-tokenizer: contractions, letter runs with one leading non-letter, single digits,
+  // punctuation runs, newlines, and whitespace
+  public static final Pattern QWEN_PRETOKENIZE = Pattern.compile(
+      "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*"
+          + "|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+  private static final int CACHE_LIMIT = 100_000;
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final Map<String, Integer> vocab;
+  private final int[] byteIds = new int[256];
+  private final PairTable merges;
+  private final Pattern pretokenize;
+  private final Map<String, int[]> cache = new ConcurrentHashMap<>();
+
+  public BpeTokenizer(Map<String, Integer> vocab, List<String[]> mergePairs, Pattern pretokenize) {
+    this.vocab = vocab;
+    this.pretokenize = pretokenize;
+
+    char[] alphabet = byteAlphabet();
+    for (int b = 0; b < 256; b++) {
+      Integer id = vocab.get(String.valueOf(alphabet[b]));
+      if (id == null) throw new IllegalArgumentException("Vocabulary lacks byte symbol for 0x" + Integer.toHexString(b));
+      byteIds[b] = id;
+    }
+
+    merges = new PairTable(mergePairs.size());
+    for (int rank = 0; rank < mergePairs.size(); rank++) {
+      String[] pair = mergePairs.get(rank);
+      Integer left = vocab.get(pair[0]);
+      Integer right = vocab.get(pair[1]);
+      Integer merged = vocab.get(pair[0] + pair[1]);
+      if (left == null || right == null || merged == null) continue; // unusable merge
+      merges.putIfAbsent(left, right, rank, merged);
+    }
+  }
+
+  public static BpeTokenizer load(Path vocabJson, Path mergesTxt) throws IOException {
+    // vocab.json is a flat {"token": id} object with ~150k entries; stream it
+    Map<String, Integer> vocab = new HashMap<>(1 << 18);
+    try (JsonParser p = MAPPER.getFactory().createParser(vocabJson.toFile())) {
+      if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Expected JSON object in " + vocabJson);
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String token = p.getCurrentName();
+        p.nextToken();
+        vocab.put(token, p.getIntValue());
+      }
+    }
+
+    List<String[]> pairs = new ArrayList<>(1 << 17);
+    try (BufferedReader r = Files.newBufferedReader(mergesTxt, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = r.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#version")) continue;
+        int sp = line.indexOf(' ');
+        if (sp <= 0) continue;
+        pairs.add(new String[] { line.substring(0, sp), line.substring(sp + 1) });
+      }
+    }
+    return new BpeTokenizer(vocab, pairs, QWEN_PRETOKENIZE);
+  }
+
+  public int vocabularySize() {
+    return vocab.size();
+  }
+
+  @Override
+  public int count(CharSequence text) {
+    int n = 0;
+    Matcher m = pretokenize.matcher(text);
+    while (m.find()) n += encodeWord(m.group()).length;
+    return n;
+  }
+
+  public int[] encode(CharSequence text) {
+    int[] out = new int[16];
+    int n = 0;
+    Matcher m = pretokenize.matcher(text);
+    while (m.find()) {
+      int[] ids = encodeWord(m.group());
+      if (n + ids.length > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, n + ids.length));
+      System.arraycopy(ids, 0, out, n, ids.length);
+      n += ids.length;
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+  private int[] encodeWord(String word) {
+    int[] cached = cache.get(word);
+    if (cached != null) return cached;
+
+    byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+    int[] ids = new int[bytes.length];
+    for (int i = 0; i < bytes.length; i++) ids[i] = byteIds[bytes[i] & 0xFF];
+    int n = ids.length;
+
+    // Repeatedly merge the lowest-ranked adjacent pair
+    while (n > 1) {
+      int bestRank = Integer.MAX_VALUE;
+      int bestAt = -1;
+      for (int i = 0; i + 1 < n; i++) {
+        int rank = merges.rank(ids[i], ids[i + 1]);
+        if (rank < bestRank) {
+          bestRank = rank;
+          bestAt = i;
+        }
+      }
+      if (bestAt < 0) break;
+      int left = ids[bestAt];
+      int right = ids[bestAt + 1];
+      int merged = merges.merged(left, right);
+      // Merge every occurrence of the pair, left to right
+      int w = 0;
+      for (int i = 0; i < n; i++) {
+        if (i + 1 < n && ids[i] == left && ids[i + 1] == right) {
+          ids[w++] = merged;
+          i++;
+        } else {
+          ids[w++] = ids[i];
+        }
+      }
+      n = w;
+    }
+
+    int[] out = n == ids.length ? ids : Arrays.copyOf(ids, n);
+    if (cache.size() >= CACHE_LIMIT) cache.clear();
+    cache.put(word, out);
+    return out;
+  }
+
+  // GPT-2 byte-to-unicode table: printable bytes map to themselves, the rest to U+0100 onwards
+  private static char[] byteAlphabet() {
+    char[] out = new char[256];
+    int next = 0;
+    for (int b = 0; b < 256; b++) {
+      boolean printable = (b >= '!' && b <= '~') || (b >= 0xA1 && b <= 0xAC) || (b >= 0xAE && b <= 0xFF);
+      out[b] = printable ? (char) b : (char) (256 + next++);
+    }
+    return out;
+  }
+
+  // Open-addressing (left id, right id) -> (rank, merged id) table
+  private static final class PairTable {
+    private final long[] keys;
+    private final int[] ranks;
+    private final int[] mergedIds;
+    private final int mask;
+
+    PairTable(int expected) {
+      int cap = Integer.highestOneBit(Math.max(16, expected) * 2 - 1) << 1;
+      keys = new long[cap];
+      Arrays.fill(keys, -1L);
+      ranks = new int[cap];
+      mergedIds = new int[cap];
+      mask = cap - 1;
+    }
+
+    private int slot(long key) {
+      int h = Long.hashCode(key * 0x9E3779B97F4A7C15L);
+      int i = h & mask;
+      while (keys[i] != -1L && keys[i] != key) i = (i + 1) & mask;
+      return i;
+    }
+
+    void putIfAbsent(int left, int right, int rank, int merged) {
+      long key = ((long) left << 32) | (right & 0xFFFFFFFFL);
+      int i = slot(key);
+      if (keys[i] == key) return; // keep the lower (earlier) rank
+      keys[i] = key;
+      ranks[i] = rank;
+      mergedIds[i] = merged;
+    }
+
+    int rank(int left, int right) {
+      long key = ((long) left << 32) | (right & 0xFFFFFFFFL);
+      int i = slot(key);
+      return keys[i] == key ? ranks[i] : Integer.MAX_VALUE;
+    }
+
+    int merged(int left, int right) {
+      return mergedIds[slot(((long) left << 32) | (right & 0xFFFFFFFFL))];
+    }
+  }
+}
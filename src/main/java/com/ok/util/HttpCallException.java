@@ -0,0 +1,36 @@
+package com.ok.util;
+
+import java.io.IOException;
+
+/**
+ * An HTTP call that failed for good: retries exhausted, or rejected because the endpoint's
+ * circuit is open. Carries enough to report the failure instead of swallowing it.
+ */
+public class HttpCallException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final String endpoint;
+  private final int status;
+  private final boolean retryable;
+  private final int attempts;
+
+  public HttpCallException(String message, String endpoint, int status, boolean retryable, int attempts,
+                           Throwable cause) {
+    super(message, cause);
+    this.endpoint = endpoint;
+    this.status = status;
+    this.retryable = retryable;
+    this.attempts = attempts;
+  }
+
+  // host:port the call went to
+  public String getEndpoint() { return endpoint; }
+
+  // Last HTTP status seen, or -1 if no response arrived
+  public int getStatus() { return status; }
+
+  // False when the call was rejected without being sent because the circuit was open
+  public boolean isRetryable() { return retryable; }
+
+  public int getAttempts() { return attempts; }
+}
@@ -0,0 +1,329 @@
+package com.ok.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * One long-lived HTTP client per remote endpoint, so connections (and TLS sessions) are reused
+ * across every caller instead of each class or call building its own client.
+ *
+ * Each transport applies a default request timeout, caps concurrent requests with a semaphore,
+ * asks for gzip responses where the server supports them and inflates them as they stream in,
+ * and records per-endpoint latency. The clients run their async work on virtual threads.
+ * Latency and the concurrency permit cover the time until {@link #send} returns: the whole body
+ * for buffering handlers such as ofString, only the headers for streaming ones such as ofLines.
+ */
+public final class HttpTransport {
+
+  public enum Endpoint {
+    // Local plain-HTTP server; generation can take minutes
+    OLLAMA(HttpClient.Version.HTTP_1_1, Duration.ofMinutes(10), 16, false),
+    SUPABASE(HttpClient.Version.HTTP_2, Duration.ofSeconds(60), 16, true),
+    // The query service allows 5 concurrent queries per client
+    WIKIDATA(HttpClient.Version.HTTP_2, Duration.ofSeconds(60), 5, true);
+
+    final HttpClient.Version version;
+    final Duration requestTimeout;
+    final int maxConcurrent;
+    final boolean gzipResponses;
+
+    Endpoint(HttpClient.Version version, Duration requestTimeout, int maxConcurrent, boolean gzipResponses) {
+      this.version = version;
+      this.requestTimeout = requestTimeout;
+      this.maxConcurrent = maxConcurrent;
+      this.gzipResponses = gzipResponses;
+    }
+  }
+
+  public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+  // Smaller request bodies aren't worth compressing
+  private static final int GZIP_MIN_BYTES = 1024;
+
+  private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+  private static final Map<Endpoint, HttpTransport> SHARED = new EnumMap<>(Endpoint.class);
+
+  private final String name;
+  private final HttpClient client;
+  private final Duration requestTimeout;
+  private final Semaphore permits;
+  private final boolean gzipResponses;
+  private final boolean gzipRequests;
+  private final Stats stats = new Stats();
+
+  /**
+   * @param gzipResponses send Accept-Encoding: gzip
+   * @param gzipRequests  compress request bodies built with {@link #post}; only for servers
+   *                      that decode Content-Encoding on requests (Ollama and PostgREST don't)
+   */
+  public HttpTransport(String name, HttpClient client, Duration requestTimeout, int maxConcurrent,
+                       boolean gzipResponses, boolean gzipRequests) {
+    this.name = name;
+    this.client = client;
+    this.requestTimeout = requestTimeout;
+    this.permits = new Semaphore(maxConcurrent);
+    this.gzipResponses = gzipResponses;
+    this.gzipRequests = gzipRequests;
+  }
+
+  // The shared transport for an endpoint, created on first use
+  public static synchronized HttpTransport of(Endpoint endpoint) {
+    return SHARED.computeIfAbsent(endpoint, e -> new HttpTransport(
+        e.name().toLowerCase(Locale.ROOT),
+        HttpClient.newBuilder()
+            .version(e.version)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(EXECUTOR)
+            .build(),
+        e.requestTimeout, e.maxConcurrent, e.gzipResponses, false));
+  }
+
+  // Latency of every shared transport created so far, one line each
+  public static synchronized String report() {
+    StringBuilder sb = new StringBuilder();
+    for (HttpTransport t : SHARED.values()) {
+      if (sb.length() > 0) sb.append('\n');
+      sb.append(t);
+    }
+    return sb.toString();
+  }
+
+  public HttpClient client() {
+    return client;
+  }
+
+  public Stats stats() {
+    return stats;
+  }
+
+  // Request builder with the endpoint's timeout and encoding headers
+  public HttpRequest.Builder request(URI uri) {
+    HttpRequest.Builder b = HttpRequest.newBuilder(uri).timeout(requestTimeout);
+    if (gzipResponses) b.header("Accept-Encoding", "gzip");
+    return b;
+  }
+
+  public HttpRequest.Builder post(URI uri, byte[] body) {
+    HttpRequest.Builder b = request(uri);
+    if (gzipRequests && body.length >= GZIP_MIN_BYTES) {
+      return b.header("Content-Encoding", "gzip").POST(HttpRequest.BodyPublishers.ofByteArray(gzip(body)));
+    }
+    return b.POST(HttpRequest.BodyPublishers.ofByteArray(body));
+  }
+
+  /**
+   * Send within the endpoint's concurrency limit. Requests without a timeout get the endpoint's
+   * default; gzip-encoded responses reach the handler inflated.
+   */
+  public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+      throws IOException, InterruptedException {
+    if (request.timeout().isEmpty()) {
+      request = HttpRequest.newBuilder(request, (header, value) -> true).timeout(requestTimeout).build();
+    }
+    permits.acquire();
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      HttpResponse<T> response = client.send(request, inflating(handler));
+      ok = response.statusCode() < 500;
+      return response;
+    } finally {
+      permits.release();
+      stats.record(System.nanoTime() - start, ok);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "HttpTransport[" + name + "] " + stats;
+  }
+
+  static byte[] gzip(byte[] body) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+    try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+      gz.write(body);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static <T> HttpResponse.BodyHandler<T> inflating(HttpResponse.BodyHandler<T> handler) {
+    return info -> {
+      boolean gzipped = info.headers().firstValue("Content-Encoding")
+          .map(v -> v.trim().equalsIgnoreCase("gzip")).orElse(false);
+      return gzipped ? new GunzipSubscriber<>(handler.apply(info)) : handler.apply(info);
+    };
+  }
+
+  /** Request counts and latency; percentiles over the most recent requests. */
+  public static final class Stats {
+    private static final int WINDOW = 1024;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final long[] recent = new long[WINDOW];
+    private int recentCount;
+    private int recentNext;
+
+    void record(long nanos, boolean ok) {
+      requests.increment();
+      if (!ok) errors.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+      synchronized (recent) {
+        recent[recentNext] = nanos;
+        recentNext = (recentNext + 1) % WINDOW;
+        if (recentCount < WINDOW) recentCount++;
+      }
+    }
+
+    public long requests() { return requests.sum(); }
+    // Transport failures and 5xx responses
+    public long errors() { return errors.sum(); }
+
+    public double meanMillis() {
+      long n = requests.sum();
+      return n == 0 ? 0.0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    public double maxMillis() { return maxNanos.get() / 1e6; }
+
+    public double percentileMillis(double p) {
+      long[] sorted;
+      synchronized (recent) {
+        sorted = Arrays.copyOf(recent, recentCount);
+      }
+      if (sorted.length == 0) return 0.0;
+      Arrays.sort(sorted);
+      int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("requests=%d errors=%d mean=%.1fms p50=%.1fms p95=%.1fms max=%.1fms",
+          requests(), errors(), meanMillis(), percentileMillis(50), percentileMillis(95), maxMillis());
+    }
+  }
+
+  // Inflates a gzip body chunk by chunk on its way to the wrapped subscriber
+  private static final class GunzipSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+    private final HttpResponse.BodySubscriber<T> downstream;
+    private final Inflater inflater = new Inflater(true); // raw deflate; the gzip framing is parsed here
+    private final byte[] window = new byte[16 * 1024];
+    private byte[] header = new byte[0]; // buffered until the variable-length gzip header is complete
+    private boolean inBody;
+    private boolean failed;
+    private Flow.Subscription subscription;
+
+    GunzipSubscriber(HttpResponse.BodySubscriber<T> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public CompletionStage<T> getBody() {
+      return downstream.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      downstream.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+      if (failed) return;
+      List<ByteBuffer> out = new ArrayList<>();
+      try {
+        for (ByteBuffer item : items) {
+          byte[] bytes = new byte[item.remaining()];
+          item.get(bytes);
+          int off = 0;
+          if (!inBody) {
+            byte[] h = Arrays.copyOf(header, header.length + bytes.length);
+            System.arraycopy(bytes, 0, h, header.length, bytes.length);
+            int len = headerLength(h);
+            if (len < 0) {
+              header = h;
+              continue;
+            }
+            bytes = h;
+            off = len;
+            header = null;
+            inBody = true;
+          }
+          if (inflater.finished()) continue; // the CRC/size trailer
+          inflater.setInput(bytes, off, bytes.length - off);
+          int n;
+          while ((n = inflater.inflate(window)) > 0) out.add(ByteBuffer.wrap(Arrays.copyOf(window, n)));
+        }
+      } catch (IOException | DataFormatException e) {
+        failed = true;
+        subscription.cancel();
+        inflater.end();
+        downstream.onError(e instanceof IOException ? e : new IOException("Corrupt gzip response body", e));
+        return;
+      }
+      // Downstream asked for one item per upstream item; keep its demand if there's nothing to pass on yet
+      if (out.isEmpty()) subscription.request(1);
+      else downstream.onNext(out);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      if (failed) return;
+      inflater.end();
+      downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      if (failed) return;
+      inflater.end();
+      downstream.onComplete();
+    }
+
+    // Length of the gzip header (RFC 1952) at the start of h, or -1 if more bytes are needed
+    private static int headerLength(byte[] h) throws IOException {
+      if (h.length < 10) return -1;
+      if ((h[0] & 0xFF) != 0x1F || (h[1] & 0xFF) != 0x8B || h[2] != 8) throw new IOException("Not a gzip body");
+      int flags = h[3];
+      int p = 10;
+      if ((flags & 4) != 0) { // FEXTRA
+        if (h.length < p + 2) return -1;
+        p += 2 + ((h[p] & 0xFF) | (h[p + 1] & 0xFF) << 8);
+      }
+      if ((flags & 8) != 0) p = skipZeroTerminated(h, p);  // FNAME
+      if (p >= 0 && (flags & 16) != 0) p = skipZeroTerminated(h, p); // FCOMMENT
+      if (p >= 0 && (flags & 2) != 0) p += 2; // FHCRC
+      return p >= 0 && p <= h.length ? p : -1;
+    }
+
+    private static int skipZeroTerminated(byte[] h, int p) {
+      while (p < h.length && h[p] != 0) p++;
+      return p < h.length ? p + 1 : -1;
+    }
+  }
+}
@@ -0,0 +1,383 @@
+package com.ok.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Retries, a circuit breaker and optional hedging on top of an {@link HttpTransport}, for calls
+ * that are safe to repeat (model generation and embedding, vector search).
+ *
+ * Transport errors and 408/429/5xx responses are retried with capped exponential backoff plus
+ * jitter, honouring Retry-After. Each host:port has one breaker shared by every caller: after
+ * failureThreshold consecutive failures it opens and calls fail fast until openDuration has
+ * passed, then a single probe decides whether it closes again. With a replica configured, calls
+ * fail over to it while the primary's circuit is open, and with a hedge delay a copy of a slow
+ * request is sent to the replica; the first good response wins and the other is cancelled.
+ *
+ * Other statuses (2xx, 4xx) are returned as-is. When retries run out, or the circuit is open,
+ * {@link HttpCallException} is thrown.
+ */
+public final class ResilientHttp {
+  private static final Logger LOGGER = Logger.getLogger(ResilientHttp.class.getName());
+  private static final ExecutorService HEDGES = Executors.newVirtualThreadPerTaskExecutor();
+  private static final Map<String, Circuit> CIRCUITS = new ConcurrentHashMap<>();
+  private static final Map<HttpTransport.Endpoint, ResilientHttp> SHARED = new EnumMap<>(HttpTransport.Endpoint.class);
+
+  public static final class Policy {
+    public static final Policy DEFAULT = new Policy(3, Duration.ofMillis(200), Duration.ofSeconds(5), 5,
+        Duration.ofSeconds(30), null);
+
+    final int maxAttempts;
+    final Duration baseBackoff;
+    final Duration maxBackoff;
+    final int failureThreshold;
+    final Duration openDuration;
+    final Duration hedgeDelay;
+
+    /**
+     * @param maxAttempts      tries per call, including the first
+     * @param failureThreshold consecutive failures that open an endpoint's circuit
+     * @param openDuration     how long an open circuit rejects calls before letting a probe through
+     * @param hedgeDelay       wait before sending a copy to the replica, or null to never hedge
+     */
+    public Policy(int maxAttempts, Duration baseBackoff, Duration maxBackoff, int failureThreshold,
+                  Duration openDuration, Duration hedgeDelay) {
+      this.maxAttempts = Math.max(1, maxAttempts);
+      this.baseBackoff = baseBackoff;
+      this.maxBackoff = maxBackoff;
+      this.failureThreshold = Math.max(1, failureThreshold);
+      this.openDuration = openDuration;
+      this.hedgeDelay = hedgeDelay;
+    }
+
+    public Policy withHedgeDelay(Duration hedgeDelay) {
+      return new Policy(maxAttempts, baseBackoff, maxBackoff, failureThreshold, openDuration, hedgeDelay);
+    }
+  }
+
+  private final HttpTransport transport;
+  private final Policy policy;
+  private final String replicaBase;
+
+  public ResilientHttp(HttpTransport transport, Policy policy) {
+    this(transport, policy, null);
+  }
+
+  /**
+   * @param replicaBase scheme://host:port of a second server with the same API, or null; request
+   *                    paths and queries are kept when a call goes there
+   */
+  public ResilientHttp(HttpTransport transport, Policy policy, String replicaBase) {
+    this.transport = transport;
+    this.policy = policy;
+    this.replicaBase = replicaBase == null || replicaBase.isBlank() ? null : replicaBase.replaceAll("/+$", "");
+  }
+
+  /**
+   * The shared wrapper for an endpoint's shared transport. For Ollama, OLLAMA_REPLICA_URL and
+   * OLLAMA_HEDGE_MS in config.properties enable failover and hedging.
+   */
+  public static synchronized ResilientHttp of(HttpTransport.Endpoint endpoint) {
+    return SHARED.computeIfAbsent(endpoint, e -> {
+      if (e != HttpTransport.Endpoint.OLLAMA) return new ResilientHttp(HttpTransport.of(e), Policy.DEFAULT);
+      Properties props = new Properties();
+      try (InputStream in = new FileInputStream("config.properties")) {
+        props.load(in);
+      } catch (IOException ignore) {
+        // no replica, no hedging
+      }
+      String hedgeMs = props.getProperty("OLLAMA_HEDGE_MS", "").trim();
+      Policy policy = hedgeMs.isEmpty() ? Policy.DEFAULT
+          : Policy.DEFAULT.withHedgeDelay(Duration.ofMillis(Long.parseLong(hedgeMs)));
+      return new ResilientHttp(HttpTransport.of(e), policy, props.getProperty("OLLAMA_REPLICA_URL"));
+    });
+  }
+
+  // Breaker state and counters of every endpoint called so far, one line each
+  public static String report() {
+    StringBuilder sb = new StringBuilder();
+    for (Circuit c : new TreeMap<>(CIRCUITS).values()) {
+      if (sb.length() > 0) sb.append('\n');
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  public HttpTransport transport() {
+    return transport;
+  }
+
+  public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+      throws IOException, InterruptedException {
+    IOException lastError = null;
+    int lastStatus = -1;
+    for (int attempt = 1; ; attempt++) {
+      long retryAfterMillis = -1;
+      try {
+        HttpResponse<T> response = attempt(request, handler);
+        if (!retryable(response.statusCode())) return response;
+        lastStatus = response.statusCode();
+        lastError = null;
+        retryAfterMillis = response.headers().firstValue("Retry-After").map(ResilientHttp::seconds)
+            .orElse(-1L);
+        discard(response);
+      } catch (HttpCallException e) {
+        if (!e.isRetryable()) throw e;
+        lastStatus = -1;
+        lastError = e;
+      } catch (IOException e) {
+        lastStatus = -1;
+        lastError = e;
+      }
+
+      String endpoint = authority(request.uri());
+      if (attempt >= policy.maxAttempts) {
+        String cause = lastStatus >= 0 ? "HTTP " + lastStatus : String.valueOf(lastError);
+        throw new HttpCallException(request.method() + " " + request.uri() + " failed after " + attempt
+            + " attempt(s): " + cause, endpoint, lastStatus, true, attempt, lastError);
+      }
+      circuit(endpoint).retries.increment();
+      long wait = backoffMillis(attempt, retryAfterMillis);
+      LOGGER.fine(() -> endpoint + " attempt failed, retrying in " + wait + " ms");
+      Thread.sleep(wait);
+    }
+  }
+
+  // One try: the primary, the replica if the primary's circuit is open, or both when hedging
+  private <T> HttpResponse<T> attempt(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+      throws IOException, InterruptedException {
+    Circuit primary = circuit(authority(request.uri()));
+    if (replicaBase == null) {
+      if (!primary.allow()) throw open(primary, request);
+      return call(primary, request, handler);
+    }
+    HttpRequest copy = toReplica(request);
+    Circuit replica = circuit(authority(copy.uri()));
+    if (!primary.allow()) {
+      if (!replica.allow()) throw open(replica, copy);
+      return call(replica, copy, handler);
+    }
+    if (policy.hedgeDelay == null) return call(primary, request, handler);
+    return hedge(primary, request, replica, copy, handler);
+  }
+
+  private <T> HttpResponse<T> call(Circuit circuit, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+      throws IOException, InterruptedException {
+    circuit.calls.increment();
+    try {
+      HttpResponse<T> response = transport.send(request, handler);
+      if (retryable(response.statusCode())) circuit.failure(policy);
+      else circuit.success();
+      return response;
+    } catch (IOException e) {
+      circuit.failure(policy);
+      throw e;
+    } catch (InterruptedException e) {
+      circuit.abandoned();
+      throw e;
+    }
+  }
+
+  private <T> HttpResponse<T> hedge(Circuit primary, HttpRequest request, Circuit replica, HttpRequest copy,
+                                    HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+    Race<T> race = new Race<>();
+    List<Future<?>> legs = new ArrayList<>(2);
+    legs.add(HEDGES.submit(() -> race.run(false, () -> call(primary, request, handler))));
+    try {
+      Leg<T> leg = race.done.poll(policy.hedgeDelay.toMillis(), TimeUnit.MILLISECONDS);
+      if (leg == null && replica.allow()) {
+        primary.hedges.increment();
+        legs.add(HEDGES.submit(() -> race.run(true, () -> call(replica, copy, handler))));
+      }
+      HttpResponse<T> fallback = null;
+      IOException error = null;
+      for (int outstanding = legs.size(); outstanding > 0; outstanding--) {
+        if (leg == null) leg = race.done.take();
+        if (leg.response != null && !retryable(leg.response.statusCode())) {
+          if (leg.hedge) primary.hedgeWins.increment();
+          race.settle(leg);
+          discard(fallback);
+          return leg.response;
+        }
+        // Keep one retryable response for the retry loop to inspect; drop the rest
+        if (leg.response != null && fallback == null) fallback = leg.response;
+        else if (leg.response != null) discard(leg.response);
+        else error = leg.error;
+        leg = null;
+      }
+      race.settle(null);
+      if (fallback != null) return fallback;
+      throw error;
+    } finally {
+      for (Future<?> f : legs) f.cancel(true);
+    }
+  }
+
+  private HttpRequest toReplica(HttpRequest request) {
+    URI uri = request.uri();
+    String target = replicaBase + uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+    return HttpRequest.newBuilder(request, (name, value) -> true).uri(URI.create(target)).build();
+  }
+
+  private long backoffMillis(int attempt, long retryAfterMillis) {
+    long max = policy.maxBackoff.toMillis();
+    if (retryAfterMillis >= 0) return Math.min(retryAfterMillis, max);
+    long exp = Math.min(max, policy.baseBackoff.toMillis() << Math.min(attempt - 1, 20));
+    return Math.min(max, exp + ThreadLocalRandom.current().nextLong(exp / 2 + 1));
+  }
+
+  private static HttpCallException open(Circuit circuit, HttpRequest request) {
+    circuit.rejected.increment();
+    return new HttpCallException("Circuit open for " + circuit.endpoint + ", not sending " + request.method()
+        + " " + request.uri(), circuit.endpoint, -1, false, 0, null);
+  }
+
+  static boolean retryable(int status) {
+    return status == 408 || status == 429 || status >= 500;
+  }
+
+  private static Long seconds(String retryAfter) {
+    try {
+      return Long.parseLong(retryAfter.trim()) * 1000;
+    } catch (NumberFormatException e) {
+      return -1L; // an HTTP date; use our own backoff
+    }
+  }
+
+  // Close a response we won't hand out, so a streaming body releases its connection
+  private static void discard(HttpResponse<?> response) {
+    if (response != null && response.body() instanceof AutoCloseable body) {
+      try {
+        body.close();
+      } catch (Exception ignore) {
+        // already failed or closed
+      }
+    }
+  }
+
+  private static String authority(URI uri) {
+    int port = uri.getPort() >= 0 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    return uri.getHost() + ":" + port;
+  }
+
+  private static Circuit circuit(String endpoint) {
+    return CIRCUITS.computeIfAbsent(endpoint, Circuit::new);
+  }
+
+  @FunctionalInterface
+  private interface Call<T> {
+    HttpResponse<T> send() throws IOException, InterruptedException;
+  }
+
+  private record Leg<T>(boolean hedge, HttpResponse<T> response, IOException error) { }
+
+  // Collects leg outcomes until a winner is settled; anything finishing after that is discarded
+  private static final class Race<T> {
+    final BlockingQueue<Leg<T>> done = new LinkedBlockingQueue<>();
+    private boolean settled;
+
+    void run(boolean hedge, Call<T> call) {
+      Leg<T> leg;
+      try {
+        leg = new Leg<>(hedge, call.send(), null);
+      } catch (IOException e) {
+        leg = new Leg<>(hedge, null, e);
+      } catch (InterruptedException e) {
+        leg = new Leg<>(hedge, null, new IOException("Hedged request interrupted", e));
+      }
+      synchronized (this) {
+        if (!settled) {
+          done.add(leg);
+          return;
+        }
+      }
+      discard(leg.response);
+    }
+
+    synchronized void settle(Leg<T> winner) {
+      settled = true;
+      for (Leg<T> leg : done) if (leg != winner) discard(leg.response);
+      done.clear();
+    }
+  }
+
+  private enum State { CLOSED, OPEN, HALF_OPEN }
+
+  // Breaker and counters for one host:port
+  private static final class Circuit {
+    final String endpoint;
+    final LongAdder calls = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder retries = new LongAdder();
+    final LongAdder hedges = new LongAdder();
+    final LongAdder hedgeWins = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probing;
+
+    Circuit(String endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    // Whether a call may go out now; lets one probe through once an open circuit has cooled down
+    synchronized boolean allow() {
+      switch (state) {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (System.nanoTime() - openUntil < 0) return false;
+          state = State.HALF_OPEN;
+          probing = true;
+          return true;
+        default:
+          if (probing) return false;
+          probing = true;
+          return true;
+      }
+    }
+
+    synchronized void success() {
+      state = State.CLOSED;
+      consecutiveFailures = 0;
+      probing = false;
+    }
+
+    synchronized void failure(Policy policy) {
+      failures.increment();
+      consecutiveFailures++;
+      probing = false;
+      if (state == State.HALF_OPEN || consecutiveFailures >= policy.failureThreshold) {
+        if (state != State.OPEN) LOGGER.warning("Circuit for " + endpoint + " opened after "
+            + consecutiveFailures + " consecutive failure(s)");
+        state = State.OPEN;
+        openUntil = System.nanoTime() + policy.openDuration.toNanos();
+      }
+    }
+
+    // A cancelled call says nothing about the endpoint, but must free the probe slot
+    synchronized void abandoned() {
+      probing = false;
+    }
+
+    synchronized State state() {
+      return state;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("ResilientHttp[%s] state=%s calls=%d failures=%d retries=%d hedges=%d hedgeWins=%d rejected=%d",
+          endpoint, state(), calls.sum(), failures.sum(), retries.sum(), hedges.sum(), hedgeWins.sum(), rejected.sum());
+    }
+  }
+}
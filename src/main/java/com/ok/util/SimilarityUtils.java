@@ -1,21 +1,14 @@
 package com.ok.util;
 
+import com.ok.embeddings.VectorMath;
+
 /**
- * Optimized cosine similarity calculation with error handling.
- * Uses mathematical optimization for performance-critical operations.
+ * Cosine similarity with error handling; delegates to the shared {@link VectorMath} kernels.
  */
 public class SimilarityUtils {
-  /** Compute cosine similarity between two float vectors */
+  /** Compute cosine similarity between two float vectors; throws if the lengths differ */
     public static double cosine(float[] v1, float[] v2) {
-      if (v1.length != v2.length) throw new IllegalArgumentException("Vector length mismatch");
-      double dot = 0.0, norm1 = 0.0, norm2 = 0.0;
-      for (int i = 0; i < v1.length; i++) {
-          dot += v1[i] * v2[i];
-          norm1 += v1[i] * v1[i];
-          norm2 += v2[i] * v2[i];
-      }
-      if (norm1 == 0 || norm2 == 0) return 0.0;
-      return dot / (Math.sqrt(norm1) * Math.sqrt(norm2));
+      return VectorMath.cosine(v1, v2);
     }
 
 }
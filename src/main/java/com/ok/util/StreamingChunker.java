@@ -0,0 +1,278 @@
+package com.ok.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sentence-greedy chunker that reads its input once and emits chunks as it goes.
+ *
+ * A hand-written scanner splits the input into words and whitespace runs. A run that follows
+ * '.', '!' or '?' ends a sentence. Inside a sentence, runs of spaces/tabs collapse to one space
+ * and runs of newlines to one newline, the same normalisation the regex-based chunker applied.
+ * Sentences are packed greedily up to {@code targetTokens} tokens, as measured by the
+ * {@link TokenCounter} (whitespace-separated words by default). A chunk may start with the
+ * trailing sentences of the previous chunk (up to {@code overlapTokens} tokens). No chunk is
+ * longer than {@code maxChars}: a sentence that alone exceeds it is cut at a word boundary.
+ *
+ * Only the current chunk and one sentence are buffered, so the first chunks are available
+ * before the reader is exhausted. IO errors surface as {@link UncheckedIOException}.
+ */
+public class StreamingChunker implements Iterator<String> {
+  private final Reader in;
+  private final TokenCounter counter;
+  private final int targetTokens;
+  private final int overlapTokens;
+  private final int maxChars;
+
+  private final char[] buf = new char[8192];
+  private int pos;
+  private int lim;
+  private int pushback = -1;
+  private boolean eof;
+
+  private final StringBuilder sentence = new StringBuilder();
+  // Sentences waiting to be placed (the overflow sentence, or pieces of an over-long one)
+  private final ArrayDeque<Sentence> queued = new ArrayDeque<>();
+  private final ArrayDeque<Sentence> cur = new ArrayDeque<>();
+  private int curTokens;
+  private int curChars;
+  private boolean curHasNew; // cur holds more than the overlap carried from the last chunk
+  private String next;
+
+  private record Sentence(String text, int tokens) { }
+
+  public StreamingChunker(Reader in, int targetTokens, int overlapTokens, int maxChars) {
+    this(in, TokenCounter.WORDS, targetTokens, overlapTokens, maxChars);
+  }
+
+  public StreamingChunker(Reader in, TokenCounter counter, int targetTokens, int overlapTokens, int maxChars) {
+    if (targetTokens <= 0) throw new IllegalArgumentException("targetTokens must be positive");
+    if (overlapTokens < 0 || overlapTokens >= targetTokens) {
+      throw new IllegalArgumentException("overlapTokens must be in [0, targetTokens)");
+    }
+    if (maxChars <= 0) throw new IllegalArgumentException("maxChars must be positive");
+    this.in = in;
+    this.counter = counter;
+    this.targetTokens = targetTokens;
+    this.overlapTokens = overlapTokens;
+    this.maxChars = maxChars;
+  }
+
+  public StreamingChunker(CharSequence text, int targetTokens) {
+    this(new StringReader(text.toString()), targetTokens, 0, Integer.MAX_VALUE);
+  }
+
+  public static Stream<String> stream(Reader in, TokenCounter counter, int targetTokens, int overlapTokens, int maxChars) {
+    Iterator<String> it = new StreamingChunker(in, counter, targetTokens, overlapTokens, maxChars);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) next = advance();
+    return next != null;
+  }
+
+  @Override
+  public String next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    String out = next;
+    next = null;
+    return out;
+  }
+
+  // Build the next chunk, or null at the end of input
+  private String advance() {
+    while (true) {
+      Sentence s = queued.isEmpty() ? readSentence() : queued.pollFirst();
+      if (s == null) {
+        if (!curHasNew) return null;
+        String out = join();
+        cur.clear();
+        curTokens = curChars = 0;
+        curHasNew = false;
+        return out;
+      }
+
+      if (curHasNew && !fits(s)) {
+        queued.addFirst(s);
+        String out = join();
+        keepOverlap();
+        return out;
+      }
+      // Carried overlap gives way to new text when both don't fit
+      while (!cur.isEmpty() && !fits(s)) removeFirst();
+      cur.addLast(s);
+      curChars += (cur.size() > 1 ? 1 : 0) + s.text.length();
+      curTokens += s.tokens;
+      curHasNew = true;
+    }
+  }
+
+  private boolean fits(Sentence s) {
+    return curTokens + s.tokens <= targetTokens
+        && (long) curChars + (cur.isEmpty() ? 0 : 1) + s.text.length() <= maxChars;
+  }
+
+  private void removeFirst() {
+    Sentence s = cur.pollFirst();
+    curTokens -= s.tokens;
+    curChars -= s.text.length() + (cur.isEmpty() ? 0 : 1);
+  }
+
+  // Drop all but the trailing sentences that fit in the overlap window
+  private void keepOverlap() {
+    int kept = 0;
+    int tokens = 0;
+    for (Iterator<Sentence> it = cur.descendingIterator(); it.hasNext(); ) {
+      Sentence s = it.next();
+      if (tokens + s.tokens > overlapTokens) break;
+      tokens += s.tokens;
+      kept++;
+    }
+    while (cur.size() > kept) removeFirst();
+    curHasNew = false;
+  }
+
+  private String join() {
+    StringBuilder sb = new StringBuilder(curChars);
+    for (Sentence s : cur) {
+      if (sb.length() > 0) sb.append(' ');
+      sb.append(s.text);
+    }
+    return sb.toString();
+  }
+
+  // Scan one sentence; over-long sentences are queued as maxChars-sized pieces
+  private Sentence readSentence() {
+    sentence.setLength(0);
+    int tokens = 0;
+    int c = read();
+    while (c >= 0 && isSpace(c)) c = read();
+    if (c < 0) return null;
+
+    while (true) {
+      // One word
+      tokens++;
+      int last;
+      do {
+        sentence.append((char) c);
+        last = c;
+        c = read();
+      } while (c >= 0 && !isSpace(c));
+      if (c < 0) break;
+
+      // The whitespace run after it, normalised
+      int mark = sentence.length();
+      c = appendWhitespace(c);
+      if (c < 0 || last == '.' || last == '!' || last == '?') {
+        sentence.setLength(mark);
+        pushback = c;
+        break;
+      }
+    }
+
+    if (sentence.length() <= maxChars) {
+      String text = sentence.toString();
+      return new Sentence(text, counter == TokenCounter.WORDS ? tokens : countJoined(text));
+    }
+    splitLong();
+    return queued.pollFirst();
+  }
+
+  // Consume a whitespace run starting at c; returns the first char after it (or -1)
+  private int appendWhitespace(int c) {
+    int prev = -1;
+    while (c >= 0 && isSpace(c)) {
+      if (c == '\r' && peek() == '\n') {
+        c = read();
+        continue; // CRLF is a newline
+      }
+      if (c == ' ' || c == '\t') {
+        if (prev != ' ') sentence.append(' ');
+        prev = ' ';
+      } else if (c == '\n') {
+        if (prev != '\n') sentence.append('\n');
+        prev = '\n';
+      } else {
+        sentence.append((char) c);
+        prev = c;
+      }
+      c = read();
+    }
+    return c;
+  }
+
+  // Cut the buffered sentence into pieces of at most maxChars, preferring word boundaries
+  private void splitLong() {
+    int start = 0;
+    int len = sentence.length();
+    while (start < len) {
+      int end = Math.min(len, start + maxChars);
+      if (end < len) {
+        int cut = end;
+        while (cut > start && !isSpace(sentence.charAt(cut))) cut--;
+        if (cut > start) end = cut;
+      }
+      int s = start;
+      int e = end;
+      while (e > s && isSpace(sentence.charAt(e - 1))) e--;
+      if (e > s) {
+        String piece = sentence.substring(s, e);
+        queued.addLast(new Sentence(piece, countJoined(piece)));
+      }
+      start = end;
+      while (start < len && isSpace(sentence.charAt(start))) start++;
+    }
+  }
+
+  // Tokens of a sentence as it appears after the joining space, which BPE folds into the
+  // first word; an upper bound for the chunk's first sentence
+  private int countJoined(String text) {
+    return counter.count(" " + text);
+  }
+
+  // Same set as the regex \s
+  private static boolean isSpace(int c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+  }
+
+  private int read() {
+    if (pushback != -1) {
+      int c = pushback;
+      pushback = -1;
+      return c;
+    }
+    if (pos == lim && !fill()) return -1;
+    return buf[pos++];
+  }
+
+  private int peek() {
+    if (pos == lim && !fill()) return -1;
+    return buf[pos];
+  }
+
+  private boolean fill() {
+    if (eof) return false;
+    try {
+      int n;
+      do {
+        n = in.read(buf, 0, buf.length);
+      } while (n == 0);
+      if (n < 0) {
+        eof = true;
+        return false;
+      }
+      pos = 0;
+      lim = n;
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.ok.util;
+
+import java.util.Arrays;
+
+/**
+ * String -> dense int id map with open addressing, so lookups never box and ids can index
+ * primitive arrays (document frequencies, postings, weights).
+ */
+public final class TermDictionary {
+  private String[] keys = new String[64];
+  private int[] ids = new int[64];
+  private String[] terms = new String[64];
+  private int size;
+
+  // Id of the term, or -1 if it has never been added
+  public int id(String term) {
+    int mask = keys.length - 1;
+    for (int slot = mix(term.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+      String k = keys[slot];
+      if (k == null) return -1;
+      if (k.equals(term)) return ids[slot];
+    }
+  }
+
+  public int getOrAdd(String term) {
+    int mask = keys.length - 1;
+    int slot = mix(term.hashCode()) & mask;
+    for (; keys[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot].equals(term)) return ids[slot];
+    }
+    int id = size++;
+    keys[slot] = term;
+    ids[slot] = id;
+    if (id == terms.length) terms = Arrays.copyOf(terms, id * 2);
+    terms[id] = term;
+    if (size * 2 > keys.length) rehash();
+    return id;
+  }
+
+  public String term(int id) {
+    return terms[id];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private void rehash() {
+    String[] oldKeys = keys;
+    int[] oldIds = ids;
+    keys = new String[oldKeys.length * 2];
+    ids = new int[keys.length];
+    int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == null) continue;
+      int slot = mix(oldKeys[i].hashCode()) & mask;
+      while (keys[slot] != null) slot = (slot + 1) & mask;
+      keys[slot] = oldKeys[i];
+      ids[slot] = oldIds[i];
+    }
+  }
+
+  // Spread String hashes, which are weak in the low bits for short keys
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -1,45 +1,45 @@
 package com.ok.util;
 
+import java.io.StringReader;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public final class TextUtils {
   private TextUtils() {}
 
+  private static final Pattern TERM = Pattern.compile("[a-z][a-z0-9_]+");
+
+  /**
+   * Lower-cased index terms (a letter followed by letters, digits or underscores), shared by
+   * the TF-IDF model and the BM25 index so both see the same vocabulary.
+   */
+  public static List<String> terms(String text) {
+    List<String> out = new ArrayList<>();
+    Matcher m = TERM.matcher(text.toLowerCase(Locale.ROOT));
+    while (m.find()) out.add(m.group());
+    return out;
+  }
+
   /**
    * Chunk the text into smaller pieces (~targetTokens each) using TextUtils.
    */
   public static List<String> chunkByTokens(String text, int targetTokens, int maxChunks) {
     List<String> chunks = chunkByTokens(text, targetTokens);
     return chunks.subList(0, Math.min(chunks.size(), maxChunks));
-  }public static List<String> chunkByTokens(String text, int targetTokens) {
-    // Text normalization pipeline
-    text = text.replaceAll("\\r\\n", "\n")        // unify CRLF
-               .replaceAll("\\n{2,}", "\n")      // multiple newlines → single
-               .replaceAll("[ \t]+", " ");       // multiple spaces → single
+  }
 
-    // Sentence boundary detection
-    String[] sentences = text.split("(?<=[.!?])\\s+");
+  /**
+   * Greedy sentence chunking (~targetTokens words each), in one pass via {@link StreamingChunker}.
+   */
+  public static List<String> chunkByTokens(String text, int targetTokens) {
+    return chunkByTokens(text, TokenCounter.WORDS, targetTokens);
+  }
 
+  // As above, with chunk size measured by a real tokenizer
+  public static List<String> chunkByTokens(String text, TokenCounter counter, int targetTokens) {
     List<String> chunks = new ArrayList<>();
-    StringBuilder cur = new StringBuilder();
-    int tokens = 0;
-
-    // Greedy chunking algorithm with token counting
-    for (String s : sentences) {
-      s = s.trim();
-      if (s.isEmpty()) continue;
-
-      int t = s.split("\\s+").length;
-      if (tokens + t > targetTokens && cur.length() > 0) {
-          chunks.add(cur.toString().trim());
-          cur.setLength(0);
-          tokens = 0;
-      }
-      cur.append(s).append(" ");
-      tokens += t;
-    }
-    if (cur.length() > 0) chunks.add(cur.toString().trim());
-
+    new StreamingChunker(new StringReader(text), counter, targetTokens, 0, Integer.MAX_VALUE).forEachRemaining(chunks::add);
     return chunks;
   }
 }
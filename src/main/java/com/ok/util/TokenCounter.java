@@ -0,0 +1,78 @@
+package com.ok.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Counts model tokens in text, so chunk sizes and prompt budgets can be expressed in the
+ * units the model's context window is measured in.
+ */
+public interface TokenCounter {
+
+  int count(CharSequence text);
+
+  // Whitespace-separated words: the historical approximation, and the fallback without tokenizer files
+  TokenCounter WORDS = text -> {
+    int words = 0;
+    boolean inWord = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      boolean space = c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+      if (!space && !inWord) words++;
+      inWord = !space;
+    }
+    return words;
+  };
+
+  /**
+   * Longest prefix of the text that fits in maxTokens, cut at whitespace where possible.
+   */
+  default String truncate(String text, int maxTokens) {
+    if (maxTokens <= 0) return "";
+    if (count(text) <= maxTokens) return text;
+    // Binary search on prefix length; the invariant is that prefix(lo) fits
+    int lo = 0;
+    int hi = text.length();
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (count(text.substring(0, mid)) <= maxTokens) lo = mid;
+      else hi = mid - 1;
+    }
+    int cut = lo;
+    while (cut > 0 && !Character.isWhitespace(text.charAt(cut))) cut--;
+    if (cut == 0) cut = lo; // one word longer than the whole budget
+    return text.substring(0, cut).stripTrailing();
+  }
+
+  /**
+   * BPE tokenizer from vocab.json + merges.txt in dir, or {@link #WORDS} if they are missing
+   * or unreadable.
+   */
+  static TokenCounter fromDirectory(Path dir) {
+    Path vocab = dir.resolve("vocab.json");
+    Path merges = dir.resolve("merges.txt");
+    Logger logger = Logger.getLogger(TokenCounter.class.getName());
+    if (!Files.exists(vocab) || !Files.exists(merges)) {
+      logger.info("No tokenizer in " + dir + ", counting whitespace-separated words as tokens");
+      return WORDS;
+    }
+    try {
+      return BpeTokenizer.load(vocab, merges);
+    } catch (IOException | RuntimeException e) {
+      logger.warning("Failed to load tokenizer from " + dir + ", counting words instead: " + e.getMessage());
+      return WORDS;
+    }
+  }
+
+  // Shared counter for data/tokenizer, loaded on first use
+  static TokenCounter defaultCounter() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  final class DefaultHolder {
+    private DefaultHolder() {}
+    private static final TokenCounter INSTANCE = fromDirectory(Path.of("data", "tokenizer"));
+  }
+}
@@ -1,19 +1,29 @@
 package com.ok;
 
 import com.ok.pipeline.AnswerComposer;
+import com.ok.pipeline.LlmResponseCache;
 import com.ok.pipeline.Retriever;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -74,4 +84,68 @@ public class AnswerComposerTest {
     assertTrue(answer.toLowerCase().contains("graphrag"));
     assertTrue(answer.contains("GraphRAG augments retrieval"));
   }
+
+  @Test
+  public void testComposeStreamingDeliversTokensInOrder() throws Exception {
+    // Stub Ollama endpoint answering with NDJSON, one token per line
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/generate", exchange -> {
+      exchange.getRequestBody().readAllBytes();
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream out = exchange.getResponseBody()) {
+        for (String tok : List.of("Graph", "RAG", " works")) {
+          out.write(("{\"response\":\"" + tok + "\",\"done\":false}\n").getBytes(StandardCharsets.UTF_8));
+          out.flush();
+        }
+        out.write("{\"response\":\"\",\"done\":true}\n".getBytes(StandardCharsets.UTF_8));
+        out.write("{\"response\":\"ignored\"}\n".getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    server.start();
+    try {
+      AnswerComposer composer = new AnswerComposer(
+          HttpClient.newHttpClient(), "http://127.0.0.1:" + server.getAddress().getPort(), "test-model");
+      List<String> tokens = new ArrayList<>();
+      String answer = composer.composeStreaming("What is GraphRAG?",
+          List.of(new Retriever.Hit("chunk1", "GraphRAG augments retrieval with graphs", 0.9)), 500, tokens::add);
+
+      assertEquals(List.of("Graph", "RAG", " works"), tokens);
+      assertEquals("GraphRAG works", answer);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @TempDir
+  Path tmp;
+
+  @Test
+  public void testCachedAnswerSkipsGeneration() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/generate", exchange -> {
+      requests.incrementAndGet();
+      exchange.getRequestBody().readAllBytes();
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write("{\"response\":\"Cached\",\"done\":false}\n".getBytes(StandardCharsets.UTF_8));
+        out.write("{\"response\":\"\",\"done\":true}\n".getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    server.start();
+    try (LlmResponseCache cache = new LlmResponseCache(tmp.resolve("llm.bin"), 10)) {
+      AnswerComposer composer = new AnswerComposer(
+          HttpClient.newHttpClient(), "http://127.0.0.1:" + server.getAddress().getPort(), "test-model")
+          .withCache(cache);
+      List<Retriever.Hit> hits = List.of(new Retriever.Hit("chunk1", "GraphRAG augments retrieval", 0.9));
+
+      assertEquals("Cached", composer.compose("What is GraphRAG?", hits, 500));
+      List<String> tokens = new ArrayList<>();
+      assertEquals("Cached", composer.composeStreaming("What is GraphRAG?", hits, 500, tokens::add));
+      assertEquals(List.of("Cached"), tokens);
+      assertEquals(1, requests.get());
+    } finally {
+      server.stop(0);
+    }
+  }
 }
@@ -0,0 +1,107 @@
+package com.ok;
+
+import com.ok.embeddings.SparseVector;
+import com.ok.embeddings.TfIdfEmbeddingModel;
+import com.ok.embeddings.VectorMath;
+import com.ok.store.Bm25Index;
+import com.ok.store.VectorIndex;
+import com.ok.util.TextUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25IndexTest {
+
+    private static final String[] WORDS = {
+            "graph", "retrieval", "embedding", "vector", "entity", "relation", "chunk", "document",
+            "influenza", "pandemic", "city", "population", "hospital", "century", "treatment", "virus"
+    };
+
+    private static String text(Random rnd, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            // Skewed term distribution so some terms are common and others rare
+            int w = (int) Math.min(WORDS.length - 1, Math.abs(rnd.nextGaussian()) * 5);
+            sb.append(WORDS[w]).append(' ');
+        }
+        return sb.toString();
+    }
+
+    // Exhaustive BM25 over the live documents, as the reference for the pruned search
+    private static List<Double> naiveTop(Map<String, String> docs, String query, int k) {
+        double k1 = Bm25Index.DEFAULT_K1, b = Bm25Index.DEFAULT_B;
+        Map<String, List<String>> tokens = new HashMap<>();
+        docs.forEach((id, t) -> tokens.put(id, TextUtils.terms(t)));
+        double avg = tokens.values().stream().mapToInt(List::size).average().orElse(1);
+        Map<String, Double> scores = new HashMap<>();
+        for (String term : new LinkedHashSet<>(TextUtils.terms(query))) {
+            long df = tokens.values().stream().filter(l -> l.contains(term)).count();
+            if (df == 0) continue;
+            double idf = Math.log(1 + (docs.size() - df + 0.5) / (df + 0.5));
+            tokens.forEach((id, l) -> {
+                long tf = l.stream().filter(term::equals).count();
+                if (tf == 0) return;
+                double s = idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * l.size() / avg));
+                scores.merge(id, s, Double::sum);
+            });
+        }
+        return scores.values().stream().sorted(Comparator.reverseOrder()).limit(k).toList();
+    }
+
+    @Test
+    void testPrunedSearchMatchesExhaustiveBm25() {
+        Random rnd = new Random(21);
+        Bm25Index index = new Bm25Index();
+        Map<String, String> docs = new LinkedHashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String t = text(rnd, 5 + rnd.nextInt(40));
+            docs.put("d" + i, t);
+            index.add("d" + i, t);
+        }
+        assertEquals(docs.size(), index.size());
+
+        for (int q = 0; q < 30; q++) {
+            String query = text(rnd, 1 + rnd.nextInt(4)) + " unknownterm";
+            // Compare scores by rank: float vs double rounding may swap near-ties
+            List<Double> expected = naiveTop(docs, query, 10);
+            List<VectorIndex.Result> got = index.search(query, 10);
+            assertEquals(expected.size(), got.size(), "query: " + query);
+            for (int i = 0; i < got.size(); i++) {
+                assertEquals(expected.get(i), got.get(i).score, 1e-4, "query: " + query + " rank " + i);
+            }
+        }
+    }
+
+    @Test
+    void testReplaceAndRemove() {
+        Bm25Index index = new Bm25Index();
+        index.add("a", "influenza pandemic city");
+        index.add("b", "graph retrieval");
+        index.add("a", "graph embedding"); // replaces the old text
+        List<VectorIndex.Result> res = index.search("influenza", 5);
+        assertTrue(res.isEmpty());
+        assertEquals(Set.of("a", "b"), new HashSet<>(index.search("graph", 5).stream().map(r -> r.id).toList()));
+
+        assertTrue(index.remove("b"));
+        assertEquals(List.of("a"), index.search("graph", 5).stream().map(r -> r.id).toList());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testSparseTfIdfMatchesDense() {
+        TfIdfEmbeddingModel model = new TfIdfEmbeddingModel();
+        model.fit(List.of("graph retrieval with graph embeddings", "influenza pandemic in the city", "graph of the city"));
+        SparseVector a = model.embedSparse("graph graph city");
+        SparseVector b = model.embedSparse("city pandemic");
+
+        for (int i = 1; i < a.nnz(); i++) assertTrue(a.indices[i - 1] < a.indices[i]);
+        assertEquals(1.0, a.norm(), 1e-6);
+        float[] da = model.embed("graph graph city");
+        float[] db = model.embed("city pandemic");
+        assertEquals(model.vocabularySize(), da.length);
+        assertEquals(VectorMath.dot(da, db), a.dot(b), 1e-6);
+        assertEquals(0, model.embedSparse("nothing known here").nnz());
+    }
+}
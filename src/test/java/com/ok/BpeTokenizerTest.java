@@ -0,0 +1,82 @@
+package com.ok;
+
+import com.ok.util.BpeTokenizer;
+import com.ok.util.TextUtils;
+import com.ok.util.TokenCounter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BpeTokenizerTest {
+
+    @TempDir
+    Path dir;
+
+    // Byte-level vocabulary (all 256 byte symbols) plus a few merges; 'Ġ' is the space byte
+    private Path writeTokenizer() throws Exception {
+        Map<String, Integer> vocab = new LinkedHashMap<>();
+        int next = 0;
+        for (int b = 0; b < 256; b++) {
+            boolean printable = (b >= '!' && b <= '~') || (b >= 0xA1 && b <= 0xAC) || (b >= 0xAE && b <= 0xFF);
+            char c = printable ? (char) b : (char) (256 + next++);
+            vocab.put(String.valueOf(c), vocab.size());
+        }
+        String[] merges = {"l o", "lo w", "e r", "Ġ low", "Ġlow er", "Ġ n", "Ġn e", "Ġne w"};
+        for (String m : merges) vocab.put(m.replace(" ", ""), vocab.size());
+
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Integer> e : vocab.entrySet()) {
+            if (json.length() > 1) json.append(',');
+            String key = e.getKey().replace("\\", "\\\\").replace("\"", "\\\"");
+            json.append('"').append(key).append("\":").append(e.getValue());
+        }
+        json.append('}');
+        Files.writeString(dir.resolve("vocab.json"), json);
+        Files.writeString(dir.resolve("merges.txt"), "#version: 0.2\n" + String.join("\n", merges) + "\n");
+        return dir;
+    }
+
+    @Test
+    void testEncodesWithMerges() throws Exception {
+        TokenCounter counter = TokenCounter.fromDirectory(writeTokenizer());
+        assertInstanceOf(BpeTokenizer.class, counter);
+        BpeTokenizer bpe = (BpeTokenizer) counter;
+
+        // "low" | " lower" | " new" | "!"
+        assertEquals(4, bpe.encode("low lower new!").length);
+        assertEquals(4, bpe.count("low lower new!"));
+        // Unmerged letters fall back to one token per byte; "é" is two UTF-8 bytes
+        assertEquals(3, bpe.count("abc"));
+        assertEquals(2, bpe.count("é"));
+        assertEquals(bpe.count("low lower"), bpe.count("low lower")); // cached path
+    }
+
+    @Test
+    void testFallsBackToWordsWithoutFiles() {
+        TokenCounter counter = TokenCounter.fromDirectory(dir.resolve("missing"));
+        assertSame(TokenCounter.WORDS, counter);
+        assertEquals(3, counter.count("  one two\tthree\n"));
+    }
+
+    @Test
+    void testChunksAndTruncationRespectTokenBudget() throws Exception {
+        TokenCounter counter = TokenCounter.fromDirectory(writeTokenizer());
+        String text = "abc defg. hij klmn opq. rs. tuvw xyz abc.";
+        List<String> chunks = TextUtils.chunkByTokens(text, counter, 20);
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(counter.count(chunk) <= 20, chunk);
+        }
+
+        String cut = counter.truncate(text, 10);
+        assertTrue(counter.count(cut) <= 10);
+        assertTrue(text.startsWith(cut));
+        assertFalse(cut.endsWith(" "));
+        assertEquals(text, counter.truncate(text, 1000));
+    }
+}
@@ -0,0 +1,53 @@
+package com.ok;
+
+import com.ok.embeddings.CachingEmbeddingModel;
+import com.ok.embeddings.EmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingEmbeddingModelTest {
+
+  @TempDir
+  Path tmp;
+
+  // Counts how many texts actually reach the model
+  private static class CountingModel implements EmbeddingModel {
+    final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public float[] embed(String text) {
+      calls.incrementAndGet();
+      return new float[]{text.length(), 1f};
+    }
+  }
+
+  @Test
+  void testMemoryAndDiskTiers() throws Exception {
+    Path log = tmp.resolve("cache.bin");
+    CountingModel base = new CountingModel();
+
+    try (CachingEmbeddingModel cache = new CachingEmbeddingModel(base, log, 100)) {
+      cache.embedBatch(List.of("alpha beta", "gamma"));
+      cache.embed("alpha   beta\n"); // same text after whitespace normalisation
+      assertEquals(2, base.calls.get());
+      assertEquals(1, cache.getMemoryHits());
+      assertEquals(2, cache.getMisses());
+    }
+
+    // A fresh instance serves everything from the on-disk log
+    CountingModel base2 = new CountingModel();
+    try (CachingEmbeddingModel cache = new CachingEmbeddingModel(base2, log, 100)) {
+      List<float[]> out = cache.embedBatch(List.of("gamma", "alpha beta", "delta"));
+      assertArrayEquals(new float[]{5f, 1f}, out.get(0));
+      assertArrayEquals(new float[]{10f, 1f}, out.get(1));
+      assertEquals(1, base2.calls.get());
+      assertEquals(2, cache.getDiskHits());
+    }
+  }
+}
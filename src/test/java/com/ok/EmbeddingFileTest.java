@@ -0,0 +1,75 @@
+package com.ok;
+
+import com.ok.store.EmbeddingFile;
+import com.ok.store.EmbeddingMatrix;
+import com.ok.store.VectorIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingFileTest {
+
+  @TempDir
+  Path tmp;
+
+  @Test
+  void testRoundTripThroughMappedFile() throws Exception {
+    EmbeddingMatrix matrix = new EmbeddingMatrix();
+    matrix.add("c0", new float[]{3f, 4f, 0f});
+    matrix.add("c1", new float[]{0f, 0f, 2f});
+    matrix.add("c2", new float[]{1f, 1f, 1f});
+    matrix.remove("c1");
+
+    Path file = tmp.resolve("embeddings.bin");
+    EmbeddingFile.write(matrix, file);
+    assertTrue(EmbeddingFile.isEmbeddingFile(file));
+
+    EmbeddingMatrix mapped = EmbeddingFile.map(file);
+    assertEquals(3, mapped.dims());
+    assertEquals(2, mapped.size());
+    assertEquals(-1, mapped.rowOf("c1"));
+    assertArrayEquals(new float[]{0.6f, 0.8f, 0f}, mapped.row(mapped.rowOf("c0")), 1e-6f);
+
+    // Appending after a load copies the partially filled mapped segment
+    mapped.add("c3", new float[]{0f, 1f, 0f});
+    List<VectorIndex.Result> top = mapped.topK(new float[]{0f, 1f, 0f}, 1);
+    assertEquals("c3", top.get(0).id);
+    assertEquals(0.8f, mapped.dot(mapped.rowOf("c0"), new float[]{0f, 1f, 0f}), 1e-6f);
+  }
+
+  @Test
+  void testEmptyMatrixRoundTrip() throws Exception {
+    Path file = tmp.resolve("embeddings.bin");
+    EmbeddingFile.write(new EmbeddingMatrix(), file);
+
+    EmbeddingMatrix mapped = EmbeddingFile.map(file);
+    assertEquals(0, mapped.size());
+    assertTrue(mapped.topK(new float[]{1f, 0f}, 3).isEmpty());
+
+    // The dimension is still taken from the first vector added after loading
+    mapped.add("c0", new float[]{1f, 0f});
+    assertEquals(2, mapped.dims());
+    assertEquals("c0", mapped.topK(new float[]{1f, 0f}, 1).get(0).id);
+  }
+
+  @Test
+  void testCorruptedFileFailsChecksum() throws Exception {
+    EmbeddingMatrix matrix = new EmbeddingMatrix();
+    matrix.add("c0", new float[]{1f, 2f});
+    Path file = tmp.resolve("embeddings.bin");
+    EmbeddingFile.write(matrix, file);
+
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(raf.length() - 1);
+      raf.write(0x7f);
+    }
+    assertThrows(IOException.class, () -> EmbeddingFile.map(file));
+    assertEquals(1, EmbeddingFile.map(file, false).size());
+  }
+}
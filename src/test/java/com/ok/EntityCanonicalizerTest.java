@@ -0,0 +1,65 @@
+package com.ok;
+
+import com.ok.embeddings.EmbeddingModel;
+import com.ok.pipeline.EntityCanonicalizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityCanonicalizerTest {
+
+    @Test
+    void keysIgnoreCaseAccentsPunctuationAndSuffixes() {
+        assertEquals("acme", EntityCanonicalizer.key("ACME Corp."));
+        assertEquals("acme", EntityCanonicalizer.key("Acme Corporation"));
+        assertEquals("acme", EntityCanonicalizer.key("acme"));
+        assertEquals("beatles", EntityCanonicalizer.key("The Beatles"));
+        assertEquals("boccaccio florence", EntityCanonicalizer.key("Boccaccio’s  Florence"));
+        assertEquals("zurich", EntityCanonicalizer.key("Zürich"));
+        assertEquals("us", EntityCanonicalizer.key("U.S."));
+        assertEquals("co", EntityCanonicalizer.key("Co"));
+    }
+
+    @Test
+    void resolvesVariantsToFirstSeenName() {
+        EntityCanonicalizer c = new EntityCanonicalizer();
+        assertEquals("Acme Corp", c.resolve("Acme Corp"));
+        assertEquals("Acme Corp", c.resolve("ACME Corp."));
+        assertEquals("Acme Corp", c.resolve("Acme"));
+        assertEquals("Alice", c.resolve("Alice"));
+        assertEquals(2, c.size());
+    }
+
+    @Test
+    void fuzzyMatchesTyposButNotOtherNumbersOrNearbyWords() {
+        EntityCanonicalizer c = new EntityCanonicalizer();
+        assertEquals("Giovanni Boccaccio", c.resolve("Giovanni Boccaccio"));
+        assertEquals("Giovanni Boccaccio", c.resolve("Giovanni Bocaccio"));
+        assertEquals("Apollo 11", c.resolve("Apollo 11"));
+        assertEquals("Apollo 12", c.resolve("Apollo 12"));
+        assertEquals("Paris", c.resolve("Paris"));
+        assertEquals("Parish", c.resolve("Parish"));
+        assertEquals(5, c.size());
+    }
+
+    @Test
+    void aliasesResolveToTheirCanonicalEntity() {
+        EntityCanonicalizer c = new EntityCanonicalizer()
+            .withAliases(Map.of("IBM", "International Business Machines", "Big Blue", "IBM"));
+        assertEquals("International Business Machines Corp", c.resolve("International Business Machines Corp"));
+        assertEquals("International Business Machines Corp", c.resolve("IBM"));
+        assertEquals("IBM", c.resolve("Big Blue")); // aliases are not chained
+    }
+
+    @Test
+    void embeddingsDecideNearMisses() {
+        EmbeddingModel model = text -> text.contains("Vinci") ? new float[]{1f, 0f} : new float[]{0f, 1f};
+        EntityCanonicalizer c = new EntityCanonicalizer().withEmbeddings(model, 0.9f);
+        assertEquals("Leonardo da Vinci", c.resolve("Leonardo da Vinci"));
+        assertEquals("Leonardo da Vinci", c.resolve("Leonardo di ser Piero da Vinci"));
+        assertEquals("Leonardo DiCaprio", c.resolve("Leonardo DiCaprio"));
+        assertTrue(c.toString().contains("embeddingMerges=1"), c.toString());
+    }
+}
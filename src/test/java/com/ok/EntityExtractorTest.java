@@ -0,0 +1,85 @@
+package com.ok;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ok.pipeline.EntityExtractor;
+import com.ok.pipeline.LlmResponseCache;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
+import com.ok.util.TokenCounter;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityExtractorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private HttpServer server;
+    private final Queue<String> replies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws IOException {
+        // Stub Ollama /api/generate: answers with the queued model replies in order
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            calls.incrementAndGet();
+            byte[] body = MAPPER.writeValueAsBytes(Map.of("response", replies.remove()));
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    private EntityExtractor extractor() {
+        HttpTransport transport = new HttpTransport("test", HttpClient.newHttpClient(), Duration.ofSeconds(10), 4,
+            false, false);
+        return new EntityExtractor(new ResilientHttp(transport, ResilientHttp.Policy.DEFAULT),
+            "http://127.0.0.1:" + server.getAddress().getPort(), TokenCounter.WORDS, 4096,
+            EntityExtractor.OutputMode.FREE_TEXT);
+    }
+
+    @Test
+    void testRepliesWithoutJsonAreNotCached(@TempDir Path dir) throws Exception {
+        replies.add("Sorry, I can't help with that.");
+        replies.add("{\"entities\": [{\"name\": \"Alice\", \"type\": \"Person\"}], \"relations\": []}");
+        String chunk = "Alice works at Acme.";
+
+        try (LlmResponseCache cache = new LlmResponseCache(dir.resolve("llm-cache.bin"), 100)) {
+            IOException e = assertThrows(IOException.class, () -> extractor().withCache(cache).extractChunk("doc", 0, chunk));
+            assertTrue(e.getMessage().contains("No JSON"), e.getMessage());
+        }
+
+        // The next run asks the model again instead of replaying the unusable reply
+        try (LlmResponseCache cache = new LlmResponseCache(dir.resolve("llm-cache.bin"), 100)) {
+            EntityExtractor.ExtractionResult result = extractor().withCache(cache).extractChunk("doc", 0, chunk);
+            assertEquals("Alice", result.getEntities().get(0).getName());
+            assertEquals(2, calls.get());
+
+            // A usable reply is cached
+            extractor().withCache(cache).extractChunk("doc", 3, chunk);
+            assertEquals(2, calls.get());
+        }
+    }
+}
@@ -3,10 +3,17 @@ package com.ok;
 import com.ok.embeddings.EmbeddingModel;
 import com.ok.pipeline.EntityExtractor;
 import com.ok.pipeline.GraphBuilder;
+import com.ok.pipeline.IngestionManifest;
+import com.ok.pipeline.WikidataLabelIndex;
+import com.ok.pipeline.WikidataMatcher;
 import com.ok.store.GraphStore;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -15,7 +22,7 @@ import static org.mockito.Mockito.*;
 class GraphBuilderTest {
 
     @Test
-    void testIngestWithEntitiesAndRelations() {
+    void testIngestWithEntitiesAndRelations() throws Exception {
         GraphStore store = mock(GraphStore.class);
         EmbeddingModel model = mock(EmbeddingModel.class);
         EntityExtractor ner = mock(EntityExtractor.class);
@@ -56,4 +63,162 @@ class GraphBuilderTest {
         // Verify relation edge
         verify(store).addEdge(aliceV, acmeV, "works_for", Map.of("extracted", true));
     }
+
+    @Test
+    void testConcurrentBatchesMergeInBatchOrder() throws Exception {
+        GraphStore store = mock(GraphStore.class);
+        EntityExtractor ner = mock(EntityExtractor.class);
+        when(store.addEntity(anyString(), anyString())).thenAnswer(inv -> mock(Vertex.class));
+
+        // 3 batches of 5 chunks; the first batch is the slowest to answer
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < 15; i++) chunks.add("chunk " + i);
+        when(ner.extractBatch(eq("doc"), anyList())).thenAnswer(inv -> {
+            List<String> batch = inv.getArgument(1);
+            int batchNo = Integer.parseInt(batch.get(0).substring(6)) / 5;
+            Thread.sleep(150L * (3 - batchNo));
+            EntityExtractor.Entity e = new EntityExtractor.Entity("E" + batchNo, "Thing");
+            e.addChunkId(0);
+            return new EntityExtractor.ExtractionResult(List.of(e), List.of());
+        });
+
+        GraphBuilder gb = new GraphBuilder(store, null, null, 3);
+        gb.ingest("doc", chunks, ner);
+
+        var inOrder = inOrder(store);
+        inOrder.verify(store).addEntity("E0", "Thing");
+        inOrder.verify(store).addEntity("E1", "Thing");
+        inOrder.verify(store).addEntity("E2", "Thing");
+    }
+
+    @Test
+    void testInterruptedExtractionStopsIngest() throws Exception {
+        GraphStore store = mock(GraphStore.class);
+        EntityExtractor ner = mock(EntityExtractor.class);
+        when(ner.extractBatch(eq("doc"), anyList())).thenThrow(new InterruptedException());
+
+        GraphBuilder gb = new GraphBuilder(store, null, null, 1);
+        assertThrows(IllegalStateException.class, () -> gb.ingest("doc", List.of("chunk 0"), ner));
+        assertTrue(Thread.interrupted()); // flag restored for the caller (and cleared here)
+        verify(store, never()).addEntity(anyString(), anyString());
+    }
+
+    @Test
+    void testManifestSkipsUnchangedChunks(@TempDir Path dir) throws Exception {
+        GraphStore store = mock(GraphStore.class);
+        EntityExtractor ner = mock(EntityExtractor.class);
+        when(store.addEntity(anyString(), anyString())).thenAnswer(inv -> mock(Vertex.class));
+        when(ner.extractChunk(eq("doc"), anyInt(), anyString())).thenAnswer(inv -> {
+            EntityExtractor.Entity e = new EntityExtractor.Entity(inv.getArgument(2), "Thing");
+            e.addChunkId(inv.getArgument(1));
+            return new EntityExtractor.ExtractionResult(List.of(e), List.of());
+        });
+
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) chunks.add("chunk " + i);
+        IngestionManifest manifest = IngestionManifest.load("doc", dir);
+        manifest.reconcile(chunks);
+        new GraphBuilder(store, null, null, 2).ingest("doc", chunks, ner, manifest);
+        verify(ner, times(10)).extractChunk(eq("doc"), anyInt(), anyString());
+        verify(ner, times(2)).crossChunkRelations(anyCollection());
+
+        // Re-run from disk with one chunk edited and one inserted, shifting every later chunk
+        chunks.set(7, "chunk 7 edited");
+        chunks.add(2, "chunk 1.5");
+        IngestionManifest reloaded = IngestionManifest.load("doc", dir);
+        assertEquals(List.of(IngestionManifest.hash("chunk 7")), reloaded.reconcile(chunks));
+        clearInvocations(ner);
+        new GraphBuilder(store, null, null, 2).ingest("doc", chunks, ner, reloaded);
+
+        verify(ner).extractChunk("doc", 2, "chunk 1.5");
+        verify(ner).extractChunk("doc", 8, "chunk 7 edited");
+        verify(ner, times(2)).extractChunk(eq("doc"), anyInt(), anyString());
+        verify(store, times(2)).addEntity("chunk 9", "Thing");
+        verify(store).addEntity("chunk 7", "Thing");
+        verify(store).addEntity("chunk 1.5", "Thing");
+
+        // Nothing changed: no model calls at all
+        clearInvocations(ner);
+        new GraphBuilder(store, null, null, 2).ingest("doc", chunks, ner, IngestionManifest.load("doc", dir));
+        verifyNoInteractions(ner);
+    }
+
+    @Test
+    void testFailedChunksAreNotCheckpointed(@TempDir Path dir) throws Exception {
+        GraphStore store = mock(GraphStore.class);
+        EntityExtractor ner = mock(EntityExtractor.class);
+        when(store.addEntity(anyString(), anyString())).thenAnswer(inv -> mock(Vertex.class));
+        when(ner.extractChunk(eq("doc"), anyInt(), anyString())).thenAnswer(inv -> {
+            if ("chunk 3".equals(inv.getArgument(2))) throw new IOException("No JSON object in LLM output");
+            EntityExtractor.Entity e = new EntityExtractor.Entity(inv.getArgument(2), "Thing");
+            e.addChunkId(inv.getArgument(1));
+            return new EntityExtractor.ExtractionResult(List.of(e), List.of());
+        });
+
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) chunks.add("chunk " + i);
+        new GraphBuilder(store, null, null).ingest("doc", chunks, ner, IngestionManifest.load("doc", dir));
+        verify(store).addEntity("chunk 4", "Thing");
+        verify(store, never()).addEntity("chunk 3", "Thing");
+
+        // The next run retries only the failed chunk, then the batch's cross-chunk relations
+        reset(ner);
+        when(ner.extractChunk("doc", 3, "chunk 3"))
+            .thenReturn(new EntityExtractor.ExtractionResult(List.of(new EntityExtractor.Entity("chunk 3", "Thing")), List.of()));
+        new GraphBuilder(store, null, null).ingest("doc", chunks, ner, IngestionManifest.load("doc", dir));
+        verify(ner, times(1)).extractChunk(eq("doc"), anyInt(), anyString());
+        verify(ner).crossChunkRelations(anyCollection());
+        verify(store).addEntity("chunk 3", "Thing");
+    }
+
+    @Test
+    void testLinksEntitiesToWikidataDuringIngest(@TempDir Path dir) throws Exception {
+        GraphStore store = mock(GraphStore.class);
+        EntityExtractor ner = mock(EntityExtractor.class);
+        when(store.addEntity(anyString(), anyString())).thenAnswer(inv -> mock(Vertex.class));
+        when(store.addEntity(anyString(), anyString(), anyString())).thenAnswer(inv -> mock(Vertex.class));
+        EntityExtractor.Entity paris = new EntityExtractor.Entity("Paris", "Location");
+        EntityExtractor.Entity acme = new EntityExtractor.Entity("Acme", "Organization");
+        when(ner.extractBatch(eq("doc"), anyList()))
+            .thenReturn(new EntityExtractor.ExtractionResult(List.of(paris, acme), List.of()));
+
+        Path tsv = dir.resolve("labels.tsv");
+        Files.writeString(tsv, "paris\tQ90\tParis\tcity\n");
+        WikidataMatcher wikidata = WikidataMatcher.offline(WikidataLabelIndex.load(tsv));
+        new GraphBuilder(store, null, wikidata).ingest("doc", List.of("Acme opened an office in Paris"), ner);
+
+        verify(store).addEntity("Paris", "Location", "Q90");
+        verify(store).addEntity("Acme", "Organization");
+    }
+
+    @Test
+    void testMergesNameVariantsAndDropsSelfLoopsAndRepeatedEdges() throws Exception {
+        GraphStore store = mock(GraphStore.class);
+        EntityExtractor ner = mock(EntityExtractor.class);
+        Vertex aliceV = mock(Vertex.class);
+        Vertex acmeV = mock(Vertex.class);
+        when(store.addEntity("Alice", "Person")).thenReturn(aliceV);
+        when(store.addEntity("Acme Corp", "Organization")).thenReturn(acmeV);
+        EntityExtractor.Entity acme = new EntityExtractor.Entity("Acme Corp", "Thing");
+        acme.addChunkId(0);
+        EntityExtractor.Entity acmeVariant = new EntityExtractor.Entity("ACME Corp.", "Organization");
+        acmeVariant.addChunkId(1);
+        EntityExtractor.Entity alice = new EntityExtractor.Entity("Alice", "Person");
+        List<EntityExtractor.Relation> relations = List.of(
+            new EntityExtractor.Relation("Alice", "Acme Corp", "works_for"),
+            new EntityExtractor.Relation("Alice", "ACME Corp.", "works_for"),
+            new EntityExtractor.Relation("Acme", "Acme Corp", "same_as"));
+        when(ner.extractBatch(eq("doc"), anyList()))
+            .thenReturn(new EntityExtractor.ExtractionResult(List.of(acme, acmeVariant, alice), relations));
+
+        GraphBuilder.IngestResult result = new GraphBuilder(store, null, null)
+            .ingest("doc", List.of("Alice works at Acme Corp", "ACME Corp. hired Alice"), ner);
+
+        // One vertex for Acme, typed by the variant that had a type
+        verify(store).addEntity("Acme Corp", "Organization");
+        verify(store, never()).addEntity(eq("ACME Corp."), anyString());
+        assertEquals(2, result.getEntityVertices().size());
+        verify(store, times(1)).addEdge(aliceV, acmeV, "works_for", Map.of("extracted", true));
+        verify(store, never()).addEdge(any(), any(), eq("same_as"), anyMap());
+    }
 }
@@ -0,0 +1,66 @@
+package com.ok;
+
+import com.ok.store.BruteForceVectorIndex;
+import com.ok.store.EmbeddingMatrix;
+import com.ok.store.HnswVectorIndex;
+import com.ok.store.VectorIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswVectorIndexTest {
+
+  private static float[] randomVector(Random rnd, int dims) {
+    float[] v = new float[dims];
+    for (int i = 0; i < dims; i++) v[i] = (float) rnd.nextGaussian();
+    return v;
+  }
+
+  @Test
+  void testRecallAgainstBruteForce() {
+    Random rnd = new Random(7);
+    int n = 2000, dims = 32, k = 10, queries = 50;
+
+    EmbeddingMatrix matrix = new EmbeddingMatrix(dims);
+    HnswVectorIndex hnsw = new HnswVectorIndex(matrix, 16, 200, 100);
+    BruteForceVectorIndex exact = new BruteForceVectorIndex(matrix);
+    for (int i = 0; i < n; i++) {
+      hnsw.add(matrix.add("c" + i, randomVector(rnd, dims)));
+    }
+    assertEquals(n, matrix.size());
+
+    int found = 0;
+    for (int q = 0; q < queries; q++) {
+      float[] query = randomVector(rnd, dims);
+      Set<String> truth = new HashSet<>();
+      for (VectorIndex.Result r : exact.search(query, k)) truth.add(r.id);
+
+      List<VectorIndex.Result> approx = hnsw.search(query, k);
+      assertEquals(k, approx.size());
+      for (VectorIndex.Result r : approx) if (truth.contains(r.id)) found++;
+    }
+
+    double recall = found / (double) (queries * k);
+    assertTrue(recall >= 0.9, "recall@10 too low: " + recall);
+  }
+
+  @Test
+  void testRemovedAndReplacedIdsAreNotReturnedTwice() {
+    EmbeddingMatrix matrix = new EmbeddingMatrix();
+    HnswVectorIndex hnsw = new HnswVectorIndex(matrix);
+    hnsw.add(matrix.add("a", new float[]{1f, 0f}));
+    hnsw.add(matrix.add("b", new float[]{0f, 1f}));
+    hnsw.add(matrix.add("a", new float[]{0.9f, 0.1f})); // replace
+
+    List<VectorIndex.Result> res = hnsw.search(new float[]{1f, 0f}, 5);
+    assertEquals(2, res.size());
+    assertEquals("a", res.get(0).id);
+
+    assertTrue(matrix.remove("a"));
+    res = hnsw.search(new float[]{1f, 0f}, 5);
+    assertEquals(1, res.size());
+    assertEquals("b", res.get(0).id);
+  }
+}
@@ -0,0 +1,161 @@
+package com.ok;
+
+import com.ok.util.HttpTransport;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpTransportTest {
+
+    private HttpServer server;
+    private String base;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    private HttpTransport transport(int maxConcurrent, boolean gzipRequests) {
+        return new HttpTransport("test", HttpClient.newHttpClient(), Duration.ofSeconds(10), maxConcurrent,
+            true, gzipRequests);
+    }
+
+    private static byte[] gzip(String s) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void inflatesGzipResponsesForBufferedAndStreamingHandlers() throws Exception {
+        String body = "{\"line\":1}\n".repeat(5000);
+        byte[] compressed = gzip(body);
+        server.createContext("/gz", exchange -> {
+            assertEquals("gzip", exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                // Dribble the bytes so the header and deflate stream arrive split across reads
+                for (int i = 0; i < compressed.length; i += 7) {
+                    out.write(compressed, i, Math.min(7, compressed.length - i));
+                    out.flush();
+                }
+            }
+        });
+        server.start();
+
+        HttpTransport http = transport(4, false);
+        HttpRequest req = http.request(URI.create(base + "/gz")).GET().build();
+        assertEquals(body, http.send(req, HttpResponse.BodyHandlers.ofString()).body());
+
+        HttpResponse<Stream<String>> lines = http.send(req, HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> s = lines.body()) {
+            assertEquals(5000, s.filter(l -> l.equals("{\"line\":1}")).count());
+        }
+        assertEquals(2, http.stats().requests());
+        assertEquals(0, http.stats().errors());
+    }
+
+    @Test
+    void leavesIdentityResponsesAlone() throws Exception {
+        server.createContext("/plain", exchange -> {
+            byte[] b = "plain".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, b.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(b);
+            }
+        });
+        server.start();
+
+        HttpTransport http = transport(4, false);
+        // A request built elsewhere, without the endpoint's timeout
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/plain")).GET().build();
+        assertEquals("plain", http.send(req, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    @Test
+    void compressesLargeRequestBodiesWhenEnabled() throws Exception {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        server.createContext("/post", exchange -> {
+            byte[] raw = exchange.getRequestBody().readAllBytes();
+            boolean gz = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            String text = gz
+                ? new String(new GZIPInputStream(new java.io.ByteArrayInputStream(raw)).readAllBytes(), StandardCharsets.UTF_8)
+                : new String(raw, StandardCharsets.UTF_8);
+            received.add((gz ? "gzip:" : "identity:") + text.length());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+
+        HttpTransport http = transport(4, true);
+        byte[] big = "x".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        http.send(http.post(URI.create(base + "/post"), big).build(), HttpResponse.BodyHandlers.discarding());
+        http.send(http.post(URI.create(base + "/post"), "{}".getBytes(StandardCharsets.UTF_8)).build(),
+            HttpResponse.BodyHandlers.discarding());
+        assertEquals(List.of("gzip:10000", "identity:2"), List.of(received.take(), received.take()));
+    }
+
+    @Test
+    void limitsConcurrentRequests() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        server.createContext("/slow", exchange -> {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+
+        HttpTransport http = transport(2, false);
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            List<Callable<Integer>> calls = Stream.<Callable<Integer>>generate(() -> () -> http.send(
+                    http.request(URI.create(base + "/slow")).GET().build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode())
+                .limit(6).collect(Collectors.toList());
+            for (Future<Integer> f : pool.invokeAll(calls)) assertEquals(200, f.get());
+        } finally {
+            pool.shutdownNow();
+        }
+        assertTrue(peak.get() <= 2, "peak concurrency " + peak.get());
+        assertEquals(6, http.stats().requests());
+        assertTrue(http.stats().percentileMillis(50) >= 40);
+    }
+}
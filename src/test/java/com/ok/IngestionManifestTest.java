@@ -0,0 +1,55 @@
+package com.ok;
+
+import com.ok.pipeline.IngestionManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionManifestTest {
+
+    @Test
+    void testRepeatedChunksAreTrackedPerOccurrence(@TempDir Path dir) throws Exception {
+        List<String> chunks = List.of("header", "body", "header");
+        String h = IngestionManifest.hash("header");
+        assertEquals(List.of(h, IngestionManifest.hash("body"), h + "#1"), IngestionManifest.chunkKeys(chunks));
+
+        IngestionManifest manifest = IngestionManifest.load("doc", dir);
+        manifest.reconcile(chunks);
+        IngestionManifest.chunkKeys(chunks).forEach(manifest::markStored);
+        manifest.save();
+
+        // Dropping one copy makes exactly that copy stale; the other stays stored
+        IngestionManifest reloaded = IngestionManifest.load("doc", dir);
+        assertEquals(List.of(h + "#1"), reloaded.reconcile(List.of("header", "body")));
+        assertTrue(reloaded.isStored(h));
+    }
+
+    @Test
+    void testShiftedChunksAreStoredAgain(@TempDir Path dir) throws Exception {
+        List<String> chunks = List.of("a", "b", "c");
+        IngestionManifest manifest = IngestionManifest.load("doc", dir);
+        manifest.reconcile(chunks, List.of(1, 1, 2));
+        IngestionManifest.chunkKeys(chunks).forEach(manifest::markStored);
+        manifest.save();
+
+        // A chunk inserted before "b" shifts "b" and "c"; "c" also moves to the next page
+        IngestionManifest reloaded = IngestionManifest.load("doc", dir);
+        assertEquals(List.of(), reloaded.reconcile(List.of("a", "new", "b", "c"), List.of(1, 1, 1, 3)));
+        String a = IngestionManifest.hash("a");
+        String b = IngestionManifest.hash("b");
+        String c = IngestionManifest.hash("c");
+        assertEquals(List.of(b, c), reloaded.moved());
+        assertTrue(reloaded.isStored(a));
+        assertFalse(reloaded.isStored(b));
+        assertFalse(reloaded.isStored(c));
+
+        // Same positions, different page only
+        IngestionManifest.chunkKeys(List.of("a", "new", "b", "c")).forEach(reloaded::markStored);
+        reloaded.reconcile(List.of("a", "new", "b", "c"), List.of(1, 1, 2, 3));
+        assertEquals(List.of(b), reloaded.moved());
+    }
+}
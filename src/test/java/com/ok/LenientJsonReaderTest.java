@@ -0,0 +1,117 @@
+package com.ok;
+
+import com.ok.pipeline.LenientJsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LenientJsonReaderTest {
+
+    private final List<String> entities = new ArrayList<>();
+    private final List<String> relations = new ArrayList<>();
+
+    private final LenientJsonReader.Sink sink = new LenientJsonReader.Sink() {
+        @Override
+        public void entity(String name, String type) {
+            entities.add(name + "/" + type);
+        }
+
+        @Override
+        public void relation(String source, String target, String relationType) {
+            relations.add(source + " -" + relationType + "-> " + target);
+        }
+    };
+
+    @Test
+    void readsWellFormedOutput() {
+        assertTrue(LenientJsonReader.read("""
+            {"entities": [{"name": "Alice", "type": "Person", "chunk_ids": [0, 1]},
+                          {"name": "Acme \\"Corp\\"", "type": "Organization"}],
+             "relations": [{"source": "Alice", "target": "Acme", "relationType": "works_for"}]}
+            """, sink));
+        assertEquals(List.of("Alice/Person", "Acme \"Corp\"/Organization"), entities);
+        assertEquals(List.of("Alice -works_for-> Acme"), relations);
+    }
+
+    @Test
+    void skipsThinkingFencesCommentsAndProse() {
+        String raw = """
+            <think>The user wants {"entities": [{"name": "Wrong"}]}, let me think.</think>
+            Here is the JSON:
+            ```json
+            {
+              // people
+              "entities": [
+                {"name": "Alice", "type": "Person"}, /* the CEO */
+                ...
+              ],
+              "relations": []
+            }
+            ```
+            Hope this helps!
+            """;
+        assertTrue(LenientJsonReader.read(raw, sink));
+        assertEquals(List.of("Alice/Person"), entities);
+    }
+
+    @Test
+    void repairsQuotesKeysAndCommas() {
+        String raw = "{entities: [{name: “Boccaccio’s Florence”, type: Location,}, "
+            + "{'name': 'Influenza', 'type': 'Event'},],"
+            + " relations: [{source: Influenza, target: 1918, relationType: eventYear}]}";
+        assertTrue(LenientJsonReader.read(raw, sink));
+        assertEquals(List.of("Boccaccio's Florence/Location", "Influenza/Event"), entities);
+        assertEquals(List.of("Influenza -eventYear-> 1918"), relations);
+    }
+
+    @Test
+    void dropsStrayTextBetweenMembers() {
+        String raw = "{\"entities\": [{\"name\": \"Alice\", Wait, I'm not sure this is right, \"type\": \"Person\"},"
+            + " Hmm, {\"name\": \"Bob\" \"type\": \"Person\"}], \"relations\": []}";
+        assertTrue(LenientJsonReader.read(raw, sink));
+        assertEquals(List.of("Alice/Person", "Bob/Person"), entities);
+    }
+
+    @Test
+    void treatsBareNullAsMissing() {
+        LenientJsonReader.read("{\"entities\": [{\"name\": \"Alice\", \"type\": null}, {\"name\": \"null\"}]}", sink);
+        assertEquals(List.of("Alice/null", "null/null"), entities);
+    }
+
+    @Test
+    void unwrapsDoubleEncodedPayload() {
+        assertTrue(LenientJsonReader.read("\"{\\\"entities\\\": [{\\\"name\\\": \\\"Alice\\\"}]}\"", sink));
+        assertEquals(List.of("Alice/null"), entities);
+    }
+
+    @Test
+    void keepsRecordsBeforeTruncation() {
+        String raw = "{\"entities\": [{\"name\": \"Alice\", \"type\": \"Person\"}, {\"name\": \"Bo";
+        assertTrue(LenientJsonReader.read(raw, sink));
+        assertEquals(List.of("Alice/Person"), entities);
+    }
+
+    @Test
+    void closesRecordWithMissingBrace() {
+        LenientJsonReader.read("{\"relations\": [{\"source\": \"A\", \"target\": \"B\", \"relationType\": \"r\"]}", sink);
+        assertEquals(List.of("A -r-> B"), relations);
+    }
+
+    @Test
+    void reportsMissingObject() {
+        assertFalse(LenientJsonReader.read("I could not find any entities.", sink));
+        assertFalse(LenientJsonReader.read(null, sink));
+        assertTrue(entities.isEmpty());
+    }
+
+    @Test
+    void linearOnLongMalformedOutput() {
+        StringBuilder sb = new StringBuilder("{\"entities\": [");
+        for (int i = 0; i < 50_000; i++) sb.append("{name: 'E").append(i).append("', type: Thing}, oops ");
+        assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> LenientJsonReader.read(sb, sink));
+        assertEquals(50_000, entities.size());
+    }
+}
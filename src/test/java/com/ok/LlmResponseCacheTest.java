@@ -0,0 +1,125 @@
+package com.ok;
+
+import com.ok.pipeline.LlmResponseCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmResponseCacheTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void servesRepeatsFromMemoryAndDisk() throws Exception {
+        Path log = tmp.resolve("llm.bin");
+        AtomicInteger calls = new AtomicInteger();
+        LlmResponseCache.Key key = LlmResponseCache.key("model", "prompt", "{\"num_ctx\":4096}");
+
+        try (LlmResponseCache cache = new LlmResponseCache(log, 10)) {
+            assertEquals("answer", cache.get(key, () -> "answer" + (calls.incrementAndGet() > 1 ? "!" : "")));
+            assertEquals("answer", cache.get(key, () -> "answer" + (calls.incrementAndGet() > 1 ? "!" : "")));
+            assertEquals(1, calls.get());
+            assertEquals(1, cache.getMemoryHits());
+        }
+        try (LlmResponseCache cache = new LlmResponseCache(log, 10)) {
+            assertEquals("answer", cache.get(key, () -> "fresh"));
+            assertEquals(1, cache.getDiskHits());
+            assertEquals(0, cache.getMisses());
+        }
+    }
+
+    @Test
+    void keysSeparateParts() {
+        assertNotEquals(LlmResponseCache.key("ab", "c"), LlmResponseCache.key("a", "bc"));
+        assertEquals(LlmResponseCache.key("m", "p"), LlmResponseCache.key("m", "p"));
+    }
+
+    @Test
+    void failuresAreNotCached() throws Exception {
+        try (LlmResponseCache cache = new LlmResponseCache(tmp.resolve("llm.bin"), 10)) {
+            LlmResponseCache.Key key = LlmResponseCache.key("m", "p");
+            assertThrows(IOException.class, () -> cache.get(key, () -> {
+                throw new IOException("Ollama returned 500");
+            }));
+            assertEquals("ok", cache.get(key, () -> "ok"));
+            assertEquals(2, cache.getMisses());
+        }
+    }
+
+    @Test
+    void concurrentCallersShareOneGeneration() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (LlmResponseCache cache = new LlmResponseCache(tmp.resolve("llm.bin"), 10)) {
+            LlmResponseCache.Key key = LlmResponseCache.key("m", "same prompt");
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger calls = new AtomicInteger();
+            LlmResponseCache.Generator slow = () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "shared";
+            };
+
+            Future<String> leader = pool.submit(() -> cache.get(key, slow));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> f1 = pool.submit(() -> cache.get(key, slow));
+            Future<String> f2 = pool.submit(() -> cache.get(key, slow));
+            // Let the followers reach the in-flight call before it completes
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.getCoalesced() < 2 && System.nanoTime() < deadline) Thread.sleep(1);
+            release.countDown();
+
+            assertEquals("shared", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("shared", f1.get(5, TimeUnit.SECONDS));
+            assertEquals("shared", f2.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(2, cache.getCoalesced());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void expiredEntriesAreRegenerated() throws Exception {
+        Path log = tmp.resolve("llm.bin");
+        LlmResponseCache.Key key = LlmResponseCache.key("m", "p");
+        try (LlmResponseCache cache = new LlmResponseCache(log, 10, 1 << 20, Duration.ofMillis(1))) {
+            cache.get(key, () -> "old");
+        }
+        Thread.sleep(10);
+        try (LlmResponseCache cache = new LlmResponseCache(log, 10, 1 << 20, Duration.ofMillis(1))) {
+            assertEquals("new", cache.get(key, () -> "new"));
+        }
+    }
+
+    @Test
+    void reopenCompactsToNewestEntriesWithinMaxBytes() throws Exception {
+        Path log = tmp.resolve("llm.bin");
+        String big = "x".repeat(1000);
+        try (LlmResponseCache cache = new LlmResponseCache(log, 10)) {
+            for (int i = 0; i < 5; i++) {
+                int n = i;
+                cache.get(LlmResponseCache.key("m", "p" + i), () -> big + n);
+                Thread.sleep(2); // distinct creation times
+            }
+        }
+        assertTrue(Files.size(log) > 5000);
+
+        try (LlmResponseCache cache = new LlmResponseCache(log, 10, 2500, LlmResponseCache.DEFAULT_TTL)) {
+            assertTrue(Files.size(log) <= 2500);
+            assertEquals(big + 4, cache.get(LlmResponseCache.key("m", "p4"), () -> "regenerated"));
+            assertEquals(big + 3, cache.get(LlmResponseCache.key("m", "p3"), () -> "regenerated"));
+            assertEquals("regenerated", cache.get(LlmResponseCache.key("m", "p0"), () -> "regenerated"));
+        }
+    }
+}
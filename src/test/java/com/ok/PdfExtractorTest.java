@@ -0,0 +1,80 @@
+package com.ok;
+
+import com.ok.pipeline.PdfExtractor;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfExtractorTest {
+
+    @TempDir
+    Path dir;
+
+    // Every page has a heading line and a body line naming its page number; page 7 is blank
+    private void writePdf(String name, int pages) throws Exception {
+        try (PDDocument doc = new PDDocument()) {
+            for (int p = 1; p <= pages; p++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                if (p == 7) continue;
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.beginText();
+                    cs.setFont(PDType1Font.HELVETICA, 12);
+                    cs.newLineAtOffset(72, 700);
+                    cs.showText("Heading " + p);
+                    cs.newLineAtOffset(0, -40);
+                    cs.showText("   Body text of page " + p + ".   ");
+                    cs.endText();
+                }
+            }
+            doc.save(dir.resolve(name).toFile());
+        }
+    }
+
+    @Test
+    void testPagesArriveInOrderWithNumbers() throws Exception {
+        writePdf("manual.pdf", 37);
+        PdfExtractor extractor = new PdfExtractor(dir, 4, 3);
+
+        List<PdfExtractor.Page> pages = new ArrayList<>();
+        extractor.extractPages("manual.pdf", pages::add);
+
+        assertEquals(37, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            PdfExtractor.Page page = pages.get(i);
+            assertEquals(i + 1, page.number);
+            if (page.number == 7) {
+                assertEquals("", page.text);
+            } else {
+                assertEquals("Heading " + page.number + "\n\nBody text of page " + page.number + ".", page.text);
+            }
+        }
+
+        String joined = extractor.extract("manual.pdf");
+        assertTrue(joined.startsWith("Heading 1\n\nBody text of page 1.\n\nHeading 2"));
+        assertTrue(joined.contains("page 6.\n\nHeading 8"));
+        assertTrue(joined.endsWith("Body text of page 37."));
+    }
+
+    @Test
+    void testConsumerFailureStopsExtraction() throws Exception {
+        writePdf("manual.pdf", 40);
+        PdfExtractor extractor = new PdfExtractor(dir, 2, 2);
+
+        List<Integer> seen = new ArrayList<>();
+        assertThrows(IllegalStateException.class, () -> extractor.extractPages("manual.pdf", page -> {
+            seen.add(page.number);
+            if (page.number == 5) throw new IllegalStateException("stop");
+        }));
+        assertEquals(List.of(1, 2, 3, 4, 5), seen);
+    }
+}
@@ -0,0 +1,77 @@
+package com.ok;
+
+import com.ok.store.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantizedVectorIndexTest {
+
+  // Clustered data, closer to real embeddings than isotropic noise
+  private static List<float[]> clustered(Random rnd, int n, int dims, int clusters) {
+    float[][] centers = new float[clusters][dims];
+    for (float[] c : centers) for (int i = 0; i < dims; i++) c[i] = (float) rnd.nextGaussian();
+    List<float[]> out = new ArrayList<>(n);
+    for (int j = 0; j < n; j++) {
+      float[] c = centers[rnd.nextInt(clusters)];
+      float[] v = new float[dims];
+      for (int i = 0; i < dims; i++) v[i] = c[i] + 0.5f * (float) rnd.nextGaussian();
+      out.add(v);
+    }
+    return out;
+  }
+
+  private static QuantizedVectorIndex build(EmbeddingMatrix matrix, QuantizedVectorIndex index, List<float[]> data) {
+    for (int i = 0; i < data.size(); i++) index.add(matrix.add("c" + i, data.get(i)));
+    return index;
+  }
+
+  @Test
+  void testInt8AndPqRecallWithExactRerank() {
+    Random rnd = new Random(11);
+    int dims = 64;
+    List<float[]> data = clustered(rnd, 3000, dims, 40);
+    List<float[]> queries = clustered(rnd, 50, dims, 40);
+
+    EmbeddingMatrix m1 = new EmbeddingMatrix(dims);
+    QuantizedVectorIndex int8 = build(m1, QuantizedVectorIndex.int8(m1), data);
+    EmbeddingMatrix m2 = new EmbeddingMatrix(dims);
+    QuantizedVectorIndex pq = build(m2, QuantizedVectorIndex.pq(m2), data);
+
+    assertTrue(int8.isTrained());
+    assertTrue(pq.isTrained());
+    assertEquals(4.0, int8.compressionRatio(), 1e-9);
+    assertEquals(32.0, pq.compressionRatio(), 1e-9);
+    assertEquals(3000L * dims * Float.BYTES / 32, pq.codeBytesInMemory());
+
+    double int8Recall = int8.recall(queries, 10);
+    double pqRecall = pq.recall(queries, 10);
+    System.out.printf("recall@10 int8=%.3f pq=%.3f%n", int8Recall, pqRecall);
+    assertTrue(int8Recall >= 0.98, "int8 recall@10 too low: " + int8Recall);
+    assertTrue(pqRecall >= 0.95, "pq recall@10 too low: " + pqRecall);
+
+    // Scores come from the exact re-scoring step
+    List<VectorIndex.Result> exact = m2.topK(queries.get(0), 1);
+    List<VectorIndex.Result> approx = pq.search(queries.get(0), 1);
+    assertEquals(exact.get(0).id, approx.get(0).id);
+    assertEquals(exact.get(0).score, approx.get(0).score, 1e-6);
+  }
+
+  @Test
+  void testUntrainedIndexFallsBackToExactAndSkipsRemovedRows() {
+    EmbeddingMatrix matrix = new EmbeddingMatrix();
+    QuantizedVectorIndex index = new QuantizedVectorIndex(matrix, ScalarQuantizer::new, 3, 4);
+    index.add(matrix.add("a", new float[]{1f, 0f}));
+    index.add(matrix.add("b", new float[]{0f, 1f}));
+    assertFalse(index.isTrained());
+    assertEquals("a", index.search(new float[]{1f, 0.1f}, 1).get(0).id);
+
+    index.add(matrix.add("c", new float[]{0.7f, 0.7f}));
+    assertTrue(index.isTrained());
+    assertTrue(matrix.remove("a"));
+    List<VectorIndex.Result> res = index.search(new float[]{1f, 0.1f}, 3);
+    assertEquals(List.of("c", "b"), res.stream().map(r -> r.id).toList());
+  }
+}
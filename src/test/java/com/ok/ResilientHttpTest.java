@@ -0,0 +1,184 @@
+package com.ok;
+
+import com.ok.util.HttpCallException;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResilientHttpTest {
+
+    // Fast backoff; circuits open after 3 consecutive failures for 200ms
+    private static final ResilientHttp.Policy POLICY = new ResilientHttp.Policy(3, Duration.ofMillis(1),
+        Duration.ofMillis(5), 3, Duration.ofMillis(200), null);
+
+    private HttpServer primary;
+    private HttpServer replica;
+    private final HttpTransport transport = new HttpTransport("test", HttpClient.newHttpClient(),
+        Duration.ofSeconds(10), 8, false, false);
+
+    @BeforeEach
+    void start() throws IOException {
+        primary = server();
+        replica = server();
+    }
+
+    @AfterEach
+    void stop() {
+        primary.stop(0);
+        replica.stop(0);
+    }
+
+    private static HttpServer server() throws IOException {
+        HttpServer s = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        s.setExecutor(Executors.newCachedThreadPool());
+        return s;
+    }
+
+    private static String base(HttpServer s) {
+        return "http://127.0.0.1:" + s.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, b.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(b);
+        }
+    }
+
+    private HttpResponse<String> get(ResilientHttp http, String path) throws Exception {
+        return http.send(transport.request(URI.create(base(primary) + path)).GET().build(),
+            HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void retriesServerErrorsUntilSuccess() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        primary.createContext("/flaky", exchange -> {
+            if (calls.incrementAndGet() < 3) respond(exchange, 503, "busy");
+            else respond(exchange, 200, "ok");
+        });
+        primary.start();
+
+        HttpResponse<String> response = get(new ResilientHttp(transport, POLICY), "/flaky");
+        assertEquals(200, response.statusCode());
+        assertEquals("ok", response.body());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void returnsClientErrorsWithoutRetrying() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        primary.createContext("/missing", exchange -> {
+            calls.incrementAndGet();
+            respond(exchange, 404, "no such model");
+        });
+        primary.start();
+
+        assertEquals(404, get(new ResilientHttp(transport, POLICY), "/missing").statusCode());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void opensCircuitAfterRepeatedFailuresAndProbesAfterCooldown() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger failing = new AtomicInteger(1);
+        primary.createContext("/down", exchange -> {
+            calls.incrementAndGet();
+            if (failing.get() == 1) respond(exchange, 500, "boom");
+            else respond(exchange, 200, "back");
+        });
+        primary.start();
+        ResilientHttp http = new ResilientHttp(transport, POLICY);
+
+        HttpCallException exhausted = assertThrows(HttpCallException.class, () -> get(http, "/down"));
+        assertTrue(exhausted.isRetryable());
+        assertEquals(500, exhausted.getStatus());
+        assertEquals(3, exhausted.getAttempts());
+
+        // Open: rejected without reaching the server
+        HttpCallException rejected = assertThrows(HttpCallException.class, () -> get(http, "/down"));
+        assertFalse(rejected.isRetryable());
+        assertEquals(3, calls.get());
+
+        failing.set(0);
+        Thread.sleep(250);
+        assertEquals("back", get(http, "/down").body());
+        assertEquals("back", get(http, "/down").body());
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    void reportsTransportFailuresExplicitly() throws Exception {
+        primary.start();
+        String dead = base(primary);
+        primary.stop(0);
+
+        HttpCallException e = assertThrows(HttpCallException.class, () -> new ResilientHttp(transport, POLICY)
+            .send(transport.request(URI.create(dead + "/api/embed")).GET().build(),
+                HttpResponse.BodyHandlers.ofString()));
+        assertEquals(-1, e.getStatus());
+        assertInstanceOf(IOException.class, e.getCause());
+        assertTrue(e.getEndpoint().startsWith("127.0.0.1:"));
+    }
+
+    @Test
+    void hedgeToReplicaBeatsSlowPrimary() throws Exception {
+        primary.createContext("/api/generate", exchange -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "primary");
+        });
+        replica.createContext("/api/generate", exchange -> respond(exchange, 200, "replica"));
+        primary.start();
+        replica.start();
+
+        ResilientHttp http = new ResilientHttp(transport, POLICY.withHedgeDelay(Duration.ofMillis(50)), base(replica));
+        long start = System.nanoTime();
+        HttpResponse<String> response = get(http, "/api/generate");
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("replica", response.body());
+        assertTrue(millis < 2000, "took " + millis + " ms");
+        assertTrue(ResilientHttp.report().contains("ResilientHttp[127.0.0.1:" + primary.getAddress().getPort()
+            + "] state=CLOSED calls=1 failures=0 retries=0 hedges=1 hedgeWins=1"), ResilientHttp.report());
+    }
+
+    @Test
+    void failsOverToReplicaWhilePrimaryCircuitIsOpen() throws Exception {
+        AtomicInteger primaryCalls = new AtomicInteger();
+        primary.createContext("/api/embed", exchange -> {
+            primaryCalls.incrementAndGet();
+            respond(exchange, 502, "bad gateway");
+        });
+        replica.createContext("/api/embed", exchange -> respond(exchange, 200, "replica"));
+        primary.start();
+        replica.start();
+
+        ResilientHttp http = new ResilientHttp(transport, POLICY, base(replica) + "/");
+        // Three 502s use up the retries and open the primary's circuit; the next call goes to the replica
+        assertThrows(HttpCallException.class, () -> get(http, "/api/embed"));
+        assertEquals("replica", get(http, "/api/embed").body());
+        assertEquals(3, primaryCalls.get());
+    }
+}
@@ -46,12 +46,12 @@ public class RetrieverDebugTest {
       String chunkId = v.id().toString();
       String text = v.property("text").value().toString();
 
-      if (!v.property("embedding").isPresent()) {
+      float[] emb = store.chunkEmbedding(chunkId);
+      if (emb == null) {
         System.out.println(chunkId + " - no embedding!");
         continue;
       }
 
-      float[] emb = (float[]) v.property("embedding").value();
       System.out.println(chunkId + " embedding length: " + emb.length);
       System.out.println("Chunk embedding sample: " +
               Arrays.toString(Arrays.copyOf(emb, Math.min(10, emb.length))));
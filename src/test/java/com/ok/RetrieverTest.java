@@ -0,0 +1,69 @@
+package com.ok;
+
+import com.ok.embeddings.EmbeddingModel;
+import com.ok.pipeline.Retriever;
+import com.ok.store.TinkerGraphStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetrieverTest {
+
+    private static final int DIMS = 32;
+
+    private static float[] random(Random rnd) {
+        float[] v = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) v[i] = (float) rnd.nextGaussian();
+        return v;
+    }
+
+    // Chunks near the query vector that never name the keyword, plus one far-away chunk that does
+    private static TinkerGraphStore store(float[] query) {
+        Random rnd = new Random(5);
+        TinkerGraphStore store = new TinkerGraphStore();
+        for (int i = 0; i < 50; i++) {
+            float[] v = query.clone();
+            for (int d = 0; d < DIMS; d++) v[d] += 0.3f * (float) rnd.nextGaussian();
+            store.addChunk("near-" + i, "the outbreak reached the city in autumn", v);
+        }
+        float[] far = query.clone();
+        for (int d = 0; d < DIMS; d++) far[d] = -far[d];
+        store.addChunk("keyword", "Philadelphia closed its schools during the pandemic", far);
+        return store;
+    }
+
+    @Test
+    void testHybridFindsKeywordMatchesThatVectorSearchMisses() {
+        float[] q = random(new Random(1));
+        TinkerGraphStore store = store(q);
+        EmbeddingModel model = text -> q;
+        String query = "Philadelphia pandemic";
+
+        List<Retriever.Hit> dense = new Retriever(store, model, Retriever.SearchMode.ANN).retrieve(query, 5, 0);
+        assertTrue(dense.stream().noneMatch(h -> h.chunkId.equals("keyword")));
+
+        for (Retriever.Fusion fusion : Retriever.Fusion.values()) {
+            Retriever hybrid = new Retriever(store, model, Retriever.SearchMode.HYBRID, fusion, 0.5);
+            Retriever.Timings timings = new Retriever.Timings();
+            List<Retriever.Hit> hits = hybrid.retrieve(query, 5, 0, timings);
+
+            assertTrue(hits.stream().anyMatch(h -> h.chunkId.equals("keyword")), fusion.name());
+            assertTrue(hits.size() <= 10);
+            for (Retriever.Hit h : hits) assertTrue(h.score >= 0 && h.score <= 1.0 + 1e-9);
+            assertTrue(timings.lexicalNanos > 0 && timings.vectorNanos > 0 && timings.totalNanos > 0);
+        }
+    }
+
+    @Test
+    void testHybridWithoutEmbeddingFallsBackToLexical() {
+        TinkerGraphStore store = store(random(new Random(2)));
+        Retriever hybrid = new Retriever(store, text -> new float[0], Retriever.SearchMode.HYBRID);
+
+        List<Retriever.Hit> hits = hybrid.retrieve("Philadelphia", 3, 0);
+        assertEquals(1, hits.size());
+        assertEquals("keyword", hits.get(0).chunkId);
+    }
+}
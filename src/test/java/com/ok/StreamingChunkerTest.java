@@ -0,0 +1,101 @@
+package com.ok;
+
+import com.ok.pipeline.DocumentChunker;
+import com.ok.util.TextUtils;
+import com.ok.util.TokenCounter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingChunkerTest {
+
+    // The regex-based chunker the streaming one replaced, kept as the reference
+    private static List<String> legacyChunk(String text, int targetTokens) {
+        text = text.replaceAll("\\r\\n", "\n").replaceAll("\\n{2,}", "\n").replaceAll("[ \t]+", " ");
+        List<String> chunks = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        int tokens = 0;
+        for (String s : text.split("(?<=[.!?])\\s+")) {
+            s = s.trim();
+            if (s.isEmpty()) continue;
+            int t = s.split("\\s+").length;
+            if (tokens + t > targetTokens && cur.length() > 0) {
+                chunks.add(cur.toString().trim());
+                cur.setLength(0);
+                tokens = 0;
+            }
+            cur.append(s).append(" ");
+            tokens += t;
+        }
+        if (cur.length() > 0) chunks.add(cur.toString().trim());
+        return chunks;
+    }
+
+    private static final String[] PIECES = {
+        "word", "graph", "Dr.", "e.g.", "end.", "why?", "stop!", "x", " ", "  ", "\t", "\n", "\n\n",
+        "\r\n", "\r\n\r\n", " \n ", "\f", "3.14", "...", "été"
+    };
+
+    private static String noisyText(Random rnd, int pieces) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            sb.append(PIECES[rnd.nextInt(PIECES.length)]);
+            if (rnd.nextBoolean()) sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testMatchesRegexChunker() {
+        Random rnd = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            String text = noisyText(rnd, rnd.nextInt(400));
+            int target = 1 + rnd.nextInt(40);
+            assertEquals(legacyChunk(text, target), TextUtils.chunkByTokens(text, target), "round " + round);
+        }
+    }
+
+    @Test
+    void testOverlapRepeatsTrailingSentences() {
+        String text = "One two three. Four five. Six seven eight. Nine ten. Eleven twelve.";
+        List<String> chunks = new DocumentChunker(TokenCounter.WORDS, 5, 2, Integer.MAX_VALUE).chunk(text);
+        assertEquals(List.of(
+            "One two three. Four five.",
+            "Four five. Six seven eight.",
+            "Nine ten. Eleven twelve."), chunks);
+    }
+
+    @Test
+    void testMaxCharsCutsLongSentences() {
+        String text = "short one. " + "alpha beta gamma delta ".repeat(20) + "end. tail.";
+        List<String> chunks = new DocumentChunker(TokenCounter.WORDS, 1000, 0, 50).chunk(text);
+        for (String c : chunks) {
+            assertTrue(c.length() <= 50, c);
+            assertFalse(c.startsWith(" ") || c.endsWith(" "));
+        }
+        assertEquals(text.replaceAll("\\s+", " ").trim(), String.join(" ", chunks));
+    }
+
+    @Test
+    void testChunksAreEmittedBeforeInputIsExhausted() {
+        String text = "A short sentence with six words. ".repeat(100_000);
+        int[] consumed = new int[1];
+        Reader reader = new StringReader(text) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int n = super.read(cbuf, off, len);
+                if (n > 0) consumed[0] += n;
+                return n;
+            }
+        };
+
+        Iterator<String> it = new DocumentChunker(12).iterator(reader);
+        assertEquals("A short sentence with six words. A short sentence with six words.", it.next());
+        assertTrue(consumed[0] <= 16_384, "read " + consumed[0] + " chars for the first chunk");
+    }
+}
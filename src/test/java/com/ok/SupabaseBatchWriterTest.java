@@ -0,0 +1,164 @@
+package com.ok;
+
+import com.ok.store.SupabaseBatchWriter;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupabaseBatchWriterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private HttpServer server;
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger unavailable = new AtomicInteger();
+    private final AtomicInteger slowResponses = new AtomicInteger();
+    private final List<Map<String, Object>> table = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void startStub() throws Exception {
+        // Stub PostgREST: 503 while `unavailable` > 0, 400 for any batch containing a "bad" row
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/rest/v1/chunks", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            int status;
+            if (unavailable.getAndDecrement() > 0) {
+                status = 503;
+            } else if (body.contains("\"bad\"")) {
+                status = 400;
+            } else if (body.contains("\"chunk_hash\"")) {
+                // The table has no such column: PostgREST rejects the whole request
+                bodies.add(body);
+                byte[] error = "{\"code\":\"PGRST204\",\"message\":\"Could not find the 'chunk_hash' column\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(400, error.length);
+                exchange.getResponseBody().write(error);
+                exchange.close();
+                return;
+            } else {
+                bodies.add(body);
+                status = 201;
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        // Stub table: commits the rows (merging duplicates of "chunk_hash" for upserts), then answers
+        // slowly while `slowResponses` > 0, as if the response was lost after the commit
+        server.createContext("/rest/v1/rows", exchange -> {
+            List<Map<String, Object>> rows = MAPPER.readValue(exchange.getRequestBody(), new TypeReference<>() { });
+            String query = exchange.getRequestURI().getQuery();
+            boolean merge = query != null && query.contains("on_conflict=chunk_hash")
+                && exchange.getRequestHeaders().getFirst("Prefer").contains("resolution=merge-duplicates");
+            synchronized (table) {
+                for (Map<String, Object> row : rows) {
+                    if (merge) table.removeIf(r -> r.get("chunk_hash").equals(row.get("chunk_hash")));
+                    table.add(row);
+                }
+            }
+            if (slowResponses.getAndDecrement() > 0) {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Test
+    void testRowsAreSentInBulk() throws Exception {
+        SupabaseBatchWriter writer = new SupabaseBatchWriter(url(), "key", "chunks", 4, 1 << 20, 2, 0);
+        for (int i = 0; i < 10; i++) writer.add("k" + i, Map.of("chunk_text", "text " + i));
+        SupabaseBatchWriter.Report report = writer.flush();
+        writer.close();
+
+        assertEquals(3, bodies.size()); // 4 + 4 + 2 rows
+        assertEquals(10, report.stored.size());
+        assertTrue(report.failed.isEmpty());
+    }
+
+    @Test
+    void testRetriesAndIsolatesRejectedRows() throws Exception {
+        unavailable.set(1);
+        SupabaseBatchWriter writer = new SupabaseBatchWriter(url(), "key", "chunks", 8, 1 << 20, 1, 2);
+        for (int i = 0; i < 8; i++) {
+            writer.add("k" + i, Map.of("chunk_text", i == 5 ? "bad" : "text " + i));
+        }
+        SupabaseBatchWriter.Report report = writer.flush();
+        writer.close();
+
+        assertEquals(Set.of("k5"), report.failed.keySet());
+        assertTrue(report.failed.get("k5").startsWith("400"));
+        assertEquals(7, report.stored.size());
+        assertFalse(report.stored.contains("k5"));
+    }
+
+    @Test
+    void testUpsertRetriedAfterTimeoutDoesNotDuplicateRows() throws Exception {
+        slowResponses.set(1);
+        SupabaseBatchWriter writer = new SupabaseBatchWriter(url(), "key", "rows", 10, 1 << 20, 1, 2)
+            .upsertOn("chunk_hash")
+            .withRequestTimeout(Duration.ofMillis(500));
+        for (int i = 0; i < 5; i++) writer.add("k" + i, Map.of("chunk_hash", "h" + i, "chunk_text", "text " + i));
+        SupabaseBatchWriter.Report report = writer.flush();
+        writer.close();
+
+        assertEquals(5, report.stored.size());
+        assertTrue(report.failed.isEmpty());
+        assertEquals(5, table.size());
+    }
+
+    @Test
+    void testInsertIsNotRetriedAfterTimeout() throws Exception {
+        slowResponses.set(1);
+        SupabaseBatchWriter writer = new SupabaseBatchWriter(url(), "key", "rows", 10, 1 << 20, 1, 2)
+            .withRequestTimeout(Duration.ofMillis(500));
+        for (int i = 0; i < 5; i++) writer.add("k" + i, Map.of("chunk_hash", "h" + i, "chunk_text", "text " + i));
+        SupabaseBatchWriter.Report report = writer.flush();
+        writer.close();
+
+        // The batch did land, but an insert can't be retried safely, so it is reported instead
+        assertEquals(5, report.failed.size());
+        assertEquals(5, table.size());
+    }
+
+    @Test
+    void testMissingColumnFailsBatchesWithoutBisecting() throws Exception {
+        SupabaseBatchWriter writer = new SupabaseBatchWriter(url(), "key", "chunks", 8, 1 << 20, 1, 2);
+        for (int i = 0; i < 16; i++) writer.add("k" + i, Map.of("chunk_hash", "h" + i));
+        SupabaseBatchWriter.Report report = writer.flush();
+        writer.close();
+
+        // One request for the first batch; the second batch fails with the same error unsent
+        assertEquals(1, bodies.size());
+        assertEquals(16, report.failed.size());
+        assertTrue(report.failed.get("k15").contains("PGRST204"), report.failed.get("k15"));
+        assertTrue(report.stored.isEmpty());
+    }
+}
@@ -0,0 +1,75 @@
+package com.ok;
+
+import com.ok.embeddings.TopK;
+import com.ok.embeddings.VectorMath;
+import com.ok.util.SimilarityUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VectorMathTest {
+
+    private static float[] random(Random rnd, int dims) {
+        float[] v = new float[dims];
+        for (int i = 0; i < dims; i++) v[i] = (float) rnd.nextGaussian();
+        return v;
+    }
+
+    @Test
+    void testKernelsMatchDoubleReference() {
+        System.out.println("VectorMath implementation: " + VectorMath.implementation());
+        Random rnd = new Random(3);
+        // Lengths around and between typical lane counts, plus real embedding sizes
+        for (int dims : new int[]{1, 3, 7, 8, 15, 16, 17, 33, 384, 1023, 2560, 4096}) {
+            float[] a = random(rnd, dims);
+            float[] b = random(rnd, dims);
+            double dot = 0, na = 0, nb = 0, l2 = 0;
+            for (int i = 0; i < dims; i++) {
+                dot += (double) a[i] * b[i];
+                na += (double) a[i] * a[i];
+                nb += (double) b[i] * b[i];
+                l2 += ((double) a[i] - b[i]) * ((double) a[i] - b[i]);
+            }
+            double scale = Math.sqrt(na * nb);
+            assertEquals(dot, VectorMath.dot(a, b), 1e-4 * scale + 1e-5, "dot dims=" + dims);
+            assertEquals(dot / scale, VectorMath.cosine(a, b), 1e-5, "cosine dims=" + dims);
+            assertEquals(dot / scale, SimilarityUtils.cosine(a, b), 1e-5, "utils cosine dims=" + dims);
+            assertEquals(Math.sqrt(na), VectorMath.norm(a), 1e-4 * Math.sqrt(na));
+            assertEquals(Math.sqrt(l2), VectorMath.l2(a, b), 1e-4 * Math.sqrt(l2));
+        }
+    }
+
+    @Test
+    void testLengthMismatchThrowsEverywhere() {
+        float[] a = {1f, 2f, 3f};
+        float[] b = {1f, 2f};
+        assertThrows(IllegalArgumentException.class, () -> VectorMath.dot(a, b));
+        assertThrows(IllegalArgumentException.class, () -> VectorMath.cosine(a, b));
+        assertThrows(IllegalArgumentException.class, () -> VectorMath.l2(a, b));
+        assertThrows(IllegalArgumentException.class, () -> SimilarityUtils.cosine(a, b));
+        assertEquals(0f, VectorMath.cosine(new float[3], a));
+    }
+
+    @Test
+    void testTopKMatchesFullSort() {
+        Random rnd = new Random(5);
+        float[][] rows = new float[500][];
+        for (int i = 0; i < rows.length; i++) rows[i] = random(rnd, 64);
+        float[] q = random(rnd, 64);
+
+        float[] scores = new float[rows.length];
+        VectorMath.dotAll(q, rows, scores);
+        Integer[] order = new Integer[rows.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (x, y) -> Float.compare(scores[y], scores[x]));
+
+        TopK top = VectorMath.topK(q, rows, 10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(order[i].intValue(), top.id(i));
+            assertEquals(scores[order[i]], top.score(i));
+        }
+    }
+}
@@ -1,12 +1,34 @@
 package com.ok;
 
+import com.ok.pipeline.WikidataCache;
+import com.ok.pipeline.WikidataLabelIndex;
 import com.ok.pipeline.WikidataMatcher;
+import com.ok.util.HttpTransport;
+import com.ok.util.ResilientHttp;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class WikidataMatcherTest {
 
+  @TempDir
+  Path tmp;
+
   @Test
   public void testMatchRealEntity() {
     WikidataMatcher matcher = new WikidataMatcher();
@@ -20,4 +42,126 @@ public class WikidataMatcherTest {
     // Relations might vary, but should not throw
     assertNotNull(match.getRelations(), "Relations should not be null");
   }
+
+  // Stub SPARQL endpoint answering every query with the given bindings
+  private HttpServer stub(int status, String bindings, List<String> queries) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/sparql", exchange -> {
+      String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      queries.add(exchange.getRequestHeaders().getFirst("User-Agent") + "\n"
+          + URLDecoder.decode(form.substring("query=".length()), StandardCharsets.UTF_8));
+      byte[] body = ("{\"results\":{\"bindings\":[" + bindings + "]}}").getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  private static String row(String label, String qid, int links, String type) {
+    return "{\"label\":{\"type\":\"literal\",\"xml:lang\":\"en\",\"value\":\"" + label + "\"},"
+        + "\"item\":{\"type\":\"uri\",\"value\":\"http://www.wikidata.org/entity/" + qid + "\"},"
+        + "\"links\":{\"type\":\"literal\",\"value\":\"" + links + "\"},"
+        + "\"typeLabel\":{\"type\":\"literal\",\"value\":\"" + type + "\"}}";
+  }
+
+  private static WikidataMatcher online(HttpServer server) {
+    HttpTransport transport = new HttpTransport("wikidata-stub", HttpClient.newHttpClient(), Duration.ofSeconds(10),
+        5, false, false);
+    return new WikidataMatcher(new ResilientHttp(transport, ResilientHttp.Policy.DEFAULT),
+        "http://127.0.0.1:" + server.getAddress().getPort() + "/sparql", 100);
+  }
+
+  @Test
+  public void testBatchesLabelsIntoOneQueryAndCachesMisses() throws Exception {
+    List<String> queries = new CopyOnWriteArrayList<>();
+    HttpServer server = stub(200, String.join(",",
+        row("Paris", "Q167646", 5, "commune"),
+        row("Paris", "Q90", 250, "city"),
+        row("Paris", "Q90", 250, "capital"),
+        row("Berlin", "Q64", 230, "city")), queries);
+    Path cacheFile = tmp.resolve("wikidata-cache.tsv");
+    List<String> labels = List.of("Paris", "Berlin", "Nowhere \"Ville\"");
+    try {
+      Map<String, WikidataMatcher.Match> links;
+      try (WikidataCache cache = new WikidataCache(cacheFile)) {
+        links = online(server).withCache(cache).link(labels);
+      }
+      assertEquals(1, queries.size());
+      assertTrue(queries.get(0).startsWith("graphrag/"), "User-Agent is sent");
+      assertTrue(queries.get(0).contains("VALUES ?label { \"Paris\"@en \"Berlin\"@en \"Nowhere \\\"Ville\\\"\"@en }"),
+          queries.get(0));
+      assertEquals("Q90", links.get("Paris").getId());
+      assertEquals("city", links.get("Paris").getType());
+      assertEquals("Q64", links.get("Berlin").getId());
+      assertFalse(links.containsKey("Nowhere \"Ville\""));
+
+      // Matches and the miss come from the reopened cache without another query
+      try (WikidataCache cache = new WikidataCache(cacheFile)) {
+        links = online(server).withCache(cache).link(labels);
+      }
+      assertEquals(1, queries.size());
+      assertEquals("Q90", links.get("Paris").getId());
+      assertEquals(2, links.size());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testLabelsWithLineBreaksSurviveReload() throws Exception {
+    Path cacheFile = tmp.resolve("wikidata-cache.tsv");
+    try (WikidataCache cache = new WikidataCache(cacheFile)) {
+      cache.put("Boccaccio\u2019s\nFlorence", new WikidataMatcher.Match("Q2044", "Florence", "city", List.of()));
+      cache.put("Nowhere\tVille", null);
+    }
+    try (WikidataCache cache = new WikidataCache(cacheFile)) {
+      assertEquals("Q2044", cache.lookup("Boccaccio\u2019s\nFlorence").orElseThrow().getId());
+      assertEquals(Optional.empty(), cache.lookup("Nowhere\tVille"));
+      assertEquals(2, cache.size());
+    }
+  }
+
+  @Test
+  public void testFailedQueriesAreNotCached() throws Exception {
+    List<String> queries = new CopyOnWriteArrayList<>();
+    HttpServer server = stub(400, "", queries);
+    try (WikidataCache cache = new WikidataCache(tmp.resolve("wikidata-cache.tsv"))) {
+      assertTrue(online(server).withCache(cache).link(List.of("Paris")).isEmpty());
+      assertEquals(0, cache.size());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testOfflineIndexBuiltFromDump() throws Exception {
+    Path dump = tmp.resolve("subset.json");
+    Files.writeString(dump, """
+        [
+        {"id":"Q90","labels":{"en":{"value":"Paris"}},"aliases":{"en":[{"value":"City of Light"}]},
+         "sitelinks":{"enwiki":{},"frwiki":{},"dewiki":{}},
+         "claims":{"P31":[{"mainsnak":{"datavalue":{"value":{"id":"Q515"}}}}]}},
+        {"id":"Q515","labels":{"en":{"value":"city"}},"sitelinks":{}},
+        {"id":"Q167646","labels":{"en":{"value":"Paris"}},"sitelinks":{"enwiki":{}},
+         "claims":{"P31":[{"mainsnak":{"datavalue":{"value":{"id":"Q484170"}}}}]}},
+        {"id":"Q7","labels":{"de":{"value":"Ohne englisches Label"}}}
+        ]
+        """);
+    Path tsv = tmp.resolve("labels.tsv");
+    WikidataLabelIndex built = WikidataLabelIndex.build(dump, tsv);
+
+    for (WikidataLabelIndex index : List.of(built, WikidataLabelIndex.load(tsv))) {
+      Map<String, WikidataMatcher.Match> links = WikidataMatcher.offline(index)
+          .link(List.of("PARIS", "city  of light", "Berlin"));
+      assertEquals("Q90", links.get("PARIS").getId(), "most sitelinks wins");
+      assertEquals("city", links.get("PARIS").getType());
+      assertEquals("Q90", links.get("city  of light").getId());
+      assertFalse(links.containsKey("Berlin"));
+    }
+    assertEquals(3, built.size());
+  }
 }